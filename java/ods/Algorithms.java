@@ -5,6 +5,11 @@ import java.util.Comparator;
 import java.util.Queue;
 import java.util.Random;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 
 public class Algorithms {
 	protected static Random rand = new Random();
@@ -194,6 +199,157 @@ public class Algorithms {
 		return b;
 	}
 
+	/**
+	 * @return the number of chunks to split an array of length n into when
+	 * radix sorting it in parallel
+	 */
+	protected static int radixChunks(int n) {
+		return Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(),
+				n / parallelThreshold));
+	}
+
+	/**
+	 * Turn the per-chunk histograms c[k][v] into starting positions: each
+	 * chunk's elements with digit v go after all elements with smaller
+	 * digits and after the elements of earlier chunks with digit v
+	 * @return false if every element has the same digit (so the pass can
+	 * be skipped)
+	 */
+	protected static boolean radixOffsets(int[][] c, int n) {
+		int sum = 0;
+		for (int v = 0; v < c[0].length; v++) {
+			int col = 0;
+			for (int k = 0; k < c.length; k++)
+				col += c[k][v];
+			if (col == n) return false;
+			for (int k = 0; k < c.length; k++) {
+				int x = c[k][v];
+				c[k][v] = sum;
+				sum += x;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sort an array of ints (including negative ones) using a parallel
+	 * LSD radix sort.  The array is split into chunks; in each pass every
+	 * chunk builds its own histogram, the histograms are combined with a
+	 * prefix sum, and every chunk scatters its elements into a second
+	 * array.  The two arrays then trade places, so only one extra array
+	 * is ever allocated.  Passes in which every element has the same
+	 * digit are skipped.
+	 * @param a the array to sort
+	 */
+	public static void parallelRadixSort(int[] a) {
+		parallelRadixSort(a, null);
+	}
+
+	/**
+	 * Sort the keys in a, and move the values in v along with them.  The
+	 * sort is stable.
+	 * @param a the keys
+	 * @param v the values (or null)
+	 */
+	public static void parallelRadixSort(int[] a, int[] v) {
+		int n = a.length, t = radixChunks(n), m = (1<<d)-1;
+		int[] a0 = a, b = new int[n];
+		int[] v0 = v, bv = v == null ? null : new int[n];
+		int[][] c = new int[t][1<<d];
+		for (int p = 0; p < w/d; p++) {
+			final int s = d*p, flip = s+d == w ? 1<<(d-1) : 0; // sign bit
+			final int[] src = a, dst = b, srcv = v, dstv = bv;
+			IntStream.range(0, t).parallel().forEach(k -> {
+				int[] ck = c[k];
+				Arrays.fill(ck, 0);
+				for (int i = (int)((long)n*k/t); i < (long)n*(k+1)/t; i++)
+					ck[((src[i] >>> s) & m) ^ flip]++;
+			});
+			if (!radixOffsets(c, n)) continue;
+			IntStream.range(0, t).parallel().forEach(k -> {
+				int[] ck = c[k];
+				for (int i = (int)((long)n*k/t); i < (long)n*(k+1)/t; i++) {
+					int j = ck[((src[i] >>> s) & m) ^ flip]++;
+					dst[j] = src[i];
+					if (srcv != null) dstv[j] = srcv[i];
+				}
+			});
+			a = dst; b = src;
+			v = dstv; bv = srcv;
+		}
+		if (a != a0) {
+			System.arraycopy(a, 0, a0, 0, n);
+			if (v0 != null) System.arraycopy(v, 0, v0, 0, n);
+		}
+	}
+
+	/**
+	 * Sort the indices 0,...,n-1 by key, using parallelRadixSort(int[],
+	 * int[]).  The hash tables use this to handle a batch of elements in
+	 * order of their hash values, so that they sweep the table from left
+	 * to right instead of jumping around in it.
+	 * @param n the number of indices
+	 * @param key key(i) is the key of index i
+	 * @return the indices, in order of their keys (ties in order of index)
+	 */
+	public static int[] parallelRadixOrder(int n, IntUnaryOperator key) {
+		int[] h = new int[n], ix = new int[n];
+		for (int i = 0; i < n; i++) {
+			h[i] = key.applyAsInt(i);
+			ix[i] = i;
+		}
+		parallelRadixSort(h, ix);
+		return ix;
+	}
+
+	/**
+	 * Sort an array of longs using a parallel LSD radix sort
+	 * @see #parallelRadixSort(int[])
+	 * @param a the array to sort
+	 */
+	public static void parallelRadixSort(long[] a) {
+		parallelRadixSort(a, null);
+	}
+
+	/**
+	 * Sort the keys in a, and move the values in v along with them.  The
+	 * sort is stable.
+	 * @param a the keys
+	 * @param v the values (or null)
+	 */
+	public static void parallelRadixSort(long[] a, int[] v) {
+		int n = a.length, t = radixChunks(n), m = (1<<d)-1;
+		long[] a0 = a, b = new long[n];
+		int[] v0 = v, bv = v == null ? null : new int[n];
+		int[][] c = new int[t][1<<d];
+		for (int p = 0; p < 64/d; p++) {
+			final int s = d*p, flip = s+d == 64 ? 1<<(d-1) : 0; // sign bit
+			final long[] src = a, dst = b;
+			final int[] srcv = v, dstv = bv;
+			IntStream.range(0, t).parallel().forEach(k -> {
+				int[] ck = c[k];
+				Arrays.fill(ck, 0);
+				for (int i = (int)((long)n*k/t); i < (long)n*(k+1)/t; i++)
+					ck[((int)(src[i] >>> s) & m) ^ flip]++;
+			});
+			if (!radixOffsets(c, n)) continue;
+			IntStream.range(0, t).parallel().forEach(k -> {
+				int[] ck = c[k];
+				for (int i = (int)((long)n*k/t); i < (long)n*(k+1)/t; i++) {
+					int j = ck[((int)(src[i] >>> s) & m) ^ flip]++;
+					dst[j] = src[i];
+					if (srcv != null) dstv[j] = srcv[i];
+				}
+			});
+			a = dst; b = src;
+			v = dstv; bv = srcv;
+		}
+		if (a != a0) {
+			System.arraycopy(a, 0, a0, 0, n);
+			if (v0 != null) System.arraycopy(v, 0, v0, 0, n);
+		}
+	}
+
 
 	public static <T extends Comparable<T>> void quickSort(T[] a) {
 		quickSort(a, new DefaultComparator<T>());
@@ -212,6 +368,202 @@ public class Algorithms {
 		BinaryHeap.sort(a, c);
 	}
 
+	/**
+	 * Subproblems smaller than this are solved sequentially by the
+	 * parallel sorting algorithms
+	 */
+	protected static int parallelThreshold = 1<<13;
+
+	public static <T extends Comparable<T>> void parallelMergeSort(T[] a) {
+		parallelMergeSort(a, new DefaultComparator<T>());
+	}
+
+	/**
+	 * Sort a using a parallel merge-sort.  The two halves are sorted in
+	 * parallel and then merged in parallel.  Instead of allocating new
+	 * arrays at every level (like mergeSort does), the recursion
+	 * alternates between a and a single scratch array of the same size.
+	 * @param a
+	 * @param c
+	 */
+	public static <T> void parallelMergeSort(T[] a, Comparator<T> c) {
+		if (a.length <= 1) return;
+		T[] b = a.clone();
+		ForkJoinPool.commonPool().invoke(new MergeSortTask<T>(a, b, 0, a.length, c));
+	}
+
+	/**
+	 * Sort a[i..j-1] into a, using b[i..j-1] (which contains the same
+	 * elements as a[i..j-1]) as scratch space
+	 */
+	protected static class MergeSortTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		T[] a, b;
+		int i, j;
+		Comparator<T> c;
+
+		MergeSortTask(T[] a, T[] b, int i, int j, Comparator<T> c) {
+			this.a = a;
+			this.b = b;
+			this.i = i;
+			this.j = j;
+			this.c = c;
+		}
+
+		protected void compute() {
+			if (j - i <= parallelThreshold) {
+				mergeSort(a, b, i, j, c);
+				return;
+			}
+			int m = (i+j) >>> 1;
+			// sort each half into b, using a as scratch space
+			invokeAll(new MergeSortTask<T>(b, a, i, m, c),
+					new MergeSortTask<T>(b, a, m, j, c));
+			new MergeTask<T>(b, i, m, b, m, j, a, i, true, c).compute();
+		}
+	}
+
+	/**
+	 * The sequential version of MergeSortTask
+	 */
+	protected static <T> void mergeSort(T[] a, T[] b, int i, int j,
+			Comparator<T> c) {
+		if (j - i <= 1) return;
+		int m = (i+j) >>> 1;
+		mergeSort(b, a, i, m, c);
+		mergeSort(b, a, m, j, c);
+		merge(b, i, m, b, m, j, a, i, c);
+	}
+
+	/**
+	 * Merge the sorted runs a0[i0..j0-1] and a1[i1..j1-1] into a,
+	 * starting at position k
+	 */
+	protected static <T> void merge(T[] a0, int i0, int j0, T[] a1, int i1,
+			int j1, T[] a, int k, Comparator<T> c) {
+		while (i0 < j0 && i1 < j1)
+			a[k++] = c.compare(a0[i0], a1[i1]) <= 0 ? a0[i0++] : a1[i1++];
+		System.arraycopy(a0, i0, a, k, j0-i0);
+		System.arraycopy(a1, i1, a, k+j0-i0, j1-i1);
+	}
+
+	/**
+	 * Merge two sorted runs in parallel.  The middle element of the longer
+	 * run splits it in two, a binary search splits the shorter run at the
+	 * same value, and the two pairs of pieces are merged independently.
+	 * Equal elements from the left run always end up before those from
+	 * the right run, so the merge is stable.
+	 */
+	protected static class MergeTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		T[] a0, a1, a;
+		int i0, j0, i1, j1, k;
+		boolean left;  // is a0[i0..j0-1] the left run?
+		Comparator<T> c;
+
+		MergeTask(T[] a0, int i0, int j0, T[] a1, int i1, int j1, T[] a,
+				int k, boolean left, Comparator<T> c) {
+			this.a0 = a0;
+			this.i0 = i0;
+			this.j0 = j0;
+			this.a1 = a1;
+			this.i1 = i1;
+			this.j1 = j1;
+			this.a = a;
+			this.k = k;
+			this.left = left;
+			this.c = c;
+		}
+
+		protected void compute() {
+			if (j0 - i0 < j1 - i1) {  // make a0 the longer run
+				T[] t = a0; a0 = a1; a1 = t;
+				int x = i0; i0 = i1; i1 = x;
+				x = j0; j0 = j1; j1 = x;
+				left = !left;
+			}
+			if ((j0 - i0) + (j1 - i1) <= parallelThreshold) {
+				if (left)
+					merge(a0, i0, j0, a1, i1, j1, a, k, c);
+				else
+					merge(a1, i1, j1, a0, i0, j0, a, k, c);
+				return;
+			}
+			int m0 = (i0+j0) >>> 1;
+			T x = a0[m0];
+			// elements of a1 equal to x go after x if a1 is the right run
+			// (find the first element of a1 >= x), and before x if a1 is
+			// the left run (find the first element of a1 > x)
+			int lo = i1, hi = j1;
+			while (lo < hi) {
+				int m = (lo+hi) >>> 1;
+				int comp = c.compare(a1[m], x);
+				if (comp < 0 || (comp == 0 && !left)) lo = m+1;
+				else hi = m;
+			}
+			int m1 = lo;
+			int km = k + (m0-i0) + (m1-i1);
+			a[km] = x;
+			invokeAll(new MergeTask<T>(a0, i0, m0, a1, i1, m1, a, k, left, c),
+					new MergeTask<T>(a0, m0+1, j0, a1, m1, j1, a, km+1, left, c));
+		}
+	}
+
+	public static <T extends Comparable<T>> void parallelQuickSort(T[] a) {
+		parallelQuickSort(a, new DefaultComparator<T>());
+	}
+
+	/**
+	 * Sort a using a parallel quicksort.  After each partitioning step,
+	 * the two sides are sorted in parallel.
+	 * @param a
+	 * @param c
+	 */
+	public static <T> void parallelQuickSort(T[] a, Comparator<T> c) {
+		ForkJoinPool.commonPool().invoke(new QuickSortTask<T>(a, 0, a.length, c));
+	}
+
+	/**
+	 * Run quicksort on the subarray a[i],...,a[i+n-1]
+	 */
+	protected static class QuickSortTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		T[] a;
+		int i, n;
+		Comparator<T> c;
+
+		QuickSortTask(T[] a, int i, int n, Comparator<T> c) {
+			this.a = a;
+			this.i = i;
+			this.n = n;
+			this.c = c;
+		}
+
+		protected void compute() {
+			if (n <= parallelThreshold) {
+				quickSort(a, i, n, c);
+				return;
+			}
+			// the shared Random would be contended, so use a per-thread one
+			T x = a[i + ThreadLocalRandom.current().nextInt(n)];
+			int p = i-1, j = i, q = i+n;
+			// a[i..p]<x,  a[p+1..q-1]??x, a[q..i+n-1]>x
+			while (j < q) {
+				int comp = c.compare(a[j], x);
+				if (comp < 0) {
+					swap(a, j++, ++p);
+				} else if (comp > 0) {
+					swap(a, j, --q);
+				} else {
+					j++;
+				}
+			}
+			// a[i..p]<x,  a[p+1..q-1]=x, a[q..i+n-1]>x
+			invokeAll(new QuickSortTask<T>(a, i, p-i+1, c),
+					new QuickSortTask<T>(a, q, n-(q-i), c));
+		}
+	}
+
 	
 	protected final static <T> void  swap(T[] a, int i, int j) {
 		T t = a[i];
@@ -276,6 +628,56 @@ public class Algorithms {
 		stop = System.nanoTime();
 		System.out.println("done (" + (stop-start)*1e-9 + "s)");
 
+		for (int i = 0; i < a.length; i++)
+			a[i] = rand.nextInt();
+		Integer[] s = a.clone();
+		Arrays.sort(s);
+		System.out.print("Sorting " + n + " integers using parallelQuickSort...");
+		start = System.nanoTime();
+		parallelQuickSort(a);
+		stop = System.nanoTime();
+		System.out.println("done (" + (stop-start)*1e-9 + "s)");
+		Utils.myassert(Arrays.equals(a, s));
+
+		for (int i = 0; i < a.length; i++)
+			a[i] = rand.nextInt();
+		s = a.clone();
+		Arrays.sort(s);
+		System.out.print("Sorting " + n + " integers using parallelMergeSort...");
+		start = System.nanoTime();
+		parallelMergeSort(a);
+		stop = System.nanoTime();
+		System.out.println("done (" + (stop-start)*1e-9 + "s)");
+		Utils.myassert(Arrays.equals(a, s));
+
+		for (int m : new int[] {0, 1, 2, 3, 100, 20000, 100001}) {
+			Integer[] x = new Integer[m];
+			for (int i = 0; i < m; i++)
+				x[i] = rand.nextInt(m/2+1);  // lots of duplicates
+			Integer[] y = x.clone(), z = x.clone();
+			Arrays.sort(z);
+			parallelMergeSort(x);
+			parallelQuickSort(y);
+			Utils.myassert(Arrays.equals(x, z) && Arrays.equals(y, z));
+		}
+
+		// parallelMergeSort is stable: records with equal keys keep their
+		// order, just like with the sequential mergeSort it falls back on
+		Comparator<int[]> byKey = (p, q) -> Integer.compare(p[0], q[0]);
+		for (int m : new int[] {100, 20000, 100001, n}) {
+			int[][] x = new int[m][];
+			for (int i = 0; i < m; i++)
+				x[i] = new int[] {rand.nextInt(m/100+1), i};
+			int[][] y = x.clone();
+			mergeSort(y, x.clone(), 0, m, byKey);
+			parallelMergeSort(x, byKey);
+			for (int i = 0; i < m; i++)
+				Utils.myassert(x[i] == y[i]);
+			for (int i = 1; i < m; i++)
+				Utils.myassert(x[i-1][0] < x[i][0]
+						|| (x[i-1][0] == x[i][0] && x[i-1][1] < x[i][1]));
+		}
+
 		a = null;
 		int[] b = new int[n];
 		for (int i = 0; i < b.length; i++) 
@@ -286,6 +688,51 @@ public class Algorithms {
 		stop = System.nanoTime();
 		System.out.println("done (" + (stop-start)*1e-9 + "s)");
 
+		for (int i = 0; i < b.length; i++)
+			b[i] = rand.nextInt();
+		int[] sb = b.clone();
+		Arrays.sort(sb);
+		System.out.print("Sorting " + n + " integers using parallelRadixSort...");
+		start = System.nanoTime();
+		parallelRadixSort(b);
+		stop = System.nanoTime();
+		System.out.println("done (" + (stop-start)*1e-9 + "s)");
+		Utils.myassert(Arrays.equals(b, sb));
+
+		long[] l = new long[n];
+		for (int i = 0; i < l.length; i++)
+			l[i] = rand.nextLong();
+		long[] sl = l.clone();
+		Arrays.sort(sl);
+		System.out.print("Sorting " + n + " longs using parallelRadixSort...");
+		start = System.nanoTime();
+		parallelRadixSort(l);
+		stop = System.nanoTime();
+		System.out.println("done (" + (stop-start)*1e-9 + "s)");
+		Utils.myassert(Arrays.equals(l, sl));
+
+		// key-value sorting is stable, so sorting (key, index) pairs by key
+		// keeps the indices of equal keys in increasing order
+		for (int m : new int[] {0, 1, 5, 1000, 100000}) {
+			int[] k = new int[m], v = new int[m];
+			long[] kl = new long[m];
+			int[] vl = new int[m];
+			for (int i = 0; i < m; i++) {
+				k[i] = rand.nextInt(m+1) - m/2;
+				kl[i] = (long)k[i] << 20;
+				v[i] = vl[i] = i;
+			}
+			int[] k0 = k.clone();
+			parallelRadixSort(k, v);
+			parallelRadixSort(kl, vl);
+			for (int i = 0; i < m; i++) {
+				Utils.myassert(k[i] == k0[v[i]] && kl[i] == (long)k0[vl[i]] << 20);
+				Utils.myassert(i == 0 || k[i-1] < k[i]
+						|| (k[i-1] == k[i] && v[i-1] < v[i]));
+				Utils.myassert(v[i] == vl[i]);
+			}
+		}
+
 //		int n = 100;
 //		int a[] = new int[n];
 //		for (int i = 0; i < n; i++)
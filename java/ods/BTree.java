@@ -1,5 +1,8 @@
 package ods;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -7,6 +10,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 
 /**
  * An implementation of a B Tree
@@ -90,6 +94,11 @@ public class BTree<T> implements SSet<T> {
 		 * The indicies of the children of this block (if any)
 		 */
 		int[] children;
+
+		/**
+		 * The number of elements stored in the subtree of each child
+		 */
+		int[] counts;
 		
 		/**
 		 * Constructor
@@ -97,9 +106,22 @@ public class BTree<T> implements SSet<T> {
 		public Node() {
 			keys = f.newArray(b);
 			children = new int[b+1];
+			counts = new int[b+1];
 			Arrays.fill(children, 0, children.length, -1);
 			id = bs.placeBlock(this);
 		}
+
+		/**
+		 * Constructor for a node that already has a block (used when
+		 * reading a node back from a BlockStore)
+		 * @param id the index of this node's block
+		 */
+		protected Node(int id) {
+			keys = f.newArray(b);
+			children = new int[b+1];
+			counts = new int[b+1];
+			this.id = id;
+		}
 		
 		public boolean isLeaf() {
 			return children[0] < 0;
@@ -131,6 +153,17 @@ public class BTree<T> implements SSet<T> {
 			return lo;
 		}
 
+		/**
+		 * @return the number of elements stored in this node's subtree
+		 */
+		public int total() {
+			int s = size();
+			int t = s;
+			for (int i = 0; i <= s; i++)
+				t += counts[i];
+			return t;
+		}
+
 		/**
 		 * Add the value x to this block
 		 * 
@@ -145,8 +178,12 @@ public class BTree<T> implements SSet<T> {
 			if (i < 0) return false;
 			if (i < keys.length-1) System.arraycopy(keys, i, keys, i+1, b-i-1);
 			keys[i] = x;
-			if (i < keys.length-1) System.arraycopy(children, i+1, children, i+2, b-i-1);
+			if (i < keys.length-1) {
+				System.arraycopy(children, i+1, children, i+2, b-i-1);
+				System.arraycopy(counts, i+1, counts, i+2, b-i-1);
+			}
 			children[i+1] = ci;
+			counts[i+1] = 0;
 			return true;
 		}
 		
@@ -177,6 +214,8 @@ public class BTree<T> implements SSet<T> {
 			Arrays.fill(keys, j, keys.length, null);
 			System.arraycopy(children, j+1, w.children, 0, children.length-j-1);
 			Arrays.fill(children, j+1, children.length, -1);
+			System.arraycopy(counts, j+1, w.counts, 0, counts.length-j-1);
+			Arrays.fill(counts, j+1, counts.length, 0);
 			bs.writeBlock(id, this);
 			return w;
 		}
@@ -193,6 +232,51 @@ public class BTree<T> implements SSet<T> {
 		}
 	}
 	
+	/**
+	 * Converts Nodes to and from fixed-size pages so that they can be
+	 * stored in a FileBlockStore.  A page holds the node's id, its number
+	 * of keys, b keys, b+1 child indices, and b+1 subtree counts.
+	 */
+	protected class NodeSerializer implements Serializer<Node> {
+		Serializer<T> ks;
+
+		public NodeSerializer(Serializer<T> ks) {
+			this.ks = ks;
+		}
+
+		public int size() {
+			return 8 + b*ks.size() + 8*(b+1);
+		}
+
+		public void write(Node u, ByteBuffer buf) {
+			int s = u.size();
+			int start = buf.position();
+			buf.putInt(u.id);
+			buf.putInt(s);
+			for (int i = 0; i < s; i++)
+				ks.write(u.keys[i], buf);
+			buf.position(start + 8 + b*ks.size());
+			for (int i = 0; i < b+1; i++)
+				buf.putInt(u.children[i]);
+			for (int i = 0; i < b+1; i++)
+				buf.putInt(u.counts[i]);
+		}
+
+		public Node read(ByteBuffer buf) {
+			int start = buf.position();
+			Node u = new Node(buf.getInt());
+			int s = buf.getInt();
+			for (int i = 0; i < s; i++)
+				u.keys[i] = ks.read(buf);
+			buf.position(start + 8 + b*ks.size());
+			for (int i = 0; i < b+1; i++)
+				u.children[i] = buf.getInt();
+			for (int i = 0; i < b+1; i++)
+				u.counts[i] = buf.getInt();
+			return u;
+		}
+	}
+
 	/**
 	 * Construct an empty BTree that uses a DefaultComparator 
 	 * @param b the block size
@@ -218,6 +302,118 @@ public class BTree<T> implements SSet<T> {
 		ri = new Node().id;
 		n = 0;
 	}
+
+	/**
+	 * Construct a BTree that contains the elements of a sorted sequence
+	 * @param b the block size
+	 * @param c the comparator to use
+	 * @param clz the class of objects stored in this BTree
+	 * @param sorted an iterator over the elements, in increasing order
+	 * @param fill the fraction of each node to fill (between 0 and 1)
+	 * @see #bulkLoad(Iterator, double)
+	 */
+	public BTree(int b, Comparator<T> c, Class<T> clz, Iterator<T> sorted,
+			double fill) {
+		this(b, c, clz);
+		bulkLoad(sorted, fill);
+	}
+
+	/**
+	 * Construct a BTree whose nodes are stored in a file.  If the file
+	 * already holds a BTree (saved by close() or flush()) then that tree
+	 * is reopened, otherwise an empty BTree is created.
+	 * @param b the block size
+	 * @param c the comparator to use
+	 * @param clz the class of objects stored in this BTree
+	 * @param file the file that stores the nodes
+	 * @param ks a serializer for the keys (elements) of this BTree
+	 * @throws IOException if the file can't be opened or holds a BTree
+	 * with a different block size
+	 */
+	public BTree(int b, Comparator<T> c, Class<T> clz, File file,
+			Serializer<T> ks) throws IOException {
+		this(b, c, clz, file, ks, 0);
+	}
+
+	/**
+	 * Construct a BTree whose nodes are stored in a file and cached in a
+	 * BufferPool that holds up to frames nodes.  Nodes aren't pinned
+	 * while an operation works on them; the operation writes back every
+	 * node it modifies, so a node that is evicted early is not lost.
+	 * @param b the block size
+	 * @param c the comparator to use
+	 * @param clz the class of objects stored in this BTree
+	 * @param file the file that stores the nodes
+	 * @param ks a serializer for the keys (elements) of this BTree
+	 * @param frames the size of the buffer pool (0 for no buffer pool)
+	 * @throws IOException if the file can't be opened or holds a BTree
+	 * with a different block size
+	 */
+	public BTree(int b, Comparator<T> c, Class<T> clz, File file,
+			Serializer<T> ks, int frames) throws IOException {
+		this(b, c, clz, file, ks, frames, null);
+	}
+
+	/**
+	 * Construct a BTree whose nodes are stored in a file that is protected
+	 * by a write-ahead log.  Each call to flush() commits every change
+	 * made since the previous one, so a group of operations costs a single
+	 * sequential append to the log.  After a crash, reopening the tree
+	 * recovers the state as of the last flush().
+	 * @param b the block size
+	 * @param c the comparator to use
+	 * @param clz the class of objects stored in this BTree
+	 * @param file the file that stores the nodes
+	 * @param ks a serializer for the keys (elements) of this BTree
+	 * @param frames the size of the buffer pool (0 for no buffer pool)
+	 * @param log the write-ahead log (null for no log)
+	 * @throws IOException if the file can't be opened or holds a BTree
+	 * with a different block size
+	 */
+	public BTree(int b, Comparator<T> c, Class<T> clz, File file,
+			Serializer<T> ks, int frames, File log) throws IOException {
+		this.c = c;
+		b += 1 - (b % 2);
+		this.b = b;
+		B = b/2;
+		f = new Factory<T>(clz);
+		FileBlockStore<Node> fbs
+			= new FileBlockStore<Node>(file, new NodeSerializer(ks), log);
+		int b0 = fbs.readMeta(2);   // 0 if no tree has been saved yet
+		if (b0 != 0 && b0 != b) {
+			fbs.release();
+			throw new IOException(file + " holds a BTree with block size " + b0);
+		}
+		bs = fbs;
+		if (frames > 0)
+			bs = new BufferPool<Node>(bs, frames);
+		if (b0 == b) {
+			ri = bs.readMeta(0);
+			n = bs.readMeta(1);
+		} else {
+			ri = new Node().id;
+			n = 0;
+		}
+	}
+
+	/**
+	 * Record the root index and size of this tree in the block store and
+	 * make sure everything is written to stable storage
+	 */
+	public void flush() {
+		bs.writeMeta(0, ri);
+		bs.writeMeta(1, n);
+		bs.writeMeta(2, b);
+		bs.flush();
+	}
+
+	/**
+	 * Flush this tree and release the resources held by its block store
+	 */
+	public void close() {
+		flush();
+		bs.close();
+	}
 	
 	public boolean add(T x) {
 		Node w;
@@ -233,6 +429,8 @@ public class BTree<T> implements SSet<T> {
 			newroot.children[0] = ri;
 			newroot.keys[0] = x;
 			newroot.children[1] = w.id;
+			newroot.counts[1] = w.total();
+			newroot.counts[0] = n - newroot.counts[1];
 			ri = newroot.id;
 			bs.writeBlock(ri, newroot);
 		}
@@ -263,12 +461,15 @@ public class BTree<T> implements SSet<T> {
 			bs.writeBlock(u.id, u);
 		} else {
 			Node w = addRecursive(x, u.children[i]);
+			u.counts[i]++;
 			if (w != null) {  // child was split, w is new child 
 				x = w.remove(0);
 				bs.writeBlock(w.id, w);
 				u.add(x, w.id);
-				bs.writeBlock(u.id, u);
+				u.counts[i+1] = w.total();
+				u.counts[i] -= u.counts[i+1] + 1;
 			}
+			bs.writeBlock(u.id, u);
 		}
 		return u.isFull() ? u.split() : null;
 	}
@@ -277,8 +478,10 @@ public class BTree<T> implements SSet<T> {
 		if (removeRecursive(x, ri)) {
 			n--;
 			Node r = bs.readBlock(ri);
-			if (r.size() == 0 && n > 0) // root has only one child
-				ri = r.children[0];  
+			if (r.size() == 0 && n > 0) { // root has only one child
+				ri = r.children[0];
+				bs.freeBlock(r.id);
+			}
 			return true;
 		}
 		return false;
@@ -303,11 +506,15 @@ public class BTree<T> implements SSet<T> {
 				u.remove(i);
 			} else {
 				u.keys[i] = removeSmallest(u.children[i+1]);
+				u.counts[i+1]--;
 				checkUnderflow(u, i+1);
 			}
+			bs.writeBlock(u.id, u);
 			return true;  
 		} else if (removeRecursive(x, u.children[i])) {
+			u.counts[i]--;
 			checkUnderflow(u, i);
+			bs.writeBlock(u.id, u);
 			return true;
 		}
 		return false;
@@ -322,10 +529,15 @@ public class BTree<T> implements SSet<T> {
 	 */
 	protected T removeSmallest(int ui) {
 		Node u = bs.readBlock(ui);
-		if (u.isLeaf()) 
-			return u.remove(0);
+		if (u.isLeaf()) {
+			T y = u.remove(0);
+			bs.writeBlock(u.id, u);
+			return y;
+		}
 		T y = removeSmallest(u.children[0]);  
+		u.counts[0]--;
 		checkUnderflow(u, 0);
+		bs.writeBlock(u.id, u);
 		return y;
 	}
 
@@ -351,12 +563,16 @@ public class BTree<T> implements SSet<T> {
 		// copy keys from w to v
 		System.arraycopy(w.keys, 0, v.keys, sv+1, sw);
 		System.arraycopy(w.children, 0, v.children, sv+1, sw+1);
+		System.arraycopy(w.counts, 0, v.counts, sv+1, sw+1);
 		// add key to v and remove it from u
 		v.keys[sv] = u.keys[i];
 		System.arraycopy(u.keys, i+1, u.keys, i, b-i-1);
 		u.keys[b-1] = null;
 		System.arraycopy(u.children, i+2, u.children, i+1, b-i-1);
 		u.children[b] = -1;
+		System.arraycopy(u.counts, i+2, u.counts, i+1, b-i-1);
+		u.counts[b] = 0;
+		u.counts[i] = v.total();
 	}
 	
 	/**
@@ -374,9 +590,13 @@ public class BTree<T> implements SSet<T> {
 			Node v = bs.readBlock(u.children[i-1]); // v left of w
 			if (v.size() > B) {  // w can borrow from v
 				shiftLR(u, i-1, v, w);
+				bs.writeBlock(w.id, w);
 			} else { // v will absorb w
 				merge(u, i-1, v, w);
+				bs.freeBlock(w.id);
 			}
+			bs.writeBlock(v.id, v);
+			bs.writeBlock(u.id, u);
 		}
 	}
 	
@@ -399,6 +619,7 @@ public class BTree<T> implements SSet<T> {
 		// make space for new keys in w
 		System.arraycopy(w.keys, 0, w.keys, shift, sw);
 		System.arraycopy(w.children, 0, w.children, shift, sw+1);
+		System.arraycopy(w.counts, 0, w.counts, shift, sw+1);
 		// move keys and children out of v and into w (and u)
 		w.keys[shift-1] = u.keys[i];
 		u.keys[i] = v.keys[sv-shift];
@@ -406,6 +627,10 @@ public class BTree<T> implements SSet<T> {
 		Arrays.fill(v.keys, sv-shift, sv, null);
 		System.arraycopy(v.children, sv-shift+1, w.children, 0, shift);
 		Arrays.fill(v.children, sv-shift+1, sv+1, -1);
+		System.arraycopy(v.counts, sv-shift+1, w.counts, 0, shift);
+		Arrays.fill(v.counts, sv-shift+1, sv+1, 0);
+		u.counts[i] = v.total();
+		u.counts[i+1] = w.total();
 	}
 
 	
@@ -415,10 +640,14 @@ public class BTree<T> implements SSet<T> {
 			Node v = bs.readBlock(u.children[i+1]); // v right of w
 			if (v.size() > B) { // w can borrow from v
 				shiftRL(u, i, v, w);
+				bs.writeBlock(v.id, v);
 			} else { // w will absorb w
 				merge(u, i, w, v);
 				u.children[i] = w.id;
+				bs.freeBlock(v.id);
 			}
+			bs.writeBlock(w.id, w);
+			bs.writeBlock(u.id, u);
 		}
 	}
 
@@ -437,12 +666,17 @@ public class BTree<T> implements SSet<T> {
 		w.keys[sw] = u.keys[i];
 		System.arraycopy(v.keys, 0, w.keys, sw+1, shift-1);
 		System.arraycopy(v.children, 0, w.children, sw+1, shift);
+		System.arraycopy(v.counts, 0, w.counts, sw+1, shift);
 		u.keys[i] = v.keys[shift-1];
 		// delete keys and children from v
 		System.arraycopy(v.keys, shift, v.keys, 0, b-shift);
 		Arrays.fill(v.keys, sv-shift, b, null);
 		System.arraycopy(v.children, shift, v.children, 0, b-shift+1);
 		Arrays.fill(v.children, sv-shift+1, b+1, -1);
+		System.arraycopy(v.counts, shift, v.counts, 0, b-shift+1);
+		Arrays.fill(v.counts, sv-shift+1, b+1, 0);
+		u.counts[i] = w.total();
+		u.counts[i+1] = v.total();
 	}
 
 	public void clear() {
@@ -451,6 +685,197 @@ public class BTree<T> implements SSet<T> {
 		ri = new Node().id;
 	}
 
+	/**
+	 * Fill this (empty) BTree with the elements of a sorted array
+	 * @param a the elements to add, in increasing order
+	 * @param fill the fraction of each node to fill (between 0 and 1)
+	 * @see #bulkLoad(Iterator, double)
+	 */
+	public void bulkLoad(T[] a, double fill) {
+		bulkLoad(Arrays.asList(a).iterator(), fill);
+	}
+
+	/**
+	 * Fill this (empty) BTree with the elements of a sorted sequence.
+	 * This is done bottom-up in one pass over the input: leaves are
+	 * filled left to right with fill*(b-1) keys each, and every key that
+	 * falls between two leaves becomes a separator in the level above.
+	 * Each internal level is then built from the separators of the level
+	 * below it.  Only the separators and node indices (about n/(fill*b)
+	 * of each) are kept in memory.  This takes O(n/B) block writes,
+	 * compared to O(n log_B n) block reads and writes for n calls to
+	 * add(x).
+	 * @param sorted an iterator over the elements, in increasing order
+	 * @param fill the fraction of each node to fill (between 0 and 1)
+	 * @throws IllegalStateException if this BTree is not empty
+	 * @throws IllegalArgumentException if the input is not sorted or
+	 * contains duplicates
+	 */
+	public void bulkLoad(Iterator<T> sorted, double fill) {
+		if (n != 0) throw new IllegalStateException("BTree is not empty");
+		// number of keys in each node (at least B-1, at most b-1)
+		int k = (int)Math.round(fill*(b-1));
+		k = Math.min(b-1, Math.max(Math.max(1, B-1), k));
+		int[] ids = new int[] { ri };
+		int[] sz = new int[1];  // sz[i] is the size of ids[i]'s subtree
+		int m = 1;
+		List<T> seps = new ArrayList<T>();
+		Node u = bs.readBlock(ri);
+		int s = 0;
+		T prev = null;
+		while (sorted.hasNext()) {
+			T x = sorted.next();
+			if (prev != null && c.compare(prev, x) >= 0) {
+				clear();
+				throw new IllegalArgumentException("input is not sorted");
+			}
+			prev = x;
+			n++;
+			if (s == k) {  // u is full, x separates u from the next leaf
+				bs.writeBlock(u.id, u);
+				seps.add(x);
+				sz[m-1] = s;
+				u = new Node();
+				if (m == ids.length) {
+					ids = Arrays.copyOf(ids, 2*m);
+					sz = Arrays.copyOf(sz, 2*m);
+				}
+				ids[m++] = u.id;
+				s = 0;
+			} else {
+				u.keys[s++] = x;
+			}
+		}
+		bs.writeBlock(u.id, u);
+		sz[m-1] = s;
+		if (m > 1 && s < B-1) { // last leaf is too small, fix it
+			Node v = bs.readBlock(ids[m-2]);
+			int sv = v.size();
+			T[] all = f.newArray(sv + 1 + s);
+			System.arraycopy(v.keys, 0, all, 0, sv);
+			all[sv] = seps.get(m-2);
+			System.arraycopy(u.keys, 0, all, sv+1, s);
+			Arrays.fill(v.keys, null);
+			if (all.length <= b-1) {  // v absorbs u
+				System.arraycopy(all, 0, v.keys, 0, all.length);
+				bs.freeBlock(u.id);
+				seps.remove(--m - 1);
+				sz[m-1] = all.length;
+			} else {  // split all evenly between v and u
+				int h = (all.length-1)/2;
+				Arrays.fill(u.keys, null);
+				System.arraycopy(all, 0, v.keys, 0, h);
+				seps.set(m-2, all[h]);
+				System.arraycopy(all, h+1, u.keys, 0, all.length-h-1);
+				sz[m-2] = h;
+				sz[m-1] = all.length-h-1;
+				bs.writeBlock(u.id, u);
+			}
+			bs.writeBlock(v.id, v);
+		}
+		// build internal levels until only one node remains
+		while (m > 1) {
+			int p = (m+k)/(k+1);  // ceil(m/(k+1)) nodes
+			if (p > 1 && m < p*B) p = Math.max(1, m/B);
+			int[] nids = new int[p];
+			int[] nsz = new int[p];
+			List<T> nseps = new ArrayList<T>();
+			int pos = 0;
+			for (int j = 0; j < p; j++) {
+				int q = m/p + (j < m%p ? 1 : 0);  // children of this node
+				Node w = new Node();
+				for (int i = 0; i < q; i++) {
+					w.children[i] = ids[pos+i];
+					w.counts[i] = sz[pos+i];
+					if (i < q-1) w.keys[i] = seps.get(pos+i);
+				}
+				pos += q;
+				if (j < p-1) nseps.add(seps.get(pos-1));
+				bs.writeBlock(w.id, w);
+				nids[j] = w.id;
+				nsz[j] = w.total();
+			}
+			ids = nids;
+			sz = nsz;
+			seps = nseps;
+			m = p;
+		}
+		ri = ids[0];
+	}
+
+	/**
+	 * Call action.accept(x) for every x in the tree with lo <= x < hi, in
+	 * increasing order.  No iterator is created and nothing is boxed:
+	 * the recursion stack holds the position of the scan.
+	 * @param lo the smallest value to visit (or null for no lower bound)
+	 * @param hi the first value not to visit (or null for no upper bound)
+	 * @param action what to do with each value
+	 */
+	public void forEachInRange(T lo, T hi, Consumer<? super T> action) {
+		if (n > 0) forEachInRange(ri, lo, hi, action);
+	}
+
+	/**
+	 * Call action.accept(x) for every x with lo <= x < hi in the subtree
+	 * rooted at the node with index ui
+	 * @return false if a value at least hi was reached, so the scan is over
+	 */
+	protected boolean forEachInRange(int ui, T lo, T hi,
+			Consumer<? super T> action) {
+		if (ui < 0) return true;
+		Node u = bs.readBlock(ui);
+		int i = 0;
+		if (lo == null) {
+			if (!forEachInRange(u.children[0], null, hi, action)) return false;
+		} else {
+			i = findIt(u.keys, lo);
+			if (i < 0) // u.keys[i] is lo, so u.children[i] holds smaller values
+				i = -(i+1);
+			else if (!forEachInRange(u.children[i], lo, hi, action))
+				return false;
+		}
+		for (; i < b && u.keys[i] != null; i++) {
+			if (hi != null && c.compare(u.keys[i], hi) >= 0) return false;
+			action.accept(u.keys[i]);
+			if (!forEachInRange(u.children[i+1], null, hi, action)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Count the values x in the tree with lo <= x < hi.  This uses the
+	 * subtree counts stored in each node, so it looks at only O(log_B n)
+	 * nodes no matter how many values are counted.
+	 * @param lo the smallest value to count (or null for no lower bound)
+	 * @param hi the first value not to count (or null for no upper bound)
+	 * @return the number of values in the range
+	 */
+	public int countRange(T lo, T hi) {
+		int r = (hi == null ? n : rank(hi)) - (lo == null ? 0 : rank(lo));
+		return Math.max(0, r);
+	}
+
+	/**
+	 * @param x
+	 * @return the number of values in the tree that are less than x
+	 */
+	protected int rank(T x) {
+		int r = 0;
+		int ui = ri;
+		while (ui >= 0) {
+			Node u = bs.readBlock(ui);
+			int i = findIt(u.keys, x);
+			boolean found = i < 0;
+			if (found) i = -(i+1);
+			r += i;
+			for (int j = 0; j < i; j++)
+				r += u.counts[j];
+			if (found) return r + u.counts[i];
+			ui = u.children[i];
+		}
+		return r;
+	}
+
 	public Comparator<? super T> comparator() {
 		return c;
 	}
@@ -607,13 +1032,189 @@ public class BTree<T> implements SSet<T> {
 	
 
 	/**
-	 * Simple test method
+	 * Compare forEachInRange and countRange with a TreeSet
+	 * @param b the block size
+	 * @param n the number of elements
+	 */
+	protected static void rangeTests(int b, int n) {
+		java.util.Random rand = new java.util.Random(0);
+		BTree<Integer> t = new BTree<Integer>(b, Integer.class);
+		SortedSet<Integer> ss = new TreeSet<Integer>();
+		for (int i = 0; i < 3*n; i++) {
+			int x = rand.nextInt(2*n);
+			if (i < n || rand.nextBoolean())
+				Utils.myassert(t.add(x) == ss.add(x));
+			else
+				Utils.myassert(t.remove(x) == ss.remove(x));
+		}
+		for (int i = 0; i < 1000; i++) {
+			Integer lo = rand.nextInt(2*n);
+			Integer hi = lo + rand.nextInt(n/10);
+			if (i % 100 == 0) lo = null;
+			if (i % 100 == 1) hi = null;
+			SortedSet<Integer> sub = lo == null ? (hi == null ? ss : ss.headSet(hi))
+					: (hi == null ? ss.tailSet(lo) : ss.subSet(lo, hi));
+			Utils.myassert(t.countRange(lo, hi) == sub.size());
+			final Iterator<Integer> it = sub.iterator();
+			t.forEachInRange(lo, hi, new Consumer<Integer>() {
+				public void accept(Integer x) {
+					Utils.myassert(x.equals(it.next()));
+				}
+			});
+			Utils.myassert(!it.hasNext());
+		}
+		Integer[] a = ss.toArray(new Integer[0]);
+		t = new BTree<Integer>(b, Integer.class);
+		t.bulkLoad(a, 0.8);
+		for (int i = 0; i < 1000; i++) {
+			int lo = rand.nextInt(2*n), hi = lo + rand.nextInt(n);
+			Utils.myassert(t.countRange(lo, hi) == ss.subSet(lo, hi).size());
+		}
+	}
+
+	/**
+	 * Check that bulkLoad builds a valid BTree (by removing everything from
+	 * it) and compare its speed to repeated calls to add(x)
+	 * @param b the block size
+	 * @param n the number of elements
+	 */
+	protected static void bulkLoadTests(int b, int n) {
+		java.util.Random rand = new java.util.Random(0);
+		for (double fill : new double[] {0.0, 0.5, 0.75, 1.0}) {
+			for (int m : new int[] {0, 1, 2, b-1, b, b+1, 2*b, b*b, n}) {
+				Integer[] a = new Integer[m];
+				for (int i = 0; i < m; i++)
+					a[i] = 2*i;
+				BTree<Integer> t = new BTree<Integer>(b, Integer.class);
+				t.bulkLoad(a, fill);
+				Utils.myassert(t.size() == m);
+				for (int i = 0; i < 2*m; i++) 
+					Utils.myassert(Utils.equals(t.find(i), 
+							i < 2*m-1 ? 2*((i+1)/2) : null));
+				int i = 0;
+				for (Integer x : t)
+					Utils.myassert(x == 2*i++);
+				Utils.myassert(i == m);
+				for (int j = 0; j < m; j++)
+					Utils.myassert(t.remove(2*rand.nextInt(m)) 
+							|| t.find(0) != null);
+				for (int j = 0; j < m; j++)
+					t.remove(2*j);
+				Utils.myassert(t.size() == 0);
+			}
+		}
+		Integer[] a = new Integer[10*n];
+		for (int i = 0; i < a.length; i++)
+			a[i] = i;
+		long start = System.nanoTime();
+		BTree<Integer> t = new BTree<Integer>(b, Integer.class);
+		for (Integer x : a)
+			t.add(x);
+		long stop = System.nanoTime();
+		System.out.println("add(x) " + a.length + " times: " 
+				+ (stop-start)*1e-9 + "s, " + t.bs.blocks.size() + " blocks");
+		start = System.nanoTime();
+		t = new BTree<Integer>(b, new DefaultComparator<Integer>(), 
+				Integer.class, Arrays.asList(a).iterator(), 1.0);
+		stop = System.nanoTime();
+		System.out.println("bulkLoad of " + a.length + " elements: " 
+				+ (stop-start)*1e-9 + "s, " + t.bs.blocks.size() + " blocks");
+	}
+
+	/**
+	 * Time n add(x), find(x), and remove(x) operations on a BTree<Integer>
+	 * and an IntBTree, and on a BTree<Long> and a LongBTree
+	 * @param b the block size
+	 * @param n the number of operations of each kind
+	 */
+	protected static void primitiveBenchmarks(int b, int n) {
+		java.util.Random rand = new java.util.Random(0);
+		int[] a = new int[n];
+		for (int i = 0; i < n; i++)
+			a[i] = rand.nextInt(2*n);
+		long start, stop;
+		double[] t = new double[3];
+
+		BTree<Integer> bt = new BTree<Integer>(b, Integer.class);
+		start = System.nanoTime();
+		for (int x : a) bt.add(x);
+		stop = System.nanoTime();
+		t[0] = (stop-start)*1e-9;
+		start = stop;
+		for (int x : a) bt.find(x+1);
+		stop = System.nanoTime();
+		t[1] = (stop-start)*1e-9;
+		start = stop;
+		for (int x : a) bt.remove(x);
+		stop = System.nanoTime();
+		t[2] = (stop-start)*1e-9;
+		System.out.printf("BTree<Integer>: add %.3fs, find %.3fs, remove %.3fs%n", 
+				t[0], t[1], t[2]);
+		
+		IntBTree it = new IntBTree(b);
+		start = System.nanoTime();
+		for (int x : a) it.add(x);
+		stop = System.nanoTime();
+		t[0] = (stop-start)*1e-9;
+		start = stop;
+		for (int x : a) it.findGE(x+1, -1);
+		stop = System.nanoTime();
+		t[1] = (stop-start)*1e-9;
+		start = stop;
+		for (int x : a) it.remove(x);
+		stop = System.nanoTime();
+		t[2] = (stop-start)*1e-9;
+		System.out.printf("IntBTree:       add %.3fs, find %.3fs, remove %.3fs%n", 
+				t[0], t[1], t[2]);
+
+		BTree<Long> blt = new BTree<Long>(b, Long.class);
+		start = System.nanoTime();
+		for (int x : a) blt.add((long)x << 20);
+		stop = System.nanoTime();
+		t[0] = (stop-start)*1e-9;
+		start = stop;
+		for (int x : a) blt.find(((long)x << 20) + 1);
+		stop = System.nanoTime();
+		t[1] = (stop-start)*1e-9;
+		start = stop;
+		for (int x : a) blt.remove((long)x << 20);
+		stop = System.nanoTime();
+		t[2] = (stop-start)*1e-9;
+		System.out.printf("BTree<Long>:    add %.3fs, find %.3fs, remove %.3fs%n", 
+				t[0], t[1], t[2]);
+
+		LongBTree lt = new LongBTree(b);
+		start = System.nanoTime();
+		for (int x : a) lt.add((long)x << 20);
+		stop = System.nanoTime();
+		t[0] = (stop-start)*1e-9;
+		start = stop;
+		for (int x : a) lt.findGE(((long)x << 20) + 1, -1);
+		stop = System.nanoTime();
+		t[1] = (stop-start)*1e-9;
+		start = stop;
+		for (int x : a) lt.remove((long)x << 20);
+		stop = System.nanoTime();
+		t[2] = (stop-start)*1e-9;
+		System.out.printf("LongBTree:      add %.3fs, find %.3fs, remove %.3fs%n", 
+				t[0], t[1], t[2]);
+	}
+
+	/**
+	 * Simple test method; with the argument "bench", time BTree<Integer>
+	 * and BTree<Long> against IntBTree and LongBTree instead
 	 * @param args
 	 */
 	public static void main(String[] args) {
 		int b = 60, n = 100000, c = 10, reps = 500;
+		if (args.length > 0 && args[0].equals("bench")) {
+			primitiveBenchmarks(b, 10*n);
+			return;
+		}
 		BTree<Integer> t = new BTree<Integer>(b, Integer.class);
 		SortedSet<Integer> ss = new TreeSet<Integer>();
+		bulkLoadTests(b, n);
+		rangeTests(b, n);
 		for (int seed = 0; seed < reps; seed++) {
 			System.out.println("Adding " + n + " elements");
 			java.util.Random rand = new java.util.Random(seed);
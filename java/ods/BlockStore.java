@@ -22,6 +22,17 @@ class BlockStore<T> {
 	 */
 	List<Integer> free;
 
+	/**
+	 * A few words of metadata that the user of this BlockStore can use
+	 * to remember where things are (e.g., the index of a root block)
+	 */
+	int[] meta;
+
+	/**
+	 * The number of metadata words available
+	 */
+	public static final int NMETA = 4;
+
 	/**
 	 * Initialise a BlockStore with block size b
 	 * @param b the block size
@@ -30,12 +41,44 @@ class BlockStore<T> {
 	public BlockStore() {
 		blocks = new ArrayList<T>();
 		free = new ArrayList<Integer>();
+		meta = new int[NMETA];
 	}
 	
 	public void clear() {
 		blocks.clear();
 		free.clear();		
 	}
+
+	/**
+	 * Read a metadata word
+	 * @param k the index of the word (0 <= k < NMETA)
+	 * @return the value of the k'th metadata word
+	 */
+	public int readMeta(int k) {
+		return meta[k];
+	}
+
+	/**
+	 * Write a metadata word
+	 * @param k the index of the word (0 <= k < NMETA)
+	 * @param v the value to store
+	 */
+	public void writeMeta(int k, int v) {
+		meta[k] = v;
+	}
+
+	/**
+	 * Make sure every block written so far is on stable storage.  There is
+	 * nothing to do here, since everything lives in memory.
+	 */
+	public void flush() {
+	}
+
+	/**
+	 * Release any resources held by this BlockStore
+	 */
+	public void close() {
+	}
 	
 	/**
 	 * Allocate a new block and return its index
@@ -44,7 +87,7 @@ class BlockStore<T> {
 	public int placeBlock(T block) {
 		int i;
 		if (!free.isEmpty()) {
-			i = free.remove(free.size());
+			i = free.remove(free.size()-1);
 			blocks.set(i, block);
 		} else { 
 			i = blocks.size();
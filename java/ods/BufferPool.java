@@ -0,0 +1,340 @@
+package ods;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A bounded cache of blocks that sits in front of another BlockStore.
+ * The pool holds at most a fixed number of blocks (frames) and chooses
+ * which one to evict using the CLOCK (second chance) algorithm.  Writes
+ * go to the cached copy and the block is marked dirty; dirty blocks are
+ * only written to the underlying BlockStore when they are evicted or
+ * when the pool is flushed.
+ *
+ * Blocks aren't pinned: any block, including one that the caller is in
+ * the middle of modifying, can be evicted by the next read.  This is safe
+ * for a BTree, because it works on the copy returned by readBlock(i) and,
+ * if it modifies that copy, hands it back with writeBlock(i, u) before
+ * block i is read again.  If the block was evicted in the meantime,
+ * writeBlock(i, u) just brings it back into the pool, marked dirty.
+ * @author morin
+ *
+ * @param <T>
+ */
+class BufferPool<T> extends BlockStore<T> {
+
+	/**
+	 * The BlockStore that holds the real copies of the blocks
+	 */
+	BlockStore<T> store;
+
+	/**
+	 * The index of the block held in each frame, or -1 for an empty frame
+	 */
+	int[] frameBlock;
+
+	/**
+	 * The contents of each frame
+	 */
+	Object[] frameData;
+
+	/**
+	 * CLOCK reference bits
+	 */
+	boolean[] ref;
+
+	/**
+	 * Dirty bits - true if a frame differs from the underlying store
+	 */
+	boolean[] dirty;
+
+	/**
+	 * frameOf[i] is the frame holding block i, or -1 if block i isn't cached
+	 */
+	int[] frameOf;
+
+	/**
+	 * The number of frames in use
+	 */
+	int used;
+
+	/**
+	 * The CLOCK hand
+	 */
+	int hand;
+
+	/**
+	 * Statistics
+	 */
+	long hits, misses, evictions, writeBacks;
+
+	/**
+	 * Create a buffer pool that caches up to frames blocks of store
+	 * @param store the underlying BlockStore
+	 * @param frames the maximum number of blocks to keep in memory
+	 */
+	public BufferPool(BlockStore<T> store, int frames) {
+		if (frames < 1) throw new IllegalArgumentException();
+		this.store = store;
+		frameBlock = new int[frames];
+		frameData = new Object[frames];
+		ref = new boolean[frames];
+		dirty = new boolean[frames];
+		frameOf = new int[Math.max(16, 2*frames)];
+		dropAll();
+	}
+
+	/**
+	 * Forget every cached block without writing anything back
+	 */
+	protected void dropAll() {
+		Arrays.fill(frameBlock, -1);
+		Arrays.fill(frameData, null);
+		Arrays.fill(ref, false);
+		Arrays.fill(dirty, false);
+		Arrays.fill(frameOf, -1);
+		used = 0;
+		hand = 0;
+	}
+
+	/**
+	 * Return the frame that holds block i, or -1 if it isn't cached
+	 */
+	protected int frameOf(int i) {
+		return i < frameOf.length ? frameOf[i] : -1;
+	}
+
+	/**
+	 * Choose a frame to hold a new block, evicting (and writing back) the
+	 * current occupant if necessary
+	 * @return the index of an empty frame
+	 */
+	@SuppressWarnings("unchecked")
+	protected int victim() {
+		if (used < frameBlock.length)
+			return used++;
+		while (true) {
+			int j = hand;
+			hand = (hand == frameBlock.length-1) ? 0 : hand + 1;
+			if (ref[j]) {
+				ref[j] = false;   // give it a second chance
+				continue;
+			}
+			if (dirty[j]) {
+				store.writeBlock(frameBlock[j], (T)frameData[j]);
+				writeBacks++;
+			}
+			frameOf[frameBlock[j]] = -1;
+			frameBlock[j] = -1;
+			frameData[j] = null;
+			dirty[j] = false;
+			evictions++;
+			return j;
+		}
+	}
+
+	/**
+	 * Put block i, whose contents are x, into frame j
+	 */
+	protected void install(int j, int i, T x, boolean d) {
+		if (i >= frameOf.length) {
+			int[] a = new int[Math.max(i+1, 2*frameOf.length)];
+			System.arraycopy(frameOf, 0, a, 0, frameOf.length);
+			Arrays.fill(a, frameOf.length, a.length, -1);
+			frameOf = a;
+		}
+		frameOf[i] = j;
+		frameBlock[j] = i;
+		frameData[j] = x;
+		ref[j] = true;
+		dirty[j] = d;
+	}
+
+	/**
+	 * Return the frame holding block i, reading it from the underlying
+	 * store if necessary
+	 */
+	protected int fetch(int i) {
+		int j = frameOf(i);
+		if (j >= 0) {
+			hits++;
+			ref[j] = true;
+			return j;
+		}
+		misses++;
+		T x = store.readBlock(i);
+		j = victim();
+		install(j, i, x, false);
+		return j;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T readBlock(int i) {
+		return (T)frameData[fetch(i)];
+	}
+
+	public void writeBlock(int i, T block) {
+		int j = frameOf(i);
+		if (j >= 0) {
+			frameData[j] = block;
+			ref[j] = true;
+			dirty[j] = true;
+		} else {
+			install(victim(), i, block, true);
+		}
+	}
+
+	public int placeBlock(T block) {
+		int i = store.placeBlock(block);
+		install(victim(), i, block, false);
+		return i;
+	}
+
+	public void freeBlock(int i) {
+		int j = frameOf(i);
+		if (j >= 0) {
+			// move the last used frame into frame j so used frames stay contiguous
+			frameOf[i] = -1;
+			int k = --used;
+			if (k != j) {
+				frameOf[frameBlock[k]] = j;
+				frameBlock[j] = frameBlock[k];
+				frameData[j] = frameData[k];
+				ref[j] = ref[k];
+				dirty[j] = dirty[k];
+			}
+			frameBlock[k] = -1;
+			frameData[k] = null;
+			ref[k] = false;
+			dirty[k] = false;
+			if (hand >= used) hand = 0;
+		}
+		store.freeBlock(i);
+	}
+
+	/**
+	 * Write every dirty block back to the underlying store
+	 */
+	@SuppressWarnings("unchecked")
+	public void flush() {
+		for (int j = 0; j < used; j++) {
+			if (dirty[j]) {
+				store.writeBlock(frameBlock[j], (T)frameData[j]);
+				dirty[j] = false;
+				writeBacks++;
+			}
+		}
+		store.flush();
+	}
+
+	public void close() {
+		flush();
+		dropAll();
+		store.close();
+	}
+
+	public void clear() {
+		dropAll();
+		store.clear();
+	}
+
+	public int readMeta(int k) {
+		return store.readMeta(k);
+	}
+
+	public void writeMeta(int k, int v) {
+		store.writeMeta(k, v);
+	}
+
+	/**
+	 * @return the maximum number of blocks held in this pool
+	 */
+	public int capacity() {
+		return frameBlock.length;
+	}
+
+	/**
+	 * @return the number of reads satisfied without touching the store
+	 */
+	public long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of reads that had to go to the store
+	 */
+	public long misses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of blocks evicted from the pool
+	 */
+	public long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the number of dirty blocks written back to the store
+	 */
+	public long writeBacks() {
+		return writeBacks;
+	}
+
+	/**
+	 * Reset all the statistics counters to zero
+	 */
+	public void resetCounters() {
+		hits = misses = evictions = writeBacks = 0;
+	}
+
+	public String toString() {
+		long reads = hits + misses;
+		return "BufferPool[" + used + "/" + capacity() + " frames, "
+			+ hits + " hits, " + misses + " misses ("
+			+ (reads == 0 ? 0 : 100*hits/reads) + "% hit rate), "
+			+ evictions + " evictions, " + writeBacks + " write-backs]";
+	}
+
+	/**
+	 * Run a file-backed BTree through buffer pools of different sizes and
+	 * report how well each one does
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		int b = 31, n = 200000;
+		// with a single frame, the nodes on the current search path are
+		// evicted while add(x) and remove(x) are still working on them
+		for (int frames : new int[] {1, 16, 64, 256, 1024, 4096}) {
+			File f = File.createTempFile("btree", ".db");
+			f.deleteOnExit();
+			java.util.SortedSet<Integer> ss = new java.util.TreeSet<Integer>();
+			java.util.Random rand = new java.util.Random(0);
+			BTree<Integer> t = new BTree<Integer>(b,
+					new DefaultComparator<Integer>(), Integer.class, f,
+					Serializer.INTEGER, frames);
+			for (int i = 0; i < n; i++) {
+				int x = rand.nextInt(5*n);
+				Utils.myassert(t.add(x) == ss.add(x));
+			}
+			for (int i = 0; i < n; i++) {
+				int x = rand.nextInt(5*n);
+				Utils.myassert(Utils.equals(t.find(x), Utils.findGE(ss, x)));
+			}
+			for (int i = 0; i < n; i++) {
+				int x = rand.nextInt(5*n);
+				Utils.myassert(t.remove(x) == ss.remove(x));
+			}
+			System.out.println(t.bs);
+			t.close();
+			t = new BTree<Integer>(b, new DefaultComparator<Integer>(),
+					Integer.class, f, Serializer.INTEGER, frames);
+			java.util.Iterator<Integer> it = ss.iterator();
+			for (Integer x : t)
+				Utils.myassert(x.equals(it.next()));
+			Utils.myassert(!it.hasNext());
+			t.close();
+		}
+	}
+}
@@ -1,12 +1,18 @@
 package ods;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * This class implements hashing with chaining using multiplicative hashing
+ *
+ * For a version that keeps the chains in parallel arrays instead of lists,
+ * and that can use any HashStrategy, see CompactChainedHashTable.
  * @author morin
  *
  * @param <T>
@@ -136,7 +142,43 @@ public class ChainedHashTable<T> implements USet<T> {
 				return y;
 		return null;
 	}
-	
+
+	/**
+	 * Add all the elements of c, in order of their hash values, after
+	 * growing the table (at most once) to fit them
+	 * @return true if any element was added
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean addAll(Collection<? extends T> c) {
+		int m = n + c.size();
+		if (m > t.length) {
+			d = 1;
+			while (1<<d <= m) d++;
+			List<T>[] oldTable = t;
+			t = allocTable(1<<d);
+			for (List<T> l : oldTable)
+				for (T x : l)
+					t[hash(x)].add(x);
+		}
+		Object[] a = c.toArray();
+		boolean changed = false;
+		for (int i : Algorithms.parallelRadixOrder(a.length, k -> hash(a[k])))
+			changed |= add((T)a[i]);
+		return changed;
+	}
+
+	/**
+	 * Remove all the elements of c, in order of their hash values
+	 * @return true if any element was removed
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean removeAll(Collection<?> c) {
+		Object[] a = c.toArray();
+		boolean changed = false;
+		for (int i : Algorithms.parallelRadixOrder(a.length, k -> hash(a[k])))
+			changed |= remove((T)a[i]) != null;
+		return changed;
+	}
 
 	public Iterator<T> iterator() {
 		class IT implements Iterator<T> {
@@ -189,6 +231,43 @@ public class ChainedHashTable<T> implements USet<T> {
 				assert(x == null);
 			}
 		}
+		Random rand = new Random(1);
+		Set<Integer> s = new HashSet<Integer>();
+		for (int i = 0; i < 2*n; i += 2)
+			s.add(i);
+		for (int i = 0; i < 4*n; i++) {
+			Integer x = rand.nextInt(2*n);
+			boolean rs, rt;
+			if (rand.nextBoolean()) {
+				rs = s.add(x);
+				rt = t.add(x);
+			} else {
+				rs = s.remove(x);
+				rt = t.remove(x) != null;
+			}
+			if (rs != rt || s.size() != t.size())
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		for (int i = 0; i < 10; i++) {
+			List<Integer> l = new ArrayList<Integer>();
+			for (int j = rand.nextInt(n); j > 0; j--)
+				l.add(rand.nextInt(2*n));
+			boolean rs = false, rt;
+			if (rand.nextBoolean()) {
+				rs = s.addAll(l);
+				rt = t.addAll(l);
+			} else {
+				for (Integer x : l) rs |= s.remove(x);  // not s.removeAll(l)
+				rt = t.removeAll(l);
+			}
+			if (rs != rt)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (t.size() != s.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			for (Integer x : l)
+				if (s.contains(x) != (t.find(x) != null))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
 	}
 
 }
@@ -0,0 +1,330 @@
+package ods;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A variant of ChainedHashTable that uses multiplicative hashing (or any
+ * other HashStrategy) and keeps no list object for each bucket: the
+ * elements are stored contiguously in a[0],...,a[n-1] and each chain is
+ * linked through the int array next, so a table with n elements uses
+ * three arrays and no other objects.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class CompactChainedHashTable<T> implements USet<T> {
+	/**
+	 * The hash table: t[i] is the index in a of the first element in the
+	 * i'th chain, or -1 if that chain is empty
+	 */
+	int[] t;
+
+	/**
+	 * The elements, in a[0],...,a[n-1]; next[j] is the index in a of the
+	 * element after a[j] in its chain, or -1
+	 */
+	T[] a;
+	int[] next;
+
+	/**
+	 * The "dimension" of the table (table.length = 2^d)
+	 */
+	int d;
+
+	/**
+	 * The number of elements in the hash table
+	 */
+	int n;
+		
+	/**
+	 * The hash function
+	 */
+	HashStrategy hs;
+
+	/**
+	 * The number of bits in an int
+	 */
+	protected static final int w = 32;
+	
+	/**
+	 * Create a new empty hash table
+	 */
+	public CompactChainedHashTable() {
+		this(new HashStrategy.Multiplicative());
+	}
+
+	/**
+	 * Create a new empty hash table that uses the hash function hs
+	 */
+	public CompactChainedHashTable(HashStrategy hs) {
+		this.hs = hs;
+		d = 1;
+		allocTable(1<<d);
+	}
+	
+	public void clear() {
+		d = 1;
+		n = 0;
+		allocTable(1<<d);
+	}
+	
+	/**
+	 * Allocate a new empty table with s chains and room for s elements,
+	 * keeping the elements a[0],...,a[n-1]
+	 * @param s
+	 */
+	@SuppressWarnings({"unchecked"})
+	protected void allocTable(int s) {
+		t = new int[s];
+		Arrays.fill(t, -1);
+		T[] b = (T[])new Object[s];
+		if (a != null) System.arraycopy(a, 0, b, 0, n);
+		a = b;
+		next = new int[s];
+	}
+	
+	/**
+	 * Resize the table so that it has size 2^d 
+	 */
+	protected void resize() {
+		resize(n);
+	}
+
+	/**
+	 * Resize the table so that it has size 2^d > m
+	 */
+	protected void resize(int m) {
+		d = 1;
+		while (1<<d <= m) d++;
+		allocTable(1<<d);
+		for (int j = 0; j < n; j++) {
+			int i = hash(a[j]);
+			next[j] = t[i];
+			t[i] = j;
+		}
+	}
+	
+	/**
+	 * Return the number of elements stored in this hash table
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Compute the table location for object x
+	 * @param x
+	 * @return hs.hash(x.hashCode()) div 2^(w-d), which is
+	 * ((x.hashCode() * z) mod 2^w) div 2^(w-d) for multiplicative hashing
+	 */
+	protected final int hash(Object x) {
+		return hs.hash(x.hashCode()) >>> (w-d);
+	}
+	
+	/**
+	 * Add the element x to the hashtable if it is not
+	 * already present
+	 */
+	public boolean add(T x) {
+		if (find(x) != null) return false;
+		if (n+1 > t.length) resize();
+		int i = hash(x);
+		a[n] = x;
+		next[n] = t[i];
+		t[i] = n++;
+		return true;
+	}
+	
+	public T remove(T x) {
+		int j = indexOf(x);
+		if (j < 0) return null;
+		T y = a[j];
+		unlink(j);
+		return y;
+	}
+
+	/**
+	 * Get the copy of x stored in this table.
+	 * @param x - the item to get 
+	 * @return - the element y stored in this table such that x.equals(y)
+	 * is true, or null if no such element y exists
+	 */
+	public T find(Object x) {
+		for (int j = t[hash(x)]; j >= 0; j = next[j])
+			if (a[j].equals(x))
+				return a[j];
+		return null;
+	}
+
+	/**
+	 * @return the index j such that a[j].equals(x), or -1 if there isn't
+	 * one
+	 */
+	protected int indexOf(Object x) {
+		for (int j = t[hash(x)]; j >= 0; j = next[j])
+			if (a[j].equals(x))
+				return j;
+		return -1;
+	}
+
+	/**
+	 * Remove a[j] from its chain and fill the hole with a[n-1]
+	 */
+	protected void unlink(int j) {
+		relink(j, next[j]);
+		n--;
+		if (j != n) {
+			relink(n, j);
+			a[j] = a[n];
+			next[j] = next[n];
+		}
+		a[n] = null;
+	}
+
+	/**
+	 * Make whatever points to a[j] in its chain point to k instead
+	 */
+	protected void relink(int j, int k) {
+		int i = hash(a[j]);
+		if (t[i] == j) {
+			t[i] = k;
+		} else {
+			int p = t[i];
+			while (next[p] != j) p = next[p];
+			next[p] = k;
+		}
+	}
+
+	/**
+	 * Add all the elements of c, in order of their hash values, after
+	 * growing the table (at most once) to fit them
+	 * @return true if any element was added
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean addAll(Collection<? extends T> c) {
+		if (n + c.size() > t.length) resize(n + c.size());
+		Object[] a = c.toArray();
+		boolean changed = false;
+		for (int i : Algorithms.parallelRadixOrder(a.length, k -> hash(a[k])))
+			changed |= add((T)a[i]);
+		return changed;
+	}
+
+	/**
+	 * Remove all the elements of c, in order of their hash values
+	 * @return true if any element was removed
+	 */
+	public boolean removeAll(Collection<?> c) {
+		Object[] a = c.toArray();
+		boolean changed = false;
+		for (int i : Algorithms.parallelRadixOrder(a.length, k -> hash(a[k]))) {
+			int j = indexOf(a[i]);
+			if (j >= 0) {
+				unlink(j);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	public Iterator<T> iterator() {
+		class IT implements Iterator<T> {
+			int j, jlast = -1;
+			public boolean hasNext() {
+				return j < n;
+			}
+			public T next() {
+				if (j >= n) throw new NoSuchElementException();
+				jlast = j;
+				return a[j++];
+			}
+			public void remove() {
+				if (jlast < 0) throw new IllegalStateException();
+				unlink(jlast);  // a[jlast] is now the old a[n-1]
+				j = jlast;
+				jlast = -1;
+			}		
+		}
+		return new IT();
+	}
+	
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int n = 100000;
+		CompactChainedHashTable<Integer> t = new CompactChainedHashTable<Integer>();
+		for (int i = 0; i < n; i++) {
+			t.add(i*2);
+		}
+		for (int i = 0; i < 2*n; i++) {
+			Integer x = t.find(i);
+			if (i % 2 == 0) {
+				assert(x.intValue() == i);
+			} else {
+				assert(x == null);
+			}
+		}
+		Random rand = new Random(1);
+		Set<Integer> s = new HashSet<Integer>();
+		for (int i = 0; i < 2*n; i += 2)
+			s.add(i);
+		for (int i = 0; i < 4*n; i++) {
+			Integer x = rand.nextInt(2*n);
+			boolean rs, rt;
+			if (rand.nextBoolean()) {
+				rs = s.add(x);
+				rt = t.add(x);
+			} else {
+				rs = s.remove(x);
+				rt = t.remove(x) != null;
+			}
+			if (rs != rt || s.size() != t.size())
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		Iterator<Integer> it = t.iterator();
+		while (it.hasNext()) {
+			Integer x = it.next();
+			if (!s.contains(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (x % 3 == 0) {
+				it.remove();
+				s.remove(x);
+			}
+		}
+		for (Integer x : s)
+			if (t.find(x) == null)
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		if (s.size() != t.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		for (int i = 0; i < 10; i++) {
+			List<Integer> l = new ArrayList<Integer>();
+			for (int j = rand.nextInt(n); j > 0; j--)
+				l.add(rand.nextInt(2*n));
+			boolean rs = false, rt;
+			if (rand.nextBoolean()) {
+				rs = s.addAll(l);
+				rt = t.addAll(l);
+			} else {
+				for (Integer x : l) rs |= s.remove(x);  // not s.removeAll(l)
+				rt = t.removeAll(l);
+			}
+			if (rs != rt)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (t.size() != s.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			for (Integer x : l)
+				if (s.contains(x) != (t.find(x) != null))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+	}
+
+}
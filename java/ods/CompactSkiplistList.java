@@ -0,0 +1,305 @@
+package ods;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * The same skiplist as SkiplistList, but without any Node objects.  All
+ * the towers live in one int array t: the node at index u has height
+ * t[u], and the link and length of the edge leaving u in list r are
+ * stored next to each other, in t[u+1+2r] and t[u+2+2r].  A link of 0
+ * stands for null, since that is where the sentinel lives.  The element
+ * of node u is x[u].  Each step of a search reads two adjacent ints,
+ * instead of a Node, its next array, and its length array.
+ *
+ * As in CompactSkiplistSSet, a removed node's tower is kept on a free
+ * list for its height.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class CompactSkiplistList<T> extends AbstractList<T> {
+	/**
+	 * The height of the sentinel
+	 */
+	protected static final int MAX_HEIGHT = 32;
+
+	/**
+	 * The towers; index 0 is the sentinel
+	 */
+	int[] t;
+
+	/**
+	 * The elements; x[u] is the element of the node at index u
+	 */
+	Object[] x;
+
+	/**
+	 * The number of entries of t in use
+	 */
+	int m;
+
+	/**
+	 * free[k] is the first free tower of height k (or 0); each free tower
+	 * stores the next one in its first link
+	 */
+	int[] free;
+
+	/**
+	 * The maximum height of any element
+	 */
+	int h;
+
+	/**
+	 * The number of elements stored in the skiplist
+	 */
+	int n;
+
+	/**
+	 * A source of random numbers
+	 */
+	Random rand;
+
+	public CompactSkiplistList() {
+		rand = new Random(0);
+		clear();
+	}
+
+	public void clear() {
+		t = new int[128];
+		x = new Object[t.length];
+		t[0] = MAX_HEIGHT;
+		m = 2*MAX_HEIGHT + 3;
+		free = new int[MAX_HEIGHT+1];
+		h = 0;
+		n = 0;
+	}
+
+	/**
+	 * Allocate a tower of height k for the element y
+	 * @return the index of the new node
+	 */
+	protected int newNode(T y, int k) {
+		int u = free[k];
+		if (u != 0) {
+			free[k] = t[u+1];
+		} else {
+			if (m + 2*k + 3 > t.length) {
+				t = Arrays.copyOf(t, Math.max(2*t.length, m + 2*k + 3));
+				x = Arrays.copyOf(x, t.length);
+			}
+			u = m;
+			m += 2*k + 3;
+			t[u] = k;
+		}
+		x[u] = y;
+		return u;
+	}
+
+	/**
+	 * Put the tower of u on the free list for its height
+	 */
+	protected void freeNode(int u) {
+		x[u] = null;
+		t[u+1] = free[t[u]];
+		free[t[u]] = u;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected T x(int u) {
+		return (T)x[u];
+	}
+
+	/**
+	 * Find the node that precedes list index i in the skiplist.
+	 *
+	 * @return the index in t of the predecessor of the node at list index
+	 * i, or of the final node if i exceeds size() - 1.
+	 */
+	protected int findPred(int i) {
+		int u = 0;
+		int j = -1;   // index of the current node in list 0
+		for (int r = h; r >= 0; r--) {
+			int e = u+1+2*r;
+			while (t[e] != 0 && j + t[e+1] < i) {
+				j += t[e+1];
+				u = t[e];
+				e = u+1+2*r;
+			}
+		}
+		return u;
+	}
+
+	public T get(int i) {
+		if (i < 0 || i > n-1) throw new IndexOutOfBoundsException();
+		return x(t[findPred(i)+1]);
+	}
+
+	public T set(int i, T y) {
+		if (i < 0 || i > n-1) throw new IndexOutOfBoundsException();
+		int u = t[findPred(i)+1];
+		T z = x(u);
+		x[u] = y;
+		return z;
+	}
+
+	/**
+	 * Simulate repeatedly tossing a coin until it comes up tails.
+	 * Note, this code will never generate a height greater than 32
+	 * @return the number of coin tosses - 1
+	 */
+	protected int pickHeight() {
+		return Integer.numberOfTrailingZeros(~rand.nextInt());
+	}
+
+	public void add(int i, T y) {
+		if (i < 0 || i > n) throw new IndexOutOfBoundsException();
+		int k = pickHeight();
+		int w = newNode(y, k);
+		if (k > h)
+			h = k;
+		int u = 0;
+		int j = -1; // index of u
+		for (int r = h; r >= 0; r--) {
+			int e = u+1+2*r;
+			while (t[e] != 0 && j + t[e+1] < i) {
+				j += t[e+1];
+				u = t[e];
+				e = u+1+2*r;
+			}
+			t[e+1]++; // accounts for new node in list 0
+			if (r <= k) {
+				int f = w+1+2*r;
+				t[f] = t[e];
+				t[e] = w;
+				t[f+1] = t[e+1] - (i - j);
+				t[e+1] = i - j;
+			}
+		}
+		n++;
+	}
+
+	public T remove(int i) {
+		if (i < 0 || i > n-1) throw new IndexOutOfBoundsException();
+		int u = 0, w = 0;
+		int j = -1; // index of node u
+		for (int r = h; r >= 0; r--) {
+			int e = u+1+2*r;
+			while (t[e] != 0 && j + t[e+1] < i) {
+				j += t[e+1];
+				u = t[e];
+				e = u+1+2*r;
+			}
+			t[e+1]--;  // for the node we are removing
+			if (j + t[e+1] + 1 == i && t[e] != 0) {
+				w = t[e];
+				int f = w+1+2*r;
+				t[e+1] += t[f+1];
+				t[e] = t[f];
+				if (u == 0 && t[e] == 0)
+					h--;
+			}
+		}
+		T y = x(w);
+		freeNode(w);
+		n--;
+		return y;
+	}
+
+	public Iterator<T> iterator() {
+		class SkiplistIterator implements Iterator<T> {
+			int u, i = -1;
+			boolean removable;
+			public boolean hasNext() {
+				return t[u+1] != 0;
+			}
+			public T next() {
+				if (t[u+1] == 0)
+					throw new NoSuchElementException();
+				u = t[u+1];
+				i++;
+				removable = true;
+				return x(u);
+			}
+			public void remove() {
+				if (!removable)
+					throw new IllegalStateException();
+				CompactSkiplistList.this.remove(i);  // frees u
+				u = findPred(i);
+				i--;
+				removable = false;
+			}
+		}
+		return new SkiplistIterator();
+	}
+
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Check against an ArrayList, then time get(i) against SkiplistList
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int n = 100000;
+		List<Integer> l = new CompactSkiplistList<Integer>();
+		List<Integer> al = new ArrayList<Integer>();
+		Random rand = new Random(0);
+		for (int k = 0; k < 3*n; k++) {
+			int i = rand.nextInt(al.size()+1);
+			if (k < n || rand.nextBoolean()) {
+				l.add(i, k);
+				al.add(i, k);
+			} else if (i < al.size()) {
+				Utils.myassert(l.remove(i).equals(al.remove(i)));
+			}
+			if (k % 1000 == 0 && !al.isEmpty()) {
+				i = rand.nextInt(al.size());
+				Utils.myassert(l.set(i, -k).equals(al.set(i, -k)));
+			}
+		}
+		Utils.myassert(l.size() == al.size());
+		for (int i = 0; i < al.size(); i++)
+			Utils.myassert(l.get(i).equals(al.get(i)));
+		Iterator<Integer> it = l.iterator(), it2 = al.iterator();
+		while (it.hasNext()) {
+			Integer x = it.next();
+			Utils.myassert(x.equals(it2.next()));
+			if (x % 3 == 0) {
+				it.remove();
+				it2.remove();
+			}
+		}
+		Utils.myassert(!it2.hasNext() && l.equals(al));
+		System.out.println("CompactSkiplistList passed");
+
+		int ops = 1000000;
+		for (int size : new int[] { 1000, 10000, 100000, 1000000, 4000000 }) {
+			int[] q = new int[ops];
+			for (int i = 0; i < ops; i++)
+				q[i] = rand.nextInt(size);
+			for (int r = 0; r < 2; r++) {
+				List<?>[] lists = { new SkiplistList<Integer>(),
+						new CompactSkiplistList<Integer>() };
+				StringBuilder sb = new StringBuilder("n = " + size + ":");
+				for (List<?> ll : lists) {
+					@SuppressWarnings("unchecked")
+					List<Integer> u = (List<Integer>)ll;
+					for (int i = 0; i < size; i++) u.add(i);
+					long start = System.nanoTime();
+					for (int i : q) u.get(i);
+					long stop = System.nanoTime();
+					sb.append(" " + u.getClass().getSimpleName() + " "
+							+ (stop-start)/ops + "ns/get");
+				}
+				if (r == 1) System.out.println(sb);
+			}
+		}
+	}
+}
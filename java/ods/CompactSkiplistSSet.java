@@ -0,0 +1,335 @@
+package ods;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The same skiplist as SkiplistSSet, but without any Node objects.  All
+ * the towers live in one int array t: the node at index u has height
+ * t[u], and t[u+1+r] is the index of the next node in list r (0 stands
+ * for null, since that is where the sentinel lives).  The element of
+ * node u is x[u].  Moving right in list r is then one read from t and one
+ * from x, instead of reading a Node, its next array, and the next Node.
+ *
+ * A removed node's tower goes on a free list for its height, and is
+ * reused by the next node of the same height.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class CompactSkiplistSSet<T> implements SSet<T> {
+	protected Comparator<T> c;
+
+	/**
+	 * The height of the sentinel
+	 */
+	protected static final int MAX_HEIGHT = 32;
+
+	/**
+	 * The towers; index 0 is the sentinel
+	 */
+	int[] t;
+
+	/**
+	 * The elements; x[u] is the element of the node at index u
+	 */
+	Object[] x;
+
+	/**
+	 * The number of entries of t in use
+	 */
+	int m;
+
+	/**
+	 * free[k] is the first free tower of height k (or 0); each free tower
+	 * stores the next one in its first link
+	 */
+	int[] free;
+
+	/**
+	 * The maximum height of any element
+	 */
+	int h;
+
+	/**
+	 * The number of elements stored in the skiplist
+	 */
+	int n;
+
+	/**
+	 * A source of random numbers
+	 */
+	Random rand;
+
+	/**
+	 * Used by add(x) and remove(x)
+	 */
+	protected int[] stack;
+
+	public CompactSkiplistSSet(Comparator<T> c) {
+		this.c = c;
+		rand = new Random();
+		stack = new int[MAX_HEIGHT+1];
+		clear();
+	}
+
+	public CompactSkiplistSSet() {
+		this(new DefaultComparator<T>());
+	}
+
+	public void clear() {
+		t = new int[64];
+		x = new Object[t.length];
+		t[0] = MAX_HEIGHT;
+		m = MAX_HEIGHT + 2;
+		free = new int[MAX_HEIGHT+1];
+		h = 0;
+		n = 0;
+	}
+
+	/**
+	 * Allocate a tower of height k for the element y
+	 * @return the index of the new node
+	 */
+	protected int newNode(T y, int k) {
+		int u = free[k];
+		if (u != 0) {
+			free[k] = t[u+1];
+		} else {
+			if (m + k + 2 > t.length) {
+				t = Arrays.copyOf(t, Math.max(2*t.length, m + k + 2));
+				x = Arrays.copyOf(x, t.length);
+			}
+			u = m;
+			m += k + 2;
+			t[u] = k;
+		}
+		x[u] = y;
+		return u;
+	}
+
+	/**
+	 * Put the tower of u on the free list for its height
+	 */
+	protected void freeNode(int u) {
+		x[u] = null;
+		t[u+1] = free[t[u]];
+		free[t[u]] = u;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected T x(int u) {
+		return (T)x[u];
+	}
+
+	/**
+	 * Find the node u that precedes the value y in the skiplist.
+	 *
+	 * @param y - the value to search for
+	 * @return the index of a node u that maximizes x[u] subject to the
+	 * constraint that x[u] < y --- or 0 (the sentinel) if x[u] >= y for
+	 * all nodes u
+	 */
+	protected int findPredNode(T y) {
+		int u = 0;
+		for (int r = h; r >= 0; r--) {
+			int v;
+			while ((v = t[u+1+r]) != 0 && c.compare(x(v), y) < 0)
+				u = v;   // go right in list r
+		}
+		return u;
+	}
+
+	public T find(T y) {
+		int v = t[findPredNode(y)+1];
+		return v == 0 ? null : x(v);
+	}
+
+	public T findGE(T y) {
+		if (y == null) {   // return first node
+			return t[1] == 0 ? null : x(t[1]);
+		}
+		return find(y);
+	}
+
+	public T findLT(T y) {
+		if (y == null) {  // return last node
+			int u = 0;
+			for (int r = h; r >= 0; r--)
+				while (t[u+1+r] != 0)
+					u = t[u+1+r];
+			return x(u);
+		}
+		return x(findPredNode(y));
+	}
+
+	public boolean add(T y) {
+		int u = 0, comp = 0;
+		for (int r = h; r >= 0; r--) {
+			int v;
+			while ((v = t[u+1+r]) != 0 && (comp = c.compare(x(v), y)) < 0)
+				u = v;
+			if (v != 0 && comp == 0) return false;
+			stack[r] = u;          // going down, store u
+		}
+		int k = pickHeight();
+		int w = newNode(y, k);
+		while (h < k)
+			stack[++h] = 0;        // height increased
+		for (int r = 0; r <= k; r++) {
+			t[w+1+r] = t[stack[r]+1+r];
+			t[stack[r]+1+r] = w;
+		}
+		n++;
+		return true;
+	}
+
+	public boolean remove(T y) {
+		int u = 0, comp = 0, w = 0;
+		for (int r = h; r >= 0; r--) {
+			int v;
+			while ((v = t[u+1+r]) != 0 && (comp = c.compare(x(v), y)) < 0)
+				u = v;
+			if (v != 0 && comp == 0) {
+				w = v;
+				t[u+1+r] = t[v+1+r];
+				if (u == 0 && t[1+r] == 0)
+					h--;  // height has gone down
+			}
+		}
+		if (w == 0) return false;
+		freeNode(w);
+		n--;
+		return true;
+	}
+
+	/**
+	 * Simulate repeatedly tossing a coin until it comes up tails.
+	 * Note, this code will never generate a height greater than 32
+	 * @return the number of coin tosses - 1
+	 */
+	protected int pickHeight() {
+		return Integer.numberOfTrailingZeros(~rand.nextInt());
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public Comparator<? super T> comparator() {
+		return c;
+	}
+
+	/**
+	 * Create a new iterator in which the next value in the iteration is
+	 * the element of the node after u
+	 */
+	protected Iterator<T> iterator(int u) {
+		class SkiplistIterator implements Iterator<T> {
+			int u, prev = -1;
+			public SkiplistIterator(int u) {
+				this.u = u;
+			}
+			public boolean hasNext() {
+				return t[u+1] != 0;
+			}
+			public T next() {
+				if (t[u+1] == 0) throw new NoSuchElementException();
+				prev = u;
+				u = t[u+1];
+				return x(u);
+			}
+			public void remove() {
+				if (prev < 0) throw new IllegalStateException();
+				CompactSkiplistSSet.this.remove(x(u));  // frees u
+				u = prev;
+				prev = -1;
+			}
+		}
+		return new SkiplistIterator(u);
+	}
+
+	public Iterator<T> iterator() {
+		return iterator(0);
+	}
+
+	public Iterator<T> iterator(T y) {
+		return iterator(findPredNode(y));
+	}
+
+	public String toString() {
+		return Utils.collectionToString(this);
+	}
+
+	/**
+	 * Check against a TreeSet, then time find(x) against SkiplistSSet for
+	 * a range of sizes
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int n = 200000;
+		CompactSkiplistSSet<Integer> s = new CompactSkiplistSSet<Integer>();
+		SortedSet<Integer> ss = new TreeSet<Integer>();
+		Random rand = new Random(0);
+		for (int i = 0; i < 3*n; i++) {
+			Integer x = rand.nextInt(2*n);
+			if (i < n || rand.nextBoolean())
+				Utils.myassert(s.add(x) == ss.add(x));
+			else
+				Utils.myassert(s.remove(x) == ss.remove(x));
+		}
+		Utils.myassert(s.size() == ss.size());
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(2*n+2)-1;
+			Utils.myassert(Utils.equals(s.findGE(x), Utils.findGE(ss, x)));
+			Utils.myassert(Utils.equals(s.findLT(x), Utils.findLT(ss, x)));
+		}
+		Utils.myassert(Utils.equals(s.findLT(null), ss.last()));
+		Iterator<Integer> it2 = ss.iterator();
+		for (Iterator<Integer> it = s.iterator(); it.hasNext(); ) {
+			Integer x = it.next();
+			Utils.myassert(x.equals(it2.next()));
+			if (x % 3 == 0) {
+				it.remove();
+				it2.remove();
+			}
+		}
+		Utils.myassert(!it2.hasNext() && s.size() == ss.size());
+		it2 = ss.iterator();
+		for (Integer x : s)
+			Utils.myassert(x.equals(it2.next()));
+		System.out.println("CompactSkiplistSSet passed (" + s.m
+				+ " ints for " + s.size() + " elements)");
+
+		int ops = 1000000;
+		for (int size : new int[] { 1000, 10000, 100000, 1000000, 4000000 }) {
+			Integer[] a = new Integer[size];
+			for (int i = 0; i < size; i++)
+				a[i] = 2*i;
+			Integer[] q = new Integer[ops];
+			for (int i = 0; i < ops; i++)
+				q[i] = rand.nextInt(2*size);
+			for (int r = 0; r < 2; r++) {
+				SSet<?>[] sets = { new SkiplistSSet<Integer>(),
+						new CompactSkiplistSSet<Integer>() };
+				StringBuilder sb = new StringBuilder("n = " + size + ":");
+				for (SSet<?> t : sets) {
+					@SuppressWarnings("unchecked")
+					SSet<Integer> u = (SSet<Integer>)t;
+					for (Integer x : a) u.add(x);
+					long start = System.nanoTime();
+					for (Integer x : q) u.find(x);
+					long stop = System.nanoTime();
+					sb.append(" " + u.getClass().getSimpleName() + " "
+							+ (stop-start)/ops + "ns/find");
+				}
+				if (r == 1) System.out.println(sb);
+			}
+		}
+	}
+}
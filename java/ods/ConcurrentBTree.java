@@ -0,0 +1,617 @@
+package ods;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Array;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A B-tree that can be used by many threads at once.  Synchronization is
+ * done with optimistic lock coupling: every node has a version number
+ * whose lowest bit is a write lock.  Readers never write to shared memory;
+ * they remember the version of each node they look at and check it again
+ * before trusting what they read, starting over if it changed.  Writers
+ * lock only the nodes they modify.
+ *
+ * Unlike BTree, this is a B+-tree: all elements are stored in the leaves,
+ * internal nodes hold copies of keys that guide searches, and each leaf
+ * has a pointer to its right sibling.  Full nodes are split on the way
+ * down during add(x), so a split never has to climb back up the tree.
+ * remove(x) never merges nodes (leaves can become empty), which keeps
+ * every operation to at most two locked nodes.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class ConcurrentBTree<T> implements SSet<T> {
+
+	Factory<T> f;
+	protected Comparator<T> c;
+
+	/**
+	 * The maximum number of children of an internal node and the maximum
+	 * number of keys in a leaf
+	 */
+	int b;
+
+	/**
+	 * Number of elements stored in the tree
+	 */
+	AtomicInteger n;
+
+	/**
+	 * The root of the tree
+	 */
+	volatile Node root;
+
+	/**
+	 * Gives atomic access to Node.version
+	 */
+	protected static final VarHandle VERSION;
+	static {
+		try {
+			VERSION = MethodHandles.lookup().findVarHandle(
+					ConcurrentBTree.Node.class, "version", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * A node in the tree
+	 */
+	protected class Node {
+		/**
+		 * The version number of this node (odd when write-locked)
+		 */
+		volatile long version;
+
+		/**
+		 * The number of keys stored in this node
+		 */
+		int count;
+
+		/**
+		 * The keys stored in this node
+		 */
+		T[] keys;
+
+		/**
+		 * The children of this node, or null if this node is a leaf
+		 */
+		Node[] children;
+
+		/**
+		 * The right sibling of this leaf
+		 */
+		Node next;
+
+		@SuppressWarnings("unchecked")
+		public Node(boolean leaf) {
+			keys = f.newArray(leaf ? b : b-1);
+			if (!leaf)
+				children = (Node[])Array.newInstance(Node.class, b);
+		}
+
+		public boolean isLeaf() {
+			return children == null;
+		}
+
+		public boolean isFull() {
+			return count == keys.length;
+		}
+
+		/**
+		 * Wait until this node is unlocked and return its version
+		 */
+		public long readLock() {
+			long v;
+			while (((v = version) & 1) != 0)
+				Thread.onSpinWait();
+			return v;
+		}
+
+		/**
+		 * Check that this node hasn't changed since its version was v
+		 * @return true if everything read from this node since readLock()
+		 * returned v is consistent
+		 */
+		public boolean validate(long v) {
+			VarHandle.acquireFence();
+			return version == v;
+		}
+
+		/**
+		 * Turn an optimistic read into a write lock
+		 * @return true if the node was locked, false if it changed since
+		 * its version was v
+		 */
+		public boolean upgrade(long v) {
+			return VERSION.compareAndSet(this, v, v+1);
+		}
+
+		public void writeUnlock() {
+			version = version + 1;
+		}
+
+		/**
+		 * Count the keys in this node that are less than x (or less than
+		 * or equal to x if orEqual is true).  This may be called without
+		 * holding a lock, in which case the result has to be validated.
+		 * @return the number of keys, or -1 if the node is inconsistent
+		 */
+		public int rank(T x, boolean orEqual) {
+			int lo = 0, hi = Math.min(count, keys.length);
+			while (hi != lo) {
+				int m = (hi+lo)/2;
+				T y = keys[m];
+				if (y == null) return -1;  // in the middle of a change
+				int cmp = c.compare(y, x);
+				if (cmp < 0 || (orEqual && cmp == 0))
+					lo = m+1;
+				else
+					hi = m;
+			}
+			return lo;
+		}
+
+		/**
+		 * Insert the key x and, if this is an internal node, the child w
+		 * that follows it.  The node must be locked and not full.
+		 */
+		public void insert(T x, Node w) {
+			int i = rank(x, false);
+			System.arraycopy(keys, i, keys, i+1, count-i);
+			keys[i] = x;
+			if (w != null) {
+				System.arraycopy(children, i+1, children, i+2, count-i);
+				children[i+1] = w;
+			}
+			count++;
+		}
+	}
+
+	/**
+	 * Construct an empty ConcurrentBTree that uses a DefaultComparator
+	 * @param b the block size
+	 * @param clz the class of objects stored in this tree
+	 */
+	public ConcurrentBTree(int b, Class<T> clz) {
+		this(b, new DefaultComparator<T>(), clz);
+	}
+
+	/**
+	 * Construct an empty ConcurrentBTree
+	 * @param b the block size (at least 3)
+	 * @param c the comparator to use
+	 * @param clz the class of objects stored in this tree
+	 */
+	public ConcurrentBTree(int b, Comparator<T> c, Class<T> clz) {
+		this.c = c;
+		this.b = Math.max(3, b);
+		f = new Factory<T>(clz);
+		n = new AtomicInteger();
+		root = new Node(true);
+	}
+
+	/**
+	 * Split the full node u, whose parent is p (or null if u is the root).
+	 * Both nodes must be write-locked.
+	 */
+	protected void split(Node p, Node u) {
+		Node w = new Node(u.isLeaf());
+		int j = u.count/2;
+		T sep;
+		if (u.isLeaf()) {
+			w.count = u.count - j;
+			System.arraycopy(u.keys, j, w.keys, 0, w.count);
+			sep = w.keys[0];
+			w.next = u.next;
+			u.next = w;
+		} else {
+			sep = u.keys[j];
+			w.count = u.count - j - 1;
+			System.arraycopy(u.keys, j+1, w.keys, 0, w.count);
+			System.arraycopy(u.children, j+1, w.children, 0, w.count+1);
+			for (int i = j+1; i <= u.count; i++)
+				u.children[i] = null;
+		}
+		for (int i = j; i < u.count; i++)
+			u.keys[i] = null;
+		u.count = j;
+		if (p == null) {   // u was the root, make a new root
+			Node r = new Node(false);
+			r.keys[0] = sep;
+			r.children[0] = u;
+			r.children[1] = w;
+			r.count = 1;
+			root = r;
+		} else {
+			p.insert(sep, w);
+		}
+	}
+
+	public boolean add(T x) {
+		restart: while (true) {
+			Node u = root;
+			long v = u.readLock();
+			if (u != root) continue restart;
+			Node p = null;
+			long pv = 0;
+			while (true) {
+				if (u.isFull()) {  // split u now so its parent never overflows
+					if (p != null && !p.upgrade(pv)) continue restart;
+					if (!u.upgrade(v)) {
+						if (p != null) p.writeUnlock();
+						continue restart;
+					}
+					if (p == null && u != root) {
+						u.writeUnlock();
+						continue restart;
+					}
+					split(p, u);
+					u.writeUnlock();
+					if (p != null) p.writeUnlock();
+					continue restart;
+				}
+				if (u.isLeaf()) break;
+				int i = u.rank(x, true);
+				if (i < 0) continue restart;
+				Node w = u.children[i];
+				if (w == null) continue restart;
+				long wv = w.readLock();
+				// checking u after reading w's version ensures w wasn't split
+				if (!u.validate(v)) continue restart;
+				p = u;
+				pv = v;
+				u = w;
+				v = wv;
+			}
+			int i = u.rank(x, false);
+			if (i < 0) continue restart;
+			if (i < u.count) {
+				T y = u.keys[i];
+				if (y != null && c.compare(y, x) == 0) {
+					if (u.validate(v)) return false;
+					continue restart;
+				}
+			}
+			if (!u.upgrade(v)) continue restart;
+			u.insert(x, null);
+			u.writeUnlock();
+			n.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * Optimistically walk from the root to the leaf whose range contains x
+	 * (or to the leftmost leaf if x is null)
+	 * @param x the key to search for
+	 * @param vs vs[0] is set to the version of the leaf that is returned
+	 * @return the leaf, or null if the search must be restarted
+	 */
+	protected Node leaf(T x, long[] vs) {
+		Node u = root;
+		long v = u.readLock();
+		if (u != root) return null;
+		while (!u.isLeaf()) {
+			int i = x == null ? 0 : u.rank(x, true);
+			if (i < 0) return null;
+			Node w = u.children[i];
+			if (w == null) return null;
+			long wv = w.readLock();
+			if (!u.validate(v)) return null;
+			u = w;
+			v = wv;
+		}
+		vs[0] = v;
+		return u;
+	}
+
+	public boolean remove(T x) {
+		long[] vs = new long[1];
+		while (true) {
+			Node u = leaf(x, vs);
+			if (u == null) continue;
+			int i = u.rank(x, false);
+			if (i < 0) continue;
+			T y = i < u.count ? u.keys[i] : null;
+			if (y == null || c.compare(y, x) != 0) {
+				if (u.validate(vs[0])) return false;
+				continue;
+			}
+			if (!u.upgrade(vs[0])) continue;
+			System.arraycopy(u.keys, i+1, u.keys, i, u.count-i-1);
+			u.keys[--u.count] = null;
+			u.writeUnlock();
+			n.decrementAndGet();
+			return true;
+		}
+	}
+
+	public T find(T x) {
+		return findGE(x);
+	}
+
+	public T findGE(T x) {
+		long[] vs = new long[1];
+		restart: while (true) {
+			Node u = leaf(x, vs);
+			if (u == null) continue restart;
+			long v = vs[0];
+			int i = x == null ? 0 : u.rank(x, false);
+			if (i < 0) continue restart;
+			while (true) {
+				T y = i < u.count ? u.keys[i] : null;
+				Node w = u.next;
+				if (!u.validate(v)) continue restart;
+				if (y != null) return y;
+				if (w == null) return null;
+				u = w;       // nothing here, move to the right sibling
+				v = u.readLock();
+				i = 0;
+			}
+		}
+	}
+
+	public T findLT(T x) {
+		restart: while (true) {
+			Node u = root;
+			long v = u.readLock();
+			if (u != root) continue restart;
+			T lo = null;  // every key in u's subtree is at least lo
+			while (!u.isLeaf()) {
+				int i = x == null ? u.count : u.rank(x, false);
+				if (i < 0) continue restart;
+				Node w = u.children[i];
+				T y = i > 0 ? u.keys[i-1] : lo;
+				if (w == null) continue restart;
+				long wv = w.readLock();
+				if (!u.validate(v)) continue restart;
+				lo = y;
+				u = w;
+				v = wv;
+			}
+			int i = x == null ? u.count : u.rank(x, false);
+			if (i < 0) continue restart;
+			T y = i > 0 ? u.keys[i-1] : null;
+			if (!u.validate(v)) continue restart;
+			if (y != null || lo == null) return y;
+			x = lo;  // nothing in [lo,x), so look for the largest key < lo
+		}
+	}
+
+	/**
+	 * Copy the keys of the first non-empty leaf that contains keys at
+	 * least x (or greater than x if inclusive is false) into a
+	 * @param x the key to start at, or null to start at the smallest key
+	 * @param inclusive true if x itself should be copied
+	 * @param a an array of length at least b
+	 * @return the number of keys copied into a
+	 */
+	protected int snapshot(T x, boolean inclusive, T[] a) {
+		long[] vs = new long[1];
+		restart: while (true) {
+			Node u = leaf(x, vs);
+			if (u == null) continue restart;
+			long v = vs[0];
+			int i = x == null ? 0 : u.rank(x, !inclusive);
+			if (i < 0) continue restart;
+			while (true) {
+				int m = Math.max(0, Math.min(u.count, a.length) - i);
+				System.arraycopy(u.keys, i, a, 0, m);
+				Node w = u.next;
+				if (!u.validate(v)) continue restart;
+				if (m > 0 || w == null) return m;
+				u = w;
+				v = u.readLock();
+				i = 0;
+			}
+		}
+	}
+
+	/**
+	 * A weakly consistent iterator.  It copies one leaf at a time and
+	 * finds the next leaf by searching for the last key it returned, so it
+	 * never fails because of concurrent updates.  Each element present for
+	 * the whole iteration is returned exactly once, in sorted order.
+	 */
+	protected class CBTIterator implements Iterator<T> {
+		T[] a;
+		int i, m;
+		T last;
+
+		public CBTIterator(T x) {
+			a = f.newArray(b);
+			m = snapshot(x, true, a);
+		}
+
+		public boolean hasNext() {
+			if (i == m && m > 0) {
+				m = snapshot(last, false, a);
+				i = 0;
+			}
+			return i < m;
+		}
+
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			last = a[i++];
+			return last;
+		}
+
+		public void remove() {
+			ConcurrentBTree.this.remove(last);
+		}
+	}
+
+	public Iterator<T> iterator(T x) {
+		return new CBTIterator(x);
+	}
+
+	public Iterator<T> iterator() {
+		return new CBTIterator(null);
+	}
+
+	public Comparator<? super T> comparator() {
+		return c;
+	}
+
+	public int size() {
+		return n.get();
+	}
+
+	/**
+	 * Remove everything from the tree.  This is not atomic with respect to
+	 * operations that are running at the same time.
+	 */
+	public void clear() {
+		root = new Node(true);
+		n.set(0);
+	}
+
+	public String toString() {
+		return Utils.collectionToString(this);
+	}
+
+	/**
+	 * Run a mix of find(x) and add(x) operations on s from several threads
+	 * @return the number of operations per second
+	 */
+	protected static double throughput(final SSet<Integer> s, int threads,
+			final int ops, final int range, final double readFraction)
+			throws InterruptedException {
+		Thread[] t = new Thread[threads];
+		for (int k = 0; k < threads; k++) {
+			final int seed = k;
+			t[k] = new Thread() {
+				public void run() {
+					Random rand = new Random(seed);
+					for (int i = 0; i < ops; i++) {
+						Integer x = rand.nextInt(range);
+						if (rand.nextDouble() < readFraction) {
+							s.find(x);
+						} else if (rand.nextBoolean()) {
+							s.add(x);
+						} else {
+							s.remove(x);
+						}
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread th : t) th.start();
+		for (Thread th : t) th.join();
+		long stop = System.nanoTime();
+		return threads*(double)ops/((stop-start)*1e-9);
+	}
+
+	/**
+	 * A BTree behind a single lock, for comparison
+	 */
+	protected static class LockedBTree extends BTree<Integer> {
+		public LockedBTree(int b) {
+			super(b, Integer.class);
+		}
+		public synchronized boolean add(Integer x) {
+			return super.add(x);
+		}
+		public synchronized boolean remove(Integer x) {
+			return super.remove(x);
+		}
+		public synchronized Integer find(Integer x) {
+			return super.find(x);
+		}
+	}
+
+	/**
+	 * Check correctness against a TreeSet, stress test with several
+	 * threads, and compare throughput with a globally locked BTree
+	 * @param args
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int b = 32, n = 200000;
+		final ConcurrentBTree<Integer> t = new ConcurrentBTree<Integer>(b,
+				Integer.class);
+		SortedSet<Integer> ss = new TreeSet<Integer>();
+		Random rand = new Random(0);
+		System.out.println("Checking against TreeSet");
+		for (int i = 0; i < 3*n; i++) {
+			Integer x = rand.nextInt(2*n);
+			if (i < n || rand.nextBoolean())
+				Utils.myassert(t.add(x) == ss.add(x));
+			else
+				Utils.myassert(t.remove(x) == ss.remove(x));
+		}
+		Utils.myassert(t.size() == ss.size());
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(2*n+2)-1;
+			Utils.myassert(Utils.equals(t.findGE(x), Utils.findGE(ss, x)));
+			Utils.myassert(Utils.equals(t.findLT(x), Utils.findLT(ss, x)));
+		}
+		Iterator<Integer> it = ss.iterator();
+		for (Integer x : t)
+			Utils.myassert(x.equals(it.next()));
+		Utils.myassert(!it.hasNext());
+
+		System.out.println("Stress testing with 8 threads");
+		t.clear();
+		final int m = n;
+		Thread[] th = new Thread[8];
+		for (int k = 0; k < th.length; k++) {
+			final int id = k;
+			th[k] = new Thread() {
+				public void run() {
+					// each thread owns the values congruent to id mod 8
+					for (int i = id; i < m; i += 8) {
+						Utils.myassert(t.add(i));
+						Utils.myassert(t.find(i).equals(i));
+					}
+					for (int i = id; i < m; i += 16)
+						Utils.myassert(t.remove(i));
+					for (int i = id; i < m; i += 16) {
+						Integer y = t.findGE(i);
+						Utils.myassert(y == null || y > i);
+					}
+				}
+			};
+			th[k].start();
+		}
+		for (Thread x : th) x.join();
+		int expected = 0;
+		for (int i = 0; i < m; i++)
+			if (i % 16 >= 8) expected++;
+		Utils.myassert(t.size() == expected);
+		int prev = -1, count = 0;
+		for (Integer x : t) {
+			Utils.myassert(x > prev && x % 16 >= 8);
+			prev = x;
+			count++;
+		}
+		Utils.myassert(count == expected);
+
+		System.out.println("Throughput (90% find, range " + n + ")");
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= cores; threads *= 2) {
+			ConcurrentBTree<Integer> ct = new ConcurrentBTree<Integer>(b,
+					Integer.class);
+			LockedBTree lt = new LockedBTree(b);
+			for (int i = 0; i < n; i += 2) {
+				ct.add(i);
+				lt.add(i);
+			}
+			double x = throughput(ct, threads, 1000000, n, 0.9);
+			double y = throughput(lt, threads, 1000000, n, 0.9);
+			System.out.printf("%2d threads: ConcurrentBTree %.2e ops/s, "
+					+ "locked BTree %.2e ops/s%n", threads, x, y);
+		}
+	}
+}
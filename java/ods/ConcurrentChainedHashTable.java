@@ -0,0 +1,492 @@
+package ods;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashing with chaining that can be used by many threads at once.  The
+ * buckets are split into 2^s ranges of consecutive buckets and each range
+ * is protected by its own lock (a stripe).  Because the bucket of x is
+ * given by the high order bits of z*x.hashCode(), the stripe of x is the
+ * top s bits of the same value, so it doesn't change when the table is
+ * resized: every bucket that x can ever be in is guarded by the same lock.
+ * (The same goes for any other HashStrategy in place of multiplication
+ * by z.)
+ *
+ * add(x) and remove(x) lock x's stripe.  find(x) takes no locks at all:
+ * the head of each bucket is read with acquire semantics, Nodes are only
+ * ever added at the head of a chain, and a Node is removed by making its
+ * predecessor skip over it, so a reader always sees a well-formed chain.
+ *
+ * When there are more elements than buckets, a table with twice as many
+ * buckets (or more) is installed as the next table and every thread that
+ * tries to modify the table helps to copy it: threads claim stripes one at
+ * a time, lock them, copy their Nodes into the next table, and replace the
+ * old bucket heads with the marker FORWARD, which sends readers and
+ * writers on to the next table.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class ConcurrentChainedHashTable<T> implements USet<T> {
+
+	protected static final int w = 32;
+
+	/**
+	 * Marks a bucket that has been copied into the next table
+	 */
+	@SuppressWarnings("rawtypes")
+	protected static final Node FORWARD = new Node<Object>(null, 0, null);
+
+	/**
+	 * Gives atomic access to the buckets of a table and to Table.next
+	 */
+	protected static final VarHandle BUCKET
+		= MethodHandles.arrayElementVarHandle(Node[].class);
+	protected static final VarHandle NEXT;
+	static {
+		try {
+			MethodHandles.Lookup l = MethodHandles.lookup();
+			NEXT = l.findVarHandle(Table.class, "next", Table.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * A node in a chain; x and h never change, and next only changes while
+	 * the stripe's lock is held
+	 */
+	protected static class Node<T> {
+		final T x;
+		final int h;   // hs.hash(x.hashCode())
+		volatile Node<T> next;
+
+		Node(T x, int h, Node<T> next) {
+			this.x = x;
+			this.h = h;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * One array of buckets, along with what is needed to resize it
+	 */
+	protected static class Table<T> {
+		final Node<T>[] t;
+		final int d;   // t.length = 2^d
+
+		/**
+		 * The table this one is being copied into (or null)
+		 */
+		volatile Table<T> next;
+
+		/**
+		 * The next stripe to be claimed and the number of stripes copied
+		 */
+		final AtomicInteger claimed = new AtomicInteger();
+		final AtomicInteger copied = new AtomicInteger();
+
+		@SuppressWarnings({"unchecked","rawtypes"})
+		Table(int d) {
+			this.d = d;
+			t = new Node[1<<d];
+		}
+	}
+
+	/**
+	 * The locks; locks.length = 2^s
+	 */
+	final Object[] locks;
+	final int s;
+
+	/**
+	 * The current table
+	 */
+	volatile Table<T> table;
+
+	/**
+	 * The number of elements
+	 */
+	AtomicInteger n;
+
+	/**
+	 * The hash function
+	 */
+	final HashStrategy hs;
+
+	public ConcurrentChainedHashTable() {
+		this(16);
+	}
+
+	public ConcurrentChainedHashTable(int stripes) {
+		this(stripes, new HashStrategy.Multiplicative());
+	}
+
+	/**
+	 * Create a new empty hash table
+	 * @param stripes - the number of locks (rounded up to a power of 2 and
+	 * at least 2)
+	 * @param hs - the hash function to use
+	 */
+	public ConcurrentChainedHashTable(int stripes, HashStrategy hs) {
+		this.hs = hs;
+		int ss = 1;
+		while (1<<ss < stripes) ss++;
+		s = ss;
+		locks = new Object[1<<s];
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+		n = new AtomicInteger();
+		table = new Table<T>(s);
+	}
+
+	protected final int hash(Object x) {
+		return hs.hash(x.hashCode());
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static <T> Node<T> head(Table<T> tb, int h) {
+		return (Node<T>)BUCKET.getAcquire(tb.t, h >>> (w-tb.d));
+	}
+
+	/**
+	 * @return the table that holds the bucket for hash value h, following
+	 * FORWARD markers from the current table.  If the caller holds the
+	 * stripe of h, the answer can't change until it lets go.
+	 */
+	protected Table<T> locate(int h) {
+		Table<T> tb = table;
+		while (head(tb, h) == FORWARD)
+			tb = tb.next;
+		return tb;
+	}
+
+	public T find(T x) {
+		int h = hash(x);
+		// use the head that was checked, since the bucket can be copied
+		// (and its head replaced by FORWARD) at any moment
+		Table<T> tb = table;
+		Node<T> u;
+		while ((u = head(tb, h)) == FORWARD)
+			tb = tb.next;
+		for (; u != null; u = u.next)
+			if (u.h == h && x.equals(u.x))
+				return u.x;
+		return null;
+	}
+
+	public boolean add(T x) {
+		int h = hash(x);
+		Table<T> tb = table;
+		if (tb.next != null) help(tb);
+		synchronized (locks[h >>> (w-s)]) {
+			tb = locate(h);
+			Node<T> first = head(tb, h);
+			for (Node<T> u = first; u != null; u = u.next)
+				if (u.h == h && x.equals(u.x))
+					return false;
+			BUCKET.setRelease(tb.t, h >>> (w-tb.d), new Node<T>(x, h, first));
+		}
+		if (n.incrementAndGet() > (tb = table).t.length && tb.next == null)
+			resize(tb);
+		return true;
+	}
+
+	public T remove(T x) {
+		int h = hash(x);
+		Table<T> tb = table;
+		if (tb.next != null) help(tb);
+		synchronized (locks[h >>> (w-s)]) {
+			tb = locate(h);
+			Node<T> prev = null;
+			for (Node<T> u = head(tb, h); u != null; prev = u, u = u.next) {
+				if (u.h == h && x.equals(u.x)) {
+					if (prev == null)
+						BUCKET.setRelease(tb.t, h >>> (w-tb.d), u.next);
+					else
+						prev.next = u.next;
+					n.decrementAndGet();
+					return u.x;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Start copying tb into a table with at least twice as many buckets as
+	 * there are elements, unless someone else already has
+	 */
+	protected void resize(Table<T> tb) {
+		int dd = tb.d;
+		while (1<<dd < 2*n.get()) dd++;
+		NEXT.compareAndSet(tb, null, new Table<T>(dd));
+		help(tb);
+	}
+
+	/**
+	 * Copy stripes of tb into tb.next until there are none left to claim
+	 */
+	protected void help(Table<T> tb) {
+		Table<T> nt = tb.next;
+		int k;
+		while ((k = tb.claimed.getAndIncrement()) < locks.length) {
+			synchronized (locks[k]) {
+				copy(tb, nt, k);
+			}
+			if (tb.copied.incrementAndGet() == locks.length)
+				table = nt;
+		}
+	}
+
+	/**
+	 * Copy the buckets of stripe k from tb into nt; the caller holds the
+	 * lock for stripe k.  The Nodes are copied (not relinked) so that a
+	 * reader still walking an old chain isn't sent into the new one.
+	 */
+	protected void copy(Table<T> tb, Table<T> nt, int k) {
+		int f = nt.d - tb.d;
+		int lo = k << (tb.d-s), hi = (k+1) << (tb.d-s);
+		for (int i = lo; i < hi; i++) {
+			@SuppressWarnings("unchecked")
+			Node<T> u = (Node<T>)BUCKET.getAcquire(tb.t, i);
+			// each old bucket i becomes new buckets i<<f,...,((i+1)<<f)-1
+			for (; u != null; u = u.next) {
+				int j = u.h >>> (w-nt.d);
+				nt.t[j] = new Node<T>(u.x, u.h, nt.t[j]);
+			}
+			for (int j = i << f; j < (i+1) << f; j++)
+				BUCKET.setRelease(nt.t, j, nt.t[j]);
+			BUCKET.setRelease(tb.t, i, FORWARD);
+		}
+	}
+
+	public int size() {
+		return n.get();
+	}
+
+	/**
+	 * Remove everything.  This is not atomic with respect to operations
+	 * running in other threads.
+	 */
+	public void clear() {
+		table = new Table<T>(s);
+		n.set(0);
+	}
+
+	/**
+	 * A weakly consistent iterator over the table that was current when
+	 * it was created.  Buckets that have since been copied are read from
+	 * the tables they were copied into, so nothing is returned twice, but
+	 * changes made after the iterator reaches a bucket aren't seen.
+	 */
+	public Iterator<T> iterator() {
+		class IT implements Iterator<T> {
+			Table<T> tb;
+			int i;
+			List<T> bucket;
+			int j;
+			T prev;
+			public IT() {
+				tb = table;
+				bucket = new ArrayList<T>();
+				advance();
+			}
+			protected void gather(Table<T> tb, int i) {
+				@SuppressWarnings("unchecked")
+				Node<T> u = (Node<T>)BUCKET.getAcquire(tb.t, i);
+				if (u == FORWARD) {
+					Table<T> nt = tb.next;
+					int f = nt.d - tb.d;
+					for (int k = i << f; k < (i+1) << f; k++)
+						gather(nt, k);
+				} else {
+					for (; u != null; u = u.next)
+						bucket.add(u.x);
+				}
+			}
+			protected void advance() {
+				while (j == bucket.size() && i < tb.t.length) {
+					bucket.clear();
+					j = 0;
+					gather(tb, i++);
+				}
+			}
+			public boolean hasNext() {
+				return j < bucket.size();
+			}
+			public T next() {
+				if (j >= bucket.size()) throw new NoSuchElementException();
+				prev = bucket.get(j++);
+				advance();
+				return prev;
+			}
+			public void remove() {
+				if (prev == null) throw new IllegalStateException();
+				ConcurrentChainedHashTable.this.remove(prev);
+				prev = null;
+			}
+		}
+		return new IT();
+	}
+
+	/**
+	 * A ChainedHashTable shared behind a lock, for comparison
+	 */
+	protected static class LockedChainedHashTable<T> extends ChainedHashTable<T> {
+		public synchronized boolean add(T x) {
+			return super.add(x);
+		}
+		public synchronized T find(Object x) {
+			return super.find(x);
+		}
+		public synchronized T remove(T x) {
+			return super.remove(x);
+		}
+	}
+
+	/**
+	 * Run the same checks as ConcurrentLinearHashTable.main, including
+	 * the multithreaded stress test and throughput comparison
+	 * @param args
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Random rand = new Random(1);
+		USet<Integer> cht = new ConcurrentChainedHashTable<Integer>();
+		Set<Integer> s = new HashSet<Integer>();
+		int n = 1000000;
+		System.out.println("Adding");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			if (s.add(x) != cht.add(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != cht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		System.out.println("Searching");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			if (s.contains(x) != (cht.find(x) != null))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		System.out.println("Removing");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			if (s.remove(x) != (cht.remove(x) != null))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != cht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		int count = 0;
+		for (Integer x : cht) {
+			if (!s.contains(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			count++;
+		}
+		if (count != s.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+
+		System.out.println("Stress testing with 8 threads");
+		final ConcurrentChainedHashTable<Integer> t
+			= new ConcurrentChainedHashTable<Integer>(4);
+		final int m = n;
+		final AtomicInteger wins = new AtomicInteger();
+		Thread[] th = new Thread[8];
+		for (int k = 0; k < th.length; k++) {
+			final int id = k;
+			th[k] = new Thread() {
+				public void run() {
+					// each thread owns the values congruent to id mod 8...
+					for (int i = id; i < m; i += 8) {
+						if (!t.add(i) || t.find(i) == null)
+							throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+					}
+					for (int i = id; i < m; i += 16) {
+						if (t.remove(i) == null || t.find(i) != null)
+							throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+					}
+					// ...and all of them race to add the same negative values
+					for (int i = 1; i <= m/8; i++)
+						if (t.add(-i)) wins.incrementAndGet();
+				}
+			};
+			th[k].start();
+		}
+		for (Thread x : th) x.join();
+		int expected = m/8;
+		for (int i = 0; i < m; i++)
+			if (i % 16 >= 8) expected++;
+		if (wins.get() != m/8 || t.size() != expected)
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		count = 0;
+		for (Integer x : t) {
+			if (x >= 0 ? x % 16 < 8 : x < -m/8)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			count++;
+		}
+		if (count != expected)
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+
+		System.out.println("Searching with 4 threads while 4 threads resize");
+		for (int r = 0; r < 20; r++) {
+			final ConcurrentChainedHashTable<Integer> e
+				= new ConcurrentChainedHashTable<Integer>(4);
+			for (int i = 0; i < 64; i++)
+				e.add(-i);   // these are never removed
+			final AtomicInteger writers = new AtomicInteger(4);
+			final AtomicInteger misses = new AtomicInteger();
+			th = new Thread[8];
+			for (int k = 0; k < th.length; k++) {
+				final int id = k;
+				th[k] = new Thread() {
+					public void run() {
+						if (id < 4) {
+							for (int i = id+1; i < m/8; i += 4)
+								e.add(i);
+							writers.decrementAndGet();
+						} else {
+							while (writers.get() > 0)
+								for (int i = 0; i < 64; i++)
+									if (e.find(-i) == null)
+										misses.incrementAndGet();
+						}
+					}
+				};
+				th[k].start();
+			}
+			for (Thread x : th) x.join();
+			if (misses.get() > 0)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (e.size() != 64 + m/8 - 1)
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+
+		System.out.println("Throughput (90% find, range " + n + ")");
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= Math.max(cores, 2); threads *= 2) {
+			ConcurrentChainedHashTable<Integer> ct
+				= new ConcurrentChainedHashTable<Integer>();
+			LockedChainedHashTable<Integer> lt
+				= new LockedChainedHashTable<Integer>();
+			for (int i = 0; i < n; i += 2) {
+				ct.add(i);
+				lt.add(i);
+			}
+			double x = ConcurrentLinearHashTable.throughput(ct, threads,
+					4000000, n, 0.9);
+			double y = ConcurrentLinearHashTable.throughput(lt, threads,
+					4000000, n, 0.9);
+			System.out.printf("%2d threads: ConcurrentChainedHashTable %.2e ops/s, "
+					+ "locked ChainedHashTable %.2e ops/s%n", threads, x, y);
+		}
+	}
+}
@@ -0,0 +1,555 @@
+package ods;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A linear probing hash table that can be used by many threads at once
+ * without locks.  Every slot of the table is either null, a Node holding
+ * an element, or the marker MOVED.  A slot only ever changes from null to
+ * a Node or from null to MOVED, so a run of non-null slots never breaks
+ * and find(x) can probe without synchronizing with anyone: it is
+ * wait-free.  add(x) claims a null slot with a compare-and-set, and
+ * remove(x) marks the Node holding x as deleted with a compare-and-set
+ * (deleted Nodes play the role of LinearHashTable's del markers).
+ *
+ * When more than half the slots are used, a larger (or, if there are
+ * many deleted Nodes, a smaller) table is installed as the next table and
+ * every thread that tries to modify the table helps to copy it: threads
+ * claim chunks of slots, copy the live Nodes (the same Node objects) into
+ * the next table, and change the null slots to MOVED so that nothing more
+ * can be added.  Because Nodes are shared rather than copied, a remove(x)
+ * that happens during the copy is seen in both tables.  Copying a slot
+ * twice is harmless, so a thread that runs out of chunks to claim can
+ * finish any chunk left behind by a stalled thread.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class ConcurrentLinearHashTable<T> implements USet<T> {
+
+	protected static final int w = 32;
+
+	/**
+	 * The number of slots claimed at a time by a thread helping to copy
+	 */
+	protected static final int CHUNK = 1024;
+
+	/**
+	 * How long to wait for another thread to finish its chunk
+	 */
+	protected static final int SPINS = 1<<12;
+
+	/**
+	 * Marks a slot of a table that has been copied into the next table
+	 */
+	protected static final Object MOVED = new Object();
+
+	/**
+	 * Gives atomic access to the slots of a table, Node.deleted,
+	 * Table.next, and table
+	 */
+	protected static final VarHandle SLOT
+		= MethodHandles.arrayElementVarHandle(Object[].class);
+	protected static final VarHandle DELETED, NEXT, TABLE;
+	static {
+		try {
+			MethodHandles.Lookup l = MethodHandles.lookup();
+			DELETED = l.findVarHandle(Node.class, "deleted", boolean.class);
+			NEXT = l.findVarHandle(Table.class, "next", Table.class);
+			TABLE = l.findVarHandle(ConcurrentLinearHashTable.class, "table",
+					Table.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * An element of the table
+	 */
+	protected static class Node<T> {
+		final T x;
+		volatile boolean deleted;
+
+		Node(T x) {
+			this.x = x;
+		}
+	}
+
+	/**
+	 * One array of slots, along with what is needed to resize it
+	 */
+	protected static class Table<T> {
+		final Object[] t;
+		final int d;   // t.length = 2^d
+
+		/**
+		 * The number of slots holding Nodes
+		 */
+		final AtomicInteger used = new AtomicInteger();
+
+		/**
+		 * The table this one is being copied into (or null)
+		 */
+		volatile Table<T> next;
+
+		/**
+		 * The next chunk to be claimed and the number of slots copied
+		 */
+		final AtomicInteger claimed = new AtomicInteger();
+		final AtomicInteger copied = new AtomicInteger();
+
+		/**
+		 * Set once every slot has been copied into next
+		 */
+		volatile boolean complete;
+
+		Table(int d) {
+			this.d = d;
+			t = new Object[1<<d];
+		}
+	}
+
+	/**
+	 * The current table
+	 */
+	volatile Table<T> table;
+
+	/**
+	 * The number of elements
+	 */
+	AtomicInteger n;
+
+	/**
+	 * The hash function
+	 */
+	final HashStrategy hs;
+
+	public ConcurrentLinearHashTable() {
+		this(new HashStrategy.Tabulation(LinearHashTable.tab));
+	}
+
+	public ConcurrentLinearHashTable(HashStrategy hs) {
+		this.hs = hs;
+		n = new AtomicInteger();
+		table = new Table<T>(1);
+	}
+
+	protected int hash(Object x, int d) {
+		return hs.hash(x.hashCode()) >>> (w-d);
+	}
+
+	@SuppressWarnings("unchecked")
+	public T find(T x) {
+		Table<T> tb = table;
+		while (true) {
+			Object[] t = tb.t;
+			int m = t.length - 1;
+			int i = hash(x, tb.d);
+			for (int k = 0; k <= m; k++) {
+				Object o = SLOT.getAcquire(t, i);
+				if (o == null) return null;
+				if (o != MOVED) {
+					Node<T> u = (Node<T>)o;
+					if (!u.deleted && x.equals(u.x)) return u.x;
+				} else if (tb.complete) {
+					break;  // x can only be in the next table now
+				}
+				i = (i+1) & m;
+			}
+			if ((tb = tb.next) == null) return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean add(T x) {
+		Node<T> v = new Node<T>(x);
+		while (true) {
+			Table<T> tb = table;
+			if (tb.next != null) {
+				help(tb);
+				continue;
+			}
+			Object[] t = tb.t;
+			int m = t.length - 1;
+			int i = hash(x, tb.d);
+			for (int k = 0; k <= m; k++) {
+				Object o = SLOT.getAcquire(t, i);
+				if (o == null) {
+					if (SLOT.compareAndSet(t, i, null, v)) {
+						n.incrementAndGet();
+						if (2*tb.used.incrementAndGet() > t.length)
+							resize(tb);
+						return true;
+					}
+					o = SLOT.getAcquire(t, i);  // someone else got slot i
+				}
+				if (o == MOVED) break;  // tb is being resized
+				Node<T> u = (Node<T>)o;
+				if (!u.deleted && x.equals(u.x)) return false;
+				i = (i+1) & m;
+			}
+			// either tb is being resized, or every slot is full because the
+			// adder that should resize it hasn't gotten around to it yet
+			resize(tb);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public T remove(T x) {
+		// Nodes are shared between a table and the next one, so it doesn't
+		// matter whether x is found in tb or in a newer table
+		Table<T> tb = table;
+		while (true) {
+			Object[] t = tb.t;
+			int m = t.length - 1;
+			int i = hash(x, tb.d);
+			for (int k = 0; k <= m; k++) {
+				Object o = SLOT.getAcquire(t, i);
+				if (o == null) return null;
+				if (o != MOVED) {
+					Node<T> u = (Node<T>)o;
+					if (x.equals(u.x) && DELETED.compareAndSet(u, false, true)) {
+						n.decrementAndGet();
+						return u.x;
+					}
+				} else if (tb.complete) {
+					break;
+				}
+				i = (i+1) & m;
+			}
+			if ((tb = tb.next) == null) return null;
+		}
+	}
+
+	/**
+	 * Install a new table after tb (if nobody else has) and help copy tb
+	 * into it.  The new table has size 2^d, where 2^d is the smallest
+	 * power of 2 that is at least 3n.  The extra slack absorbs the adds
+	 * that were already under way when the resize started.
+	 */
+	protected void resize(Table<T> tb) {
+		if (tb.next == null) {
+			int d = 1;
+			while ((1<<d) < 3*n.get() + 16) d++;
+			NEXT.compareAndSet(tb, null, new Table<T>(d));
+		}
+		help(tb);
+	}
+
+	/**
+	 * Help copy tb into tb.next until the copy is complete, then make
+	 * tb.next the current table
+	 */
+	protected void help(Table<T> tb) {
+		Table<T> nt = tb.next;
+		int len = tb.t.length;
+		while (!tb.complete) {
+			int i = tb.claimed.getAndAdd(CHUNK);
+			if (i < len) {
+				int j = Math.min(i + CHUNK, len);
+				copy(tb, nt, i, j);
+				if (tb.copied.addAndGet(j - i) == len)
+					tb.complete = true;
+			} else {
+				// every chunk has been claimed, but some thread hasn't
+				// finished its chunk; give it a moment, but rather than
+				// wait for it indefinitely, do it all again
+				for (int k = 0; k < SPINS && !tb.complete; k++)
+					Thread.onSpinWait();
+				if (!tb.complete) {
+					copy(tb, nt, 0, len);
+					tb.complete = true;
+				}
+			}
+		}
+		TABLE.compareAndSet(this, tb, nt);
+	}
+
+	/**
+	 * Copy slots i,...,j-1 of tb into nt
+	 */
+	@SuppressWarnings("unchecked")
+	protected void copy(Table<T> tb, Table<T> nt, int i, int j) {
+		Object[] t = tb.t;
+		for (; i < j; i++) {
+			Object o;
+			while ((o = SLOT.getAcquire(t, i)) == null)
+				if (SLOT.compareAndSet(t, i, null, MOVED))
+					break;
+			if (o != null && o != MOVED && !((Node<T>)o).deleted)
+				transfer((Node<T>)o, nt);
+		}
+	}
+
+	/**
+	 * Add the Node u to nt, unless it's already there
+	 */
+	protected void transfer(Node<T> u, Table<T> nt) {
+		Object[] t = nt.t;
+		int m = t.length - 1;
+		int i = hash(u.x, nt.d);
+		while (true) {
+			Object o = SLOT.getAcquire(t, i);
+			if (o == u || o == MOVED) return; // (MOVED: our copy is long done)
+			if (o == null) {
+				if (SLOT.compareAndSet(t, i, null, u)) {
+					nt.used.incrementAndGet();
+					return;
+				}
+				continue;
+			}
+			i = (i+1) & m;
+		}
+	}
+
+	public int size() {
+		return n.get();
+	}
+
+	/**
+	 * Remove everything.  This is not atomic with respect to operations
+	 * running in other threads.
+	 */
+	public void clear() {
+		table = new Table<T>(1);
+		n.set(0);
+	}
+
+	/**
+	 * A weakly consistent iterator over the table that was current when
+	 * it was created.  Elements added after a resize starts may be missed,
+	 * but nothing is returned twice, and an element is only returned if it
+	 * hadn't been removed when the iterator reached it.
+	 */
+	public Iterator<T> iterator() {
+		class IT implements Iterator<T> {
+			Object[] t;
+			int i;
+			Node<T> next, prev;
+			public IT() {
+				t = table.t;
+				advance();
+			}
+			@SuppressWarnings("unchecked")
+			protected void advance() {
+				next = null;
+				while (next == null && i < t.length) {
+					Object o = SLOT.getAcquire(t, i++);
+					if (o != null && o != MOVED && !((Node<T>)o).deleted)
+						next = (Node<T>)o;
+				}
+			}
+			public boolean hasNext() {
+				return next != null;
+			}
+			public T next() {
+				if (next == null) throw new NoSuchElementException();
+				prev = next;
+				advance();
+				return prev.x;
+			}
+			public void remove() {
+				if (prev == null) throw new IllegalStateException();
+				if (DELETED.compareAndSet(prev, false, true))
+					n.decrementAndGet();
+				prev = null;
+			}
+		}
+		return new IT();
+	}
+
+	/**
+	 * A LinearHashTable shared behind a lock, for comparison
+	 */
+	protected static class LockedLinearHashTable<T> extends LinearHashTable<T> {
+		public LockedLinearHashTable(T nil) {
+			super(nil);
+		}
+		public synchronized boolean add(T x) {
+			return super.add(x);
+		}
+		public synchronized T find(T x) {
+			return super.find(x);
+		}
+		public synchronized T remove(T x) {
+			return super.remove(x);
+		}
+	}
+
+	/**
+	 * Run ops random operations (a fraction p of which are finds) on s
+	 * using the given number of threads
+	 * @return the number of operations per second
+	 */
+	protected static double throughput(final USet<Integer> s, int threads,
+			final int ops, final int range, final double p)
+			throws InterruptedException {
+		Thread[] th = new Thread[threads];
+		for (int k = 0; k < threads; k++) {
+			final long seed = k;
+			th[k] = new Thread() {
+				public void run() {
+					Random rand = new Random(seed);
+					for (int i = 0; i < ops/th.length; i++) {
+						Integer x = rand.nextInt(range);
+						double r = rand.nextDouble();
+						if (r < p)
+							s.find(x);
+						else if (r < (1+p)/2)
+							s.add(x);
+						else
+							s.remove(x);
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread t : th) t.start();
+		for (Thread t : th) t.join();
+		return ops / ((System.nanoTime() - start) * 1e-9);
+	}
+
+	/**
+	 * Run the same checks as LinearHashTable.main, then a multithreaded
+	 * stress test and a throughput comparison
+	 * @param args
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Random rand = new Random(1);
+		USet<Integer> lht = new ConcurrentLinearHashTable<Integer>();
+		Set<Integer> s = new HashSet<Integer>();
+		int n = 1000000;
+		System.out.println("Adding");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean rs = s.add(x);
+			boolean rlht = lht.add(x);
+			if (rs != rlht)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != lht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		System.out.println("Searching");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean rs = s.contains(x);
+			boolean rlht = lht.find(x) != null;
+			if (rs != rlht)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		System.out.println("Removing");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean rs = s.remove(x);
+			boolean rlht = lht.remove(x) != null;
+			if (rs != rlht)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != lht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		int count = 0;
+		for (Integer x : lht) {
+			if (!s.contains(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			count++;
+		}
+		if (count != s.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+
+		System.out.println("Stress testing with 8 threads");
+		final ConcurrentLinearHashTable<Integer> t
+			= new ConcurrentLinearHashTable<Integer>();
+		final int m = n;
+		final AtomicInteger wins = new AtomicInteger();
+		Thread[] th = new Thread[8];
+		for (int k = 0; k < th.length; k++) {
+			final int id = k;
+			th[k] = new Thread() {
+				public void run() {
+					// each thread owns the values congruent to id mod 8...
+					for (int i = id; i < m; i += 8) {
+						if (!t.add(i) || t.find(i) == null)
+							throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+					}
+					for (int i = id; i < m; i += 16) {
+						if (t.remove(i) == null || t.find(i) != null)
+							throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+					}
+					// ...and all of them race to add the same negative values
+					for (int i = 1; i <= m/8; i++)
+						if (t.add(-i)) wins.incrementAndGet();
+				}
+			};
+			th[k].start();
+		}
+		for (Thread x : th) x.join();
+		int expected = m/8;
+		for (int i = 0; i < m; i++)
+			if (i % 16 >= 8) expected++;
+		if (wins.get() != m/8 || t.size() != expected)
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		count = 0;
+		for (Integer x : t) {
+			if (x >= 0 ? x % 16 < 8 : x < -m/8)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			count++;
+		}
+		if (count != expected)
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+
+		System.out.println("Racing 16 threads to fill new tables");
+		for (int r = 0; r < 200; r++) {
+			final ConcurrentLinearHashTable<Integer> e
+				= new ConcurrentLinearHashTable<Integer>();
+			final CyclicBarrier go = new CyclicBarrier(16);
+			th = new Thread[16];
+			for (int k = 0; k < th.length; k++) {
+				final int id = k;
+				th[k] = new Thread() {
+					public void run() {
+						try {
+							go.await();
+						} catch (Exception ex) {
+							throw new RuntimeException(ex);
+						}
+						for (int i = id; i < 256; i += 16)
+							if (!e.add(i) || e.find(i) == null)
+								throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+					}
+				};
+				th[k].start();
+			}
+			for (Thread x : th) x.join();
+			if (e.size() != 256)
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			for (int i = 0; i < 256; i++)
+				if (e.find(i) == null)
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+
+		System.out.println("Throughput (90% find, range " + n + ")");
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= Math.max(cores, 2); threads *= 2) {
+			ConcurrentLinearHashTable<Integer> ct
+				= new ConcurrentLinearHashTable<Integer>();
+			LockedLinearHashTable<Integer> lt
+				= new LockedLinearHashTable<Integer>(-1);
+			for (int i = 0; i < n; i += 2) {
+				ct.add(i);
+				lt.add(i);
+			}
+			double x = throughput(ct, threads, 4000000, n, 0.9);
+			double y = throughput(lt, threads, 4000000, n, 0.9);
+			System.out.printf("%2d threads: ConcurrentLinearHashTable %.2e ops/s, "
+					+ "locked LinearHashTable %.2e ops/s%n", threads, x, y);
+		}
+	}
+}
@@ -0,0 +1,453 @@
+package ods;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A skiplist that can be used by many threads at once, without locks.
+ * This is the lock-free skiplist of Fraser and of Herlihy and Shavit,
+ * which is built on Harris' lock-free linked lists.
+ *
+ * A node is removed in two steps.  First its next references are marked,
+ * from the top level down to level 0, which freezes them; the node is
+ * logically removed as soon as its level 0 reference is marked.  Then the
+ * node is unlinked (with compareAndSet) from every level by whichever
+ * thread next walks past it.  Java references can't carry a mark bit, so
+ * a marked reference to u is stored as a Mark object that points to u.
+ *
+ * add(x) links the new node into level 0 with compareAndSet, which is the
+ * moment x becomes part of the set, and then into each higher level.
+ * find(x), findGE(x) and findLT(x) never write to shared memory; they
+ * simply step over marked nodes.  Iterators are weakly consistent.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class ConcurrentSkiplistSSet<T> implements SSet<T> {
+	protected Comparator<T> c;
+
+	/**
+	 * The maximum height of a node
+	 */
+	protected static final int MAX_HEIGHT = 32;
+
+	/**
+	 * Gives atomic access to the elements of Node.next
+	 */
+	protected static final VarHandle NEXT
+		= MethodHandles.arrayElementVarHandle(Object[].class);
+
+	protected static class Node<T> {
+		final T x;
+		/**
+		 * next[r] is the next Node in list r, or a Mark if this node is
+		 * being removed
+		 */
+		final Object[] next;
+		public Node(T ix, int h) {
+			x = ix;
+			next = new Object[h+1];
+		}
+		public int height() {
+			return next.length - 1;
+		}
+	}
+
+	/**
+	 * A marked reference to u
+	 */
+	protected static class Mark<T> {
+		final Node<T> u;
+		public Mark(Node<T> u) {
+			this.u = u;
+		}
+	}
+
+	/**
+	 * This node sits on the left side of the skiplist
+	 */
+	protected volatile Node<T> sentinel;
+
+	/**
+	 * The maximum height of any element that has been added
+	 */
+	AtomicInteger h;
+
+	/**
+	 * The number of elements stored in the skiplist (a LongAdder, so that
+	 * adds and removes don't all fight over one counter)
+	 */
+	LongAdder n;
+
+	public ConcurrentSkiplistSSet(Comparator<T> c) {
+		this.c = c;
+		sentinel = new Node<T>(null, MAX_HEIGHT);
+		h = new AtomicInteger();
+		n = new LongAdder();
+	}
+
+	public ConcurrentSkiplistSSet() {
+		this(new DefaultComparator<T>());
+	}
+
+	/**
+	 * @return the node that o refers to, whether or not o is marked
+	 */
+	@SuppressWarnings("unchecked")
+	protected static <T> Node<T> ref(Object o) {
+		return o instanceof Mark ? ((Mark<T>)o).u : (Node<T>)o;
+	}
+
+	protected static Object get(Node<?> u, int r) {
+		return NEXT.getVolatile(u.next, r);
+	}
+
+	protected static boolean cas(Node<?> u, int r, Object o, Object p) {
+		return NEXT.compareAndSet(u.next, r, o, p);
+	}
+
+	/**
+	 * Find the predecessor and successor of x in every list, unlinking
+	 * any marked nodes along the way
+	 * @param preds preds[r] is set to the last node in list r whose value
+	 * is less than x, for every r < preds.length (ignored if null)
+	 * @param succs succs[r] is set to the node after preds[r]
+	 * @return true if succs[0] holds x
+	 */
+	protected boolean find(T x, Node<T>[] preds, Node<T>[] succs) {
+		retry:
+		while (true) {
+			Node<T> u = sentinel, v = null;
+			for (int r = h.get(); r >= 0; r--) {
+				v = ref(get(u, r));
+				while (v != null) {
+					Object o = get(v, r);
+					if (o instanceof Mark) {
+						// v is being removed; unlink it from list r
+						if (!cas(u, r, v, ref(o))) continue retry;
+						v = ref(o);
+					} else if (c.compare(v.x, x) < 0) {
+						u = v;          // go right in list r
+						v = ref(o);
+					} else {
+						break;
+					}
+				}
+				if (preds != null && r < preds.length) {
+					preds[r] = u;
+					succs[r] = v;
+				}
+			}
+			return v != null && c.compare(v.x, x) == 0;
+		}
+	}
+
+	/**
+	 * Search for x without modifying anything
+	 * @param x - the value to search for
+	 * @param pred - which node to return
+	 * @return if pred is true, a node u that maximizes u.x subject to
+	 * the constraint that u.x < x --- or sentinel if u.x >= x for
+	 * all nodes x; otherwise the node that follows u in list 0, or null
+	 * if there isn't one
+	 */
+	protected Node<T> findNode(T x, boolean pred) {
+		Node<T> u = sentinel, v = null;
+		for (int r = h.get(); r >= 0; r--) {
+			v = ref(get(u, r));
+			while (v != null) {
+				Object o = get(v, r);
+				if (!(o instanceof Mark)) {
+					if (c.compare(v.x, x) >= 0) break;
+					u = v;              // go right in list r
+				}
+				v = ref(o);
+			}
+		}
+		return pred ? u : v;
+	}
+
+	protected Node<T> findPredNode(T x) {
+		return findNode(x, true);
+	}
+
+	/**
+	 * @return the first node after u in list 0 that isn't being removed,
+	 * or null if there isn't one
+	 */
+	protected Node<T> next(Node<T> u) {
+		Node<T> v = ref(get(u, 0));
+		Object o;
+		while (v != null && (o = get(v, 0)) instanceof Mark)
+			v = ref(o);
+		return v;
+	}
+
+	public T find(T x) {
+		Node<T> v = findNode(x, false);
+		return v == null ? null : v.x;
+	}
+
+	public T findGE(T x) {
+		if (x == null) {   // return first node
+			Node<T> v = next(sentinel);
+			return v == null ? null : v.x;
+		}
+		return find(x);
+	}
+
+	public T findLT(T x) {
+		if (x == null) {  // return last node
+			Node<T> u = sentinel;
+			for (int r = h.get(); r >= 0; r--) {
+				Node<T> v = ref(get(u, r));
+				while (v != null) {
+					Object o = get(v, r);
+					if (!(o instanceof Mark)) u = v;
+					v = ref(o);
+				}
+			}
+			return u.x;
+		}
+		return findPredNode(x).x;
+	}
+
+	/**
+	 * Simulate repeatedly tossing a coin until it comes up tails.
+	 * Note, this code will never generate a height greater than 32
+	 * @return the number of coin tosses - 1
+	 */
+	protected int pickHeight() {
+		return Integer.numberOfTrailingZeros(~ThreadLocalRandom.current().nextInt());
+	}
+
+	@SuppressWarnings({"unchecked","rawtypes"})
+	public boolean add(T x) {
+		int top = pickHeight();
+		Node<T>[] preds = new Node[top+1], succs = new Node[top+1];
+		int k;
+		while ((k = h.get()) < top && !h.compareAndSet(k, top));  // height increased
+		while (true) {
+			if (find(x, preds, succs)) return false;
+			Node<T> w = new Node<T>(x, top);
+			for (int r = 0; r <= top; r++)
+				w.next[r] = succs[r];
+			if (cas(preds[0], 0, succs[0], w)) {
+				n.increment();
+				// x is in the set; now build the rest of w's tower
+				for (int r = 1; r <= top; r++) {
+					while (true) {
+						Object o = get(w, r);
+						if (o instanceof Mark) return true;   // w is being removed
+						if (o != succs[r] && !cas(w, r, o, succs[r])) continue;
+						if (cas(preds[r], r, succs[r], w)) break;
+						find(x, preds, succs);
+						if (succs[0] != w) return true;   // w was removed
+					}
+				}
+				return true;
+			}
+		}
+	}
+
+	public boolean remove(T x) {
+		Node<T> v = findNode(x, false);
+		if (v == null || c.compare(v.x, x) != 0) return false;
+		for (int r = v.height(); r > 0; r--) {
+			Object o;
+			while (!((o = get(v, r)) instanceof Mark))
+				cas(v, r, o, new Mark<T>(ref(o)));
+		}
+		while (true) {
+			Object o = get(v, 0);
+			if (o instanceof Mark) return false;  // another thread removed it
+			if (cas(v, 0, o, new Mark<T>(ref(o)))) {
+				n.decrement();
+				find(x, null, null);  // unlink v
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Remove everything from the skiplist.  This is not atomic with respect
+	 * to operations that are running at the same time.
+	 */
+	public void clear() {
+		sentinel = new Node<T>(null, MAX_HEIGHT);
+		h.set(0);
+		n.reset();
+	}
+
+	public int size() {
+		return n.intValue();
+	}
+
+	public Comparator<? super T> comparator() {
+		return c;
+	}
+
+	/**
+	 * Create a weakly consistent iterator in which the next value in the
+	 * iteration comes after u.  It never fails because of concurrent
+	 * updates, and each element present for the whole iteration is
+	 * returned exactly once, in sorted order.
+	 * @param u
+	 * @return
+	 */
+	protected Iterator<T> iterator(Node<T> u) {
+		class SkiplistIterator implements Iterator<T> {
+			Node<T> u, v;
+			public SkiplistIterator(Node<T> u) {
+				this.u = u;
+				v = ConcurrentSkiplistSSet.this.next(u);
+			}
+			public boolean hasNext() {
+				return v != null;
+			}
+			public T next() {
+				if (v == null) throw new NoSuchElementException();
+				u = v;
+				v = ConcurrentSkiplistSSet.this.next(u);
+				return u.x;
+			}
+			public void remove() {
+				ConcurrentSkiplistSSet.this.remove(u.x);
+			}
+		}
+		return new SkiplistIterator(u);
+	}
+
+	public Iterator<T> iterator() {
+		return iterator(sentinel);
+	}
+
+	public Iterator<T> iterator(T x) {
+		return iterator(findPredNode(x));
+	}
+
+	public String toString() {
+		return Utils.collectionToString(this);
+	}
+
+	/**
+	 * A SkiplistSSet behind a single lock, for comparison
+	 */
+	protected static class LockedSkiplistSSet extends SkiplistSSet<Integer> {
+		public synchronized boolean add(Integer x) {
+			return super.add(x);
+		}
+		public synchronized boolean remove(Integer x) {
+			return super.remove(x);
+		}
+		public synchronized Integer find(Integer x) {
+			return super.find(x);
+		}
+	}
+
+	/**
+	 * Check correctness against a TreeSet, stress test with several
+	 * threads (while iterating), and compare throughput with a globally
+	 * locked SkiplistSSet
+	 * @param args
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int n = 200000;
+		final ConcurrentSkiplistSSet<Integer> t = new ConcurrentSkiplistSSet<Integer>();
+		SortedSet<Integer> ss = new TreeSet<Integer>();
+		Random rand = new Random(0);
+		System.out.println("Checking against TreeSet");
+		for (int i = 0; i < 3*n; i++) {
+			Integer x = rand.nextInt(2*n);
+			if (i < n || rand.nextBoolean())
+				Utils.myassert(t.add(x) == ss.add(x));
+			else
+				Utils.myassert(t.remove(x) == ss.remove(x));
+		}
+		Utils.myassert(t.size() == ss.size());
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(2*n+2)-1;
+			Utils.myassert(Utils.equals(t.findGE(x), Utils.findGE(ss, x)));
+			Utils.myassert(Utils.equals(t.findLT(x), Utils.findLT(ss, x)));
+		}
+		Utils.myassert(Utils.equals(t.findGE(null), ss.first()));
+		Utils.myassert(Utils.equals(t.findLT(null), ss.last()));
+		Iterator<Integer> it = ss.iterator();
+		for (Integer x : t)
+			Utils.myassert(x.equals(it.next()));
+		Utils.myassert(!it.hasNext());
+		Integer x0 = rand.nextInt(2*n);
+		it = ss.tailSet(x0).iterator();
+		for (Iterator<Integer> it2 = t.iterator(x0); it2.hasNext(); )
+			Utils.myassert(it2.next().equals(it.next()));
+		Utils.myassert(!it.hasNext());
+
+		System.out.println("Stress testing with 8 threads");
+		t.clear();
+		final int m = n;
+		Thread[] th = new Thread[8];
+		for (int k = 0; k < th.length; k++) {
+			final int id = k;
+			th[k] = new Thread() {
+				public void run() {
+					// each thread owns the values congruent to id mod 8
+					for (int i = id; i < m; i += 8) {
+						Utils.myassert(t.add(i));
+						Utils.myassert(t.find(i).equals(i));
+					}
+					for (int i = id; i < m; i += 16)
+						Utils.myassert(t.remove(i));
+					for (int i = id; i < m; i += 16) {
+						Integer y = t.findGE(i);
+						Utils.myassert(y == null || y > i);
+					}
+				}
+			};
+			th[k].start();
+		}
+		// iterate while the other threads work
+		for (int r = 0; r < 10; r++) {
+			int prev = -1;
+			for (Integer x : t) {
+				Utils.myassert(x > prev);
+				prev = x;
+			}
+		}
+		for (Thread x : th) x.join();
+		int expected = 0;
+		for (int i = 0; i < m; i++)
+			if (i % 16 >= 8) expected++;
+		Utils.myassert(t.size() == expected);
+		int prev = -1, count = 0;
+		for (Integer x : t) {
+			Utils.myassert(x > prev && x % 16 >= 8);
+			prev = x;
+			count++;
+		}
+		Utils.myassert(count == expected);
+
+		System.out.println("Throughput (90% find, range " + n + ")");
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= Math.max(cores, 2); threads *= 2) {
+			ConcurrentSkiplistSSet<Integer> ct = new ConcurrentSkiplistSSet<Integer>();
+			LockedSkiplistSSet lt = new LockedSkiplistSSet();
+			for (int i = 0; i < n; i += 2) {
+				ct.add(i);
+				lt.add(i);
+			}
+			double x = ConcurrentBTree.throughput(ct, threads, 1000000, n, 0.9);
+			double y = ConcurrentBTree.throughput(lt, threads, 1000000, n, 0.9);
+			System.out.printf("%2d threads: ConcurrentSkiplistSSet %.2e ops/s, "
+					+ "locked SkiplistSSet %.2e ops/s%n", threads, x, y);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package ods;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A multiset that, unlike HashTable, stores each distinct element once,
+ * along with the number of copies of it.  This is a CompactChainedHashTable
+ * with an extra array c of counts that is parallel to a, so that c[j] is
+ * the number of copies of a[j].  As a USet, it contains the distinct
+ * elements; count(x) and addCount(x, delta) give access to the counts.
+ *
+ * For int and long elements, see IntLinearHashTable.Counter and
+ * LongLinearHashTable.Counter.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class CountingHashTable<T> extends CompactChainedHashTable<T> {
+	/**
+	 * The counts; c[j] is the number of copies of a[j]
+	 */
+	long[] c;
+
+	/**
+	 * The total number of copies
+	 */
+	long total;
+
+	public CountingHashTable() { }
+
+	public CountingHashTable(HashStrategy hs) {
+		super(hs);
+	}
+
+	protected void allocTable(int s) {
+		super.allocTable(s);
+		long[] b = new long[s];
+		if (c != null) System.arraycopy(c, 0, b, 0, n);
+		c = b;
+	}
+
+	protected void unlink(int j) {
+		total -= c[j];
+		c[j] = c[n-1];
+		super.unlink(j);
+	}
+
+	public void clear() {
+		super.clear();
+		total = 0;
+	}
+
+	/**
+	 * Add x with a count of 1 if it isn't already present
+	 */
+	public boolean add(T x) {
+		if (!super.add(x)) return false;
+		c[n-1] = 1;
+		total++;
+		return true;
+	}
+
+	/**
+	 * @return the number of copies of x
+	 */
+	public long count(Object x) {
+		int j = indexOf(x);
+		return j < 0 ? 0 : c[j];
+	}
+
+	/**
+	 * @return the total number of copies of all elements
+	 */
+	public long total() {
+		return total;
+	}
+
+	/**
+	 * Add delta copies of x (or remove -delta copies if delta is negative);
+	 * x is removed once its count drops to 0 or less
+	 * @return the new count of x
+	 */
+	public long addCount(T x, long delta) {
+		int j = indexOf(x);
+		if (j < 0) {
+			if (delta <= 0) return 0;
+			super.add(x);
+			total += delta;
+			return c[n-1] = delta;
+		}
+		total += delta;
+		if ((c[j] += delta) <= 0) {
+			unlink(j);
+			return 0;
+		}
+		return c[j];
+	}
+
+	/**
+	 * Compare against a HashMap of counts, then time counting a skewed
+	 * stream against HashTable
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Random rand = new Random(1);
+		int n = 1000000;
+		CountingHashTable<Integer> ct = new CountingHashTable<Integer>();
+		IntLinearHashTable.Counter ic = new IntLinearHashTable.Counter();
+		LongLinearHashTable.Counter lc = new LongLinearHashTable.Counter();
+		Map<Integer,Long> m = new HashMap<Integer,Long>();
+		long total = 0;
+		for (int i = 0; i < 3*n; i++) {
+			Integer x = rand.nextInt(n/10);
+			long delta = rand.nextInt(7) - 2;
+			long old = m.containsKey(x) ? m.get(x) : 0;
+			long nu = Math.max(0, delta > 0 || old > 0 ? old + delta : 0);
+			total += nu - old;
+			if (nu == 0) m.remove(x); else m.put(x, nu);
+			if (ct.addCount(x, delta) != nu || ic.addCount(x, delta) != nu
+					|| lc.addCount((long)x << 20, delta) != nu)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (rand.nextInt(100) == 0) {
+				x = rand.nextInt(n/10);
+				if ((ct.remove(x) != null) != m.containsKey(x)
+						|| ic.remove(x) != m.containsKey(x)
+						|| lc.remove((long)x << 20) != m.containsKey(x))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+				if (m.containsKey(x)) total -= m.remove(x);
+			}
+			if (ct.size() != m.size() || ic.size() != m.size()
+					|| lc.size() != m.size() || ct.total() != total)
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		for (int x = 0; x < n/10; x++) {
+			long y = m.containsKey(x) ? m.get(x) : 0;
+			if (ct.count(x) != y || ic.count(x) != y || lc.count((long)x << 20) != y)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		System.out.println("CountingHashTable passed");
+
+		// a skewed stream: most events hit a few hot keys
+		int[] a = new int[10*n];
+		for (int i = 0; i < a.length; i++)
+			a[i] = rand.nextInt(4) > 0 ? rand.nextInt(100) : rand.nextInt(n);
+		long start, stop;
+		for (int r = 0; r < 2; r++) {
+			ic.clear();
+			start = System.nanoTime();
+			for (int x : a) ic.addCount(x, 1);
+			stop = System.nanoTime();
+			System.out.println("IntLinearHashTable.Counter: " + a.length
+					+ " increments in " + (stop-start)*1e-9 + "s");
+			ct.clear();
+			start = System.nanoTime();
+			for (int x : a) ct.addCount(x, 1);
+			stop = System.nanoTime();
+			System.out.println("CountingHashTable: " + a.length
+					+ " increments in " + (stop-start)*1e-9 + "s");
+			HashTable<Integer> ht = new HashTable<Integer>();
+			start = System.nanoTime();
+			for (int x : a) ht.add(x);
+			stop = System.nanoTime();
+			System.out.println("HashTable: " + a.length
+					+ " adds in " + (stop-start)*1e-9 + "s, " + ht.findAll(7).size()
+					+ " copies of 7 vs count " + ct.count(7));
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package ods;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * An implementation of cuckoo hashing with 4-way buckets and a stash.
+ * The table is an array of 2^d buckets of B = 4 slots each.  Every element
+ * x lives in one of two buckets, chosen by two independent tabulation
+ * hash functions, or in a small stash of at most STASH elements.  So
+ * find(x) and remove(x) look at no more than 2B + STASH slots, no matter
+ * what, and the slots of a bucket are next to each other in memory.
+ *
+ * add(x) puts x in an empty slot of one of its buckets.  If both buckets
+ * are full, x kicks out a random element of one of them, that element
+ * moves to its other bucket, possibly kicking out another element, and so
+ * on.  After MAX_KICKS moves, the element left over goes into the stash,
+ * and if the stash is full the table is rebuilt with two new hash
+ * functions.  The table is kept at most 90% full.
+ *
+ * The hash functions are drawn from a Random, so a table created with a
+ * given seed always makes the same choices.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class CuckooHashTable<T> implements USet<T> {
+
+	protected static final int w = 32;
+
+	/**
+	 * The number of slots in a bucket
+	 */
+	protected static final int B = 4;
+
+	/**
+	 * The size of the stash
+	 */
+	protected static final int STASH = 4;
+
+	/**
+	 * The number of moves add(x) makes before it gives up
+	 */
+	protected static final int MAX_KICKS = 500;
+
+	/**
+	 * The buckets; bucket i is t[B*i],...,t[B*i+B-1]
+	 */
+	Object[] t;
+
+	/**
+	 * The stash holds ns elements
+	 */
+	Object[] stash;
+	int ns;
+
+	int n;   // the size
+	int d;   // there are 2^d buckets
+
+	/**
+	 * The two hash functions
+	 */
+	HashStrategy h1, h2;
+
+	/**
+	 * The source of hash functions and eviction choices
+	 */
+	Random rand;
+
+	public CuckooHashTable() {
+		this(new Random().nextLong());
+	}
+
+	/**
+	 * @param seed the seed for choosing hash functions
+	 */
+	public CuckooHashTable(long seed) {
+		rand = new Random(seed);
+		d = 1;
+		allocate();
+	}
+
+	/**
+	 * Allocate an empty table with 2^d buckets and choose new hash
+	 * functions
+	 */
+	protected void allocate() {
+		t = new Object[B<<d];
+		stash = new Object[STASH];
+		ns = 0;
+		h1 = new HashStrategy.Tabulation(rand.nextLong());
+		h2 = new HashStrategy.Tabulation(rand.nextLong());
+	}
+
+	/**
+	 * @return the index in t of the first slot of the bucket that h picks
+	 * for hash code hc
+	 */
+	protected int bucket(HashStrategy h, int hc) {
+		return (h.hash(hc) >>> (w-d)) * B;
+	}
+
+	/**
+	 * @return the index of x in t, t.length+i if x is stash[i], or -1 if
+	 * x isn't in the table
+	 */
+	protected int slot(Object x) {
+		int hc = x.hashCode();
+		int i = bucket(h1, hc), j = bucket(h2, hc);
+		for (int k = 0; k < B; k++)
+			if (t[i+k] != null && x.equals(t[i+k]))
+				return i+k;
+		for (int k = 0; k < B; k++)
+			if (t[j+k] != null && x.equals(t[j+k]))
+				return j+k;
+		for (int k = 0; k < ns; k++)
+			if (x.equals(stash[k]))
+				return t.length+k;
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T find(T x) {
+		int i = slot(x);
+		if (i < 0) return null;
+		return (T)(i < t.length ? t[i] : stash[i-t.length]);
+	}
+
+	/**
+	 * Put x, which isn't in the table, in one of its buckets, moving other
+	 * elements around if necessary
+	 * @return null if x (and everything it displaced) found a home;
+	 * otherwise the element that didn't, which is no longer in the table
+	 */
+	protected Object place(Object x) {
+		int hc = x.hashCode();
+		int i = bucket(h1, hc), j = bucket(h2, hc);
+		for (int kicks = 0; kicks < MAX_KICKS; kicks++) {
+			for (int k = 0; k < B; k++)
+				if (t[i+k] == null) {
+					t[i+k] = x;
+					return null;
+				}
+			for (int k = 0; k < B; k++)
+				if (t[j+k] == null) {
+					t[j+k] = x;
+					return null;
+				}
+			// kick a random element out of one of x's buckets...
+			int s = (rand.nextBoolean() ? i : j) + rand.nextInt(B);
+			Object y = t[s];
+			t[s] = x;
+			x = y;
+			// ...and send it to its other bucket
+			hc = x.hashCode();
+			i = bucket(h1, hc);
+			if (i == s - s%B) i = bucket(h2, hc);
+			j = i;
+		}
+		if (ns < STASH) {
+			stash[ns++] = x;
+			return null;
+		}
+		return x;
+	}
+
+	/**
+	 * Rebuild the table with 2^dd buckets and new hash functions,
+	 * including the element extra (unless it is null).  If the elements
+	 * can't be placed, try again with new hash functions, and after a few
+	 * failures, with more buckets.
+	 */
+	protected void rehash(int dd, Object extra) {
+		Object[] a = new Object[n+1];
+		int m = 0;
+		for (Object y : t)
+			if (y != null) a[m++] = y;
+		for (int k = 0; k < ns; k++)
+			a[m++] = stash[k];
+		if (extra != null) a[m++] = extra;
+		for (int tries = 1; ; tries++) {
+			d = dd;
+			allocate();
+			int k = 0;
+			while (k < m && place(a[k]) == null) k++;
+			if (k == m) return;
+			if (tries % 4 == 0) dd++;
+		}
+	}
+
+	public boolean add(T x) {
+		if (slot(x) >= 0) return false;
+		if (10*(n+1) > 9*t.length) rehash(d+1, null); // max 90% occupancy
+		Object y = place(x);
+		if (y != null) rehash(d, y);
+		n++;
+		return true;
+	}
+
+	/**
+	 * Empty slot i (of t, or of the stash if i >= t.length)
+	 */
+	protected void clearSlot(int i) {
+		if (i < t.length) {
+			t[i] = null;
+		} else {
+			stash[i-t.length] = stash[--ns];
+			stash[ns] = null;
+		}
+		n--;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T remove(T x) {
+		int i = slot(x);
+		if (i < 0) return null;
+		T y = (T)(i < t.length ? t[i] : stash[i-t.length]);
+		clearSlot(i);
+		if (8*n < t.length && d > 1) rehash(d-1, null); // min 12.5% occupancy
+		return y;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public void clear() {
+		n = 0;
+		d = 1;
+		allocate();
+	}
+
+	public Iterator<T> iterator() {
+		class IT implements Iterator<T> {
+			int i, iprev = -1;  // slots t.length,... are the stash
+			IT() {
+				skip();
+			}
+			void skip() {
+				while (i < t.length && t[i] == null) i++;
+			}
+			public boolean hasNext() {
+				return i < t.length + ns;
+			}
+			@SuppressWarnings("unchecked")
+			public T next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				iprev = i++;
+				skip();
+				return (T)(iprev < t.length ? t[iprev] : stash[iprev-t.length]);
+			}
+			public void remove() {
+				if (iprev < 0) throw new IllegalStateException();
+				clearSlot(iprev);
+				if (iprev >= t.length) i = iprev; // stash[ns] moved here
+				iprev = -1;
+			}
+		}
+		return new IT();
+	}
+
+	/**
+	 * Check against a HashSet, then compare the latency of find(x) with
+	 * LinearHashTable and ChainedHashTable
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Random rand = new Random(1);
+		CuckooHashTable<Integer> cht = new CuckooHashTable<Integer>(1);
+		Set<Integer> s = new HashSet<Integer>();
+		int n = 1000000;
+		int stashed = 0;
+		for (int i = 0; i < 4*n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean rs, rcht;
+			if (i < n || rand.nextBoolean()) {
+				rs = s.add(x);
+				rcht = cht.add(x);
+			} else {
+				rs = s.remove(x);
+				rcht = cht.remove(x) != null;
+			}
+			if (rs != rcht)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != cht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			stashed = Math.max(stashed, cht.ns);
+		}
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			if (s.contains(x) != (cht.find(x) != null))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		int count = 0;
+		Iterator<Integer> it = cht.iterator();
+		while (it.hasNext()) {
+			Integer x = it.next();
+			if (!s.contains(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			count++;
+			if (x % 3 == 0) {
+				it.remove();
+				s.remove(x);
+				count--;
+			}
+		}
+		if (count != s.size() || cht.size() != s.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		System.out.println("CuckooHashTable passed (at most " + stashed
+				+ " elements in the stash, " + 100.0*cht.n/cht.t.length + "% full)");
+
+		Integer[] a = new Integer[n];
+		for (int i = 0; i < n; i++)
+			a[i] = rand.nextInt(4*n);
+		for (int r = 0; r < 2; r++) {
+			for (USet<Integer> u : List.of(new CuckooHashTable<Integer>(),
+					new LinearHashTable<Integer>(-1), new ChainedHashTable<Integer>())) {
+				for (int i = 0; i < n; i += 2)
+					u.add(a[i]);
+				long[] lat = new long[n];
+				for (int i = 0; i < n; i++) {
+					long start = System.nanoTime();
+					u.find(a[i]);
+					lat[i] = System.nanoTime() - start;
+				}
+				System.out.println(u.getClass().getSimpleName() + " find(x): "
+						+ Testum.percentiles(lat));
+			}
+		}
+	}
+}
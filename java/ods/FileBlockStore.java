@@ -0,0 +1,523 @@
+package ods;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A BlockStore that really is external memory.  Each block is serialized
+ * into a fixed-size page of a file, and the file is accessed through
+ * memory-mapped chunks.
+ *
+ * Page 0 of the file is a header that records the page size, the number
+ * of pages in use, the head of the free list, and the metadata words.
+ * Block i lives in page i+1.  Free pages form a linked list: the first
+ * four bytes of a free page hold the index of the next free page.
+ *
+ * A FileBlockStore can optionally keep a write-ahead (redo) log.  In that
+ * case no change reaches the page file until it is committed: modified
+ * pages are kept in memory and flush() appends their images, followed by
+ * a checksummed commit record, to the log with one sequential write and
+ * one fsync.  Only then are the pages copied into the mapped file.  When
+ * the log grows too large the page file is forced to disk and the log is
+ * truncated (a checkpoint).  Opening the store replays every complete
+ * commit found in the log, so after a crash the file holds exactly the
+ * state of the last successful flush().
+ * @author morin
+ *
+ * @param <T>
+ */
+class FileBlockStore<T> extends BlockStore<T> {
+
+	protected static final int MAGIC = 0x0d5b1c5;
+	protected static final int HEADER_SIZE = 16 + 4*NMETA;
+
+	/**
+	 * The size of a mapped chunk (rounded down to a multiple of pageSize)
+	 */
+	protected static final int CHUNK_SIZE = 1<<20;
+
+	/**
+	 * The page number that marks a commit record in the log
+	 */
+	protected static final int COMMIT = Integer.MIN_VALUE;
+
+	/**
+	 * Checkpoint once the log grows beyond this many bytes
+	 */
+	protected static final long LOG_LIMIT = 1<<26;
+
+	/**
+	 * The file and its channel
+	 */
+	RandomAccessFile file;
+	FileChannel ch;
+
+	/**
+	 * Converts blocks to and from bytes
+	 */
+	Serializer<T> s;
+
+	/**
+	 * The number of bytes in a page
+	 */
+	int pageSize;
+
+	/**
+	 * The number of pages in each mapped chunk
+	 */
+	int chunkPages;
+
+	/**
+	 * The memory-mapped chunks of the file
+	 */
+	List<MappedByteBuffer> chunks;
+
+	/**
+	 * The number of blocks allocated (free or not)
+	 */
+	int nblocks;
+
+	/**
+	 * The index of the first free block, or -1 if there is none
+	 */
+	int freeHead;
+
+	/**
+	 * The write-ahead log and its channel (null if there is no log)
+	 */
+	RandomAccessFile logFile;
+	FileChannel logCh;
+
+	/**
+	 * The uncommitted images of modified pages, indexed by block
+	 * (only used when there is a log)
+	 */
+	Map<Integer,byte[]> dirty;
+
+	/**
+	 * Statistics
+	 */
+	long commits, checkpoints;
+
+	/**
+	 * Open (or create) a file-backed BlockStore
+	 * @param f the file that stores the blocks
+	 * @param s the serializer used to convert blocks to and from bytes
+	 * @throws IOException if the file can't be opened, or if it contains
+	 * pages of a different size
+	 */
+	public FileBlockStore(File f, Serializer<T> s) throws IOException {
+		this(f, s, null);
+	}
+
+	/**
+	 * Open (or create) a file-backed BlockStore that is protected by a
+	 * write-ahead log.  Any committed changes found in the log are
+	 * replayed into the file before it is opened.
+	 * @param f the file that stores the blocks
+	 * @param s the serializer used to convert blocks to and from bytes
+	 * @param log the log file (null for no log)
+	 * @throws IOException if the file can't be opened, or if it contains
+	 * pages of a different size
+	 */
+	public FileBlockStore(File f, Serializer<T> s, File log)
+			throws IOException {
+		this.s = s;
+		pageSize = Math.max(s.size(), HEADER_SIZE);
+		chunkPages = Math.max(1, CHUNK_SIZE / pageSize);
+		chunks = new ArrayList<MappedByteBuffer>();
+		file = new RandomAccessFile(f, "rw");
+		ch = file.getChannel();
+		if (log != null) {
+			logFile = new RandomAccessFile(log, "rw");
+			logCh = logFile.getChannel();
+			dirty = new LinkedHashMap<Integer,byte[]>();
+			recover();
+		}
+		long size = ch.size();
+		ByteBuffer h = readPage(-1);
+		if (size >= HEADER_SIZE && h.getInt(h.position()) == MAGIC) {
+			h.getInt();
+			if (h.getInt() != pageSize) {
+				release();
+				throw new IOException(f + " has the wrong page size");
+			}
+			nblocks = h.getInt();
+			freeHead = h.getInt();
+			for (int k = 0; k < NMETA; k++)
+				meta[k] = h.getInt();
+		} else {
+			clear();
+		}
+	}
+
+	/**
+	 * Return a buffer positioned at the start of the mapped page that
+	 * stores block i (block -1 is the header)
+	 * @param i the block index
+	 * @return a buffer whose remaining bytes are exactly the page
+	 */
+	protected ByteBuffer mapped(int i) {
+		int p = i+1;
+		int c = p / chunkPages;
+		while (c >= chunks.size()) {
+			long pos = (long)chunks.size() * chunkPages * pageSize;
+			try {
+				chunks.add(ch.map(FileChannel.MapMode.READ_WRITE, pos,
+						(long)chunkPages * pageSize));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		ByteBuffer buf = chunks.get(c).duplicate();
+		int off = (p % chunkPages) * pageSize;
+		buf.limit(off + pageSize);
+		buf.position(off);
+		return buf;
+	}
+
+	/**
+	 * Return a buffer for reading the current contents of block i
+	 * @param i the block index
+	 * @return a buffer whose remaining bytes are exactly the page
+	 */
+	protected ByteBuffer readPage(int i) {
+		if (dirty != null) {
+			byte[] a = dirty.get(i);
+			if (a != null) return ByteBuffer.wrap(a);
+		}
+		return mapped(i);
+	}
+
+	/**
+	 * Return a buffer for modifying block i.  With a log, this is an
+	 * in-memory copy of the page that is written out at the next commit.
+	 * @param i the block index
+	 * @return a buffer whose remaining bytes are exactly the page
+	 */
+	protected ByteBuffer page(int i) {
+		if (dirty == null) return mapped(i);
+		byte[] a = dirty.get(i);
+		if (a == null) {
+			a = new byte[pageSize];
+			mapped(i).get(a);
+			dirty.put(i, a);
+		}
+		return ByteBuffer.wrap(a);
+	}
+
+	/**
+	 * Replay every complete, intact commit in the log into the page file,
+	 * force the page file to disk, and empty the log.  Anything after the
+	 * last good commit record (a torn write) is discarded.
+	 */
+	protected void recover() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int)logCh.size());
+		while (buf.hasRemaining() && logCh.read(buf, buf.position()) > 0);
+		buf.flip();
+		int replayed = 0;
+		CRC32 crc = new CRC32();
+		while (true) {
+			int start = buf.position(), count = 0;
+			boolean ok = false;
+			while (buf.remaining() >= 4) {
+				int p = buf.getInt();
+				if (p == COMMIT) {
+					if (buf.remaining() < 12) break;
+					int end = buf.position() - 4;
+					int m = buf.getInt();
+					long sum = buf.getLong();
+					crc.reset();
+					crc.update(buf.array(), start, end - start);
+					ok = m == count && sum == crc.getValue();
+					break;
+				}
+				if (buf.remaining() < pageSize) break;
+				buf.position(buf.position() + pageSize);
+				count++;
+			}
+			if (!ok) break;
+			int next = buf.position();
+			buf.position(start);
+			for (int k = 0; k < count; k++) {
+				int i = buf.getInt();
+				ByteBuffer page = buf.slice();
+				page.limit(pageSize);
+				mapped(i).put(page);
+				buf.position(buf.position() + pageSize);
+			}
+			buf.position(next);
+			replayed++;
+		}
+		if (replayed > 0 || logCh.size() > 0)
+			checkpoint();
+	}
+
+	/**
+	 * Append all the modified pages to the log as one batch followed by a
+	 * commit record, force the log to disk, and then install the pages in
+	 * the page file.  After this returns, the changes survive a crash.
+	 */
+	protected void commit() {
+		writeHeader();
+		ByteBuffer buf = ByteBuffer.allocate(dirty.size()*(4+pageSize) + 16);
+		for (Map.Entry<Integer,byte[]> e : dirty.entrySet()) {
+			buf.putInt(e.getKey());
+			buf.put(e.getValue());
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.position());
+		buf.putInt(COMMIT);
+		buf.putInt(dirty.size());
+		buf.putLong(crc.getValue());
+		buf.flip();
+		try {
+			long pos = logCh.size();
+			while (buf.hasRemaining())
+				pos += logCh.write(buf, pos);
+			logCh.force(false);
+			for (Map.Entry<Integer,byte[]> e : dirty.entrySet())
+				mapped(e.getKey()).put(e.getValue());
+			dirty.clear();
+			commits++;
+			if (logCh.size() > LOG_LIMIT)
+				checkpoint();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Force the page file to disk, after which the log can be emptied
+	 */
+	protected void checkpoint() throws IOException {
+		for (MappedByteBuffer c : chunks)
+			c.force();
+		logCh.truncate(0);
+		logCh.force(true);
+		checkpoints++;
+	}
+
+	/**
+	 * Write the header page
+	 */
+	protected void writeHeader() {
+		ByteBuffer h = page(-1);
+		h.putInt(MAGIC);
+		h.putInt(pageSize);
+		h.putInt(nblocks);
+		h.putInt(freeHead);
+		for (int k = 0; k < NMETA; k++)
+			h.putInt(meta[k]);
+	}
+
+	public void clear() {
+		nblocks = 0;
+		freeHead = -1;
+		for (int k = 0; k < NMETA; k++)
+			meta[k] = 0;
+		writeHeader();
+	}
+
+	public int placeBlock(T block) {
+		int i;
+		if (freeHead >= 0) {
+			i = freeHead;
+			ByteBuffer buf = readPage(i);
+			freeHead = buf.getInt(buf.position());
+		} else {
+			i = nblocks++;
+		}
+		writeBlock(i, block);
+		return i;
+	}
+
+	public void freeBlock(int i) {
+		ByteBuffer buf = page(i);
+		buf.putInt(buf.position(), freeHead);
+		freeHead = i;
+	}
+
+	public T readBlock(int i) {
+		return s.read(readPage(i));
+	}
+
+	public void writeBlock(int i, T block) {
+		s.write(block, page(i));
+	}
+
+	public void writeMeta(int k, int v) {
+		meta[k] = v;
+		writeHeader();
+	}
+
+	/**
+	 * Write the header and force all mapped pages out to the file or,
+	 * if there is a log, commit all changes made since the last flush
+	 */
+	public void flush() {
+		if (dirty != null) {
+			commit();
+			return;
+		}
+		writeHeader();
+		for (MappedByteBuffer c : chunks)
+			c.force();
+	}
+
+	public void close() {
+		if (!ch.isOpen()) return;
+		flush();
+		try {
+			if (logCh != null)
+				checkpoint();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		release();
+	}
+
+	/**
+	 * Close the files without committing anything, as if the program
+	 * had crashed
+	 */
+	protected void release() {
+		chunks.clear();
+		if (dirty != null) dirty.clear();
+		try {
+			file.close();
+			if (logFile != null) logFile.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public String toString() {
+		return "FileBlockStore[" + nblocks + " pages of " + pageSize
+			+ " bytes" + (logCh == null ? "" : ", " + commits + " commits, "
+			+ checkpoints + " checkpoints") + "]";
+	}
+
+	/**
+	 * Build a file-backed BTree, close it, reopen it, and check that
+	 * it still contains the right elements
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		int b = 31, n = 200000;
+		File f = File.createTempFile("btree", ".db");
+		f.deleteOnExit();
+		java.util.SortedSet<Integer> ss = new java.util.TreeSet<Integer>();
+		java.util.Random rand = new java.util.Random(0);
+		BTree<Integer> t = new BTree<Integer>(b, new DefaultComparator<Integer>(),
+				Integer.class, f, Serializer.INTEGER);
+		System.out.println("Adding " + n + " elements");
+		for (int i = 0; i < n; i++) {
+			int x = rand.nextInt(5*n);
+			Utils.myassert(t.add(x) == ss.add(x));
+		}
+		System.out.println("Removing elements");
+		for (int i = 0; i < n; i++) {
+			int x = rand.nextInt(5*n);
+			Utils.myassert(t.remove(x) == ss.remove(x));
+		}
+		t.close();
+		System.out.println("Reopening " + f + " (" + f.length() + " bytes)");
+		t = new BTree<Integer>(b, new DefaultComparator<Integer>(),
+				Integer.class, f, Serializer.INTEGER);
+		Utils.myassert(t.size() == ss.size());
+		try {
+			new BTree<Integer>(b+2, new DefaultComparator<Integer>(),
+					Integer.class, f, Serializer.INTEGER);
+			throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		} catch (IOException e) {
+			// the block size doesn't match, so f is left alone
+		}
+		System.out.println("Checking equality");
+		for (int i = 0; i < n; i++) {
+			int x = rand.nextInt(5*n);
+			Utils.myassert(Utils.equals(t.find(x), Utils.findGE(ss, x)));
+			Utils.myassert(Utils.equals(t.findLT(x), Utils.findLT(ss, x)));
+		}
+		java.util.Iterator<Integer> it = ss.iterator();
+		for (Integer x : t)
+			Utils.myassert(x.equals(it.next()));
+		Utils.myassert(!it.hasNext());
+		System.out.println("Adding more elements");
+		for (int i = 0; i < n; i++) {
+			int x = rand.nextInt(5*n);
+			Utils.myassert(t.add(x) == ss.add(x));
+		}
+		Utils.myassert(t.size() == ss.size());
+		t.close();
+		crashTests(b, n);
+		System.out.println("Done");
+	}
+
+	/**
+	 * Repeatedly modify a logged BTree, commit, make some more changes,
+	 * and then crash (with a torn record at the end of the log).  Check
+	 * that reopening recovers exactly the committed state.
+	 */
+	protected static void crashTests(int b, int n) throws IOException {
+		File f = File.createTempFile("btree", ".db");
+		File log = new File(f.getPath() + ".log");
+		f.deleteOnExit();
+		log.deleteOnExit();
+		java.util.SortedSet<Integer> ss = new java.util.TreeSet<Integer>();
+		java.util.Random rand = new java.util.Random(1);
+		int batch = 1000;
+		System.out.println("Crash tests with a write-ahead log");
+		for (int r = 0; r < 10; r++) {
+			BTree<Integer> t = new BTree<Integer>(b,
+					new DefaultComparator<Integer>(), Integer.class, f,
+					Serializer.INTEGER, 64, log);
+			Utils.myassert(t.size() == ss.size());
+			java.util.Iterator<Integer> it = ss.iterator();
+			for (Integer x : t)
+				Utils.myassert(x.equals(it.next()));
+			Utils.myassert(!it.hasNext());
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				int x = rand.nextInt(5*n);
+				if (rand.nextInt(3) > 0)
+					Utils.myassert(t.add(x) == ss.add(x));
+				else
+					Utils.myassert(t.remove(x) == ss.remove(x));
+				if (i % batch == batch-1)
+					t.flush();
+			}
+			t.flush();
+			long stop = System.nanoTime();
+			// these changes are never committed
+			for (int i = 0; i < batch; i++)
+				t.add(rand.nextInt(5*n));
+			BlockStore<?> s = t.bs;
+			if (s instanceof BufferPool)
+				s = ((BufferPool<?>)s).store;
+			System.out.println(s + " " + n + " operations in "
+					+ (stop-start)*1e-9 + "s");
+			((FileBlockStore<?>)s).release();
+			RandomAccessFile torn = new RandomAccessFile(log, "rw");
+			torn.seek(torn.length());
+			torn.writeInt(0);
+			torn.write(new byte[100]);
+			torn.close();
+		}
+		BTree<Integer> t = new BTree<Integer>(b, new DefaultComparator<Integer>(),
+				Integer.class, f, Serializer.INTEGER, 64, log);
+		Utils.myassert(t.size() == ss.size());
+		t.close();
+		Utils.myassert(log.length() == 0);
+	}
+}
@@ -0,0 +1,169 @@
+package ods;
+
+import java.util.Random;
+
+/**
+ * A hash function, chosen at random from some family, that maps ints (and
+ * longs) to 32-bit ints.  A hash table of size 2^d uses the d high-order
+ * bits of hash(x.hashCode()), so every bit of the result should be
+ * well-mixed.  Each family can be seeded, so that a table built with the
+ * same seed and the same keys always looks the same.
+ * @author morin
+ */
+public interface HashStrategy {
+
+	/**
+	 * @return the hash value of x
+	 */
+	public int hash(int x);
+
+	/**
+	 * @return the hash value of x; by default this hashes the xor of the
+	 * two halves of x
+	 */
+	default int hash(long x) {
+		return hash((int)(x ^ (x >>> 32)));
+	}
+
+	/**
+	 * Multiplicative hashing: x*z mod 2^w for a random odd z
+	 */
+	public static class Multiplicative implements HashStrategy {
+		final int z;
+
+		public Multiplicative() {
+			this(new Random().nextLong());
+		}
+
+		public Multiplicative(long seed) {
+			z = new Random(seed).nextInt() | 1;  // is a random odd integer
+		}
+
+		public int hash(int x) {
+			return z * x;
+		}
+
+		public String toString() {
+			return "multiplicative";
+		}
+	}
+
+	/**
+	 * Tabulation hashing: the xor of four random table entries, one for
+	 * each byte of x
+	 */
+	public static class Tabulation implements HashStrategy {
+		final int[][] tab;
+
+		public Tabulation() {
+			this(new Random().nextLong());
+		}
+
+		public Tabulation(long seed) {
+			Random r = new Random(seed);
+			tab = new int[4][256];
+			for (int i = 0; i < 4; i++)
+				for (int j = 0; j < 256; j++)
+					tab[i][j] = r.nextInt();
+		}
+
+		/**
+		 * Use the given 4x256 table
+		 */
+		public Tabulation(int[][] tab) {
+			this.tab = tab;
+		}
+
+		public int hash(int x) {
+			return tab[0][x&0xff]
+			         ^ tab[1][(x>>>8)&0xff]
+			         ^ tab[2][(x>>>16)&0xff]
+			         ^ tab[3][(x>>>24)&0xff];
+		}
+
+		public String toString() {
+			return "tabulation";
+		}
+	}
+
+	/**
+	 * 64-bit multiply-add-shift hashing: the high 32 bits of a*x + b
+	 * (mod 2^64) for random 64-bit a and b.  Longs are hashed as two
+	 * 32-bit halves with two different multipliers, so no bits are lost
+	 * by folding.
+	 */
+	public static class MultiplyShift implements HashStrategy {
+		final long a, b, c;
+
+		public MultiplyShift() {
+			this(new Random().nextLong());
+		}
+
+		public MultiplyShift(long seed) {
+			Random r = new Random(seed);
+			a = r.nextLong();
+			b = r.nextLong();
+			c = r.nextLong();
+		}
+
+		public int hash(int x) {
+			return (int)((a * (x & 0xffffffffL) + b) >>> 32);
+		}
+
+		public int hash(long x) {
+			return (int)((a * (x & 0xffffffffL) + c * (x >>> 32) + b) >>> 32);
+		}
+
+		public String toString() {
+			return "multiply-shift";
+		}
+	}
+
+	/**
+	 * Hash some hard and easy sets of keys with each strategy, reporting
+	 * the largest number of keys in one of n buckets, and time a
+	 * IncrementalLinearHashTable using each strategy
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int n = 1<<20, d = 20;
+		HashStrategy[] hs = { new Multiplicative(1), new Tabulation(1),
+				new MultiplyShift(1) };
+		int[][] keys = new int[3][n];
+		Random rand = new Random(1);
+		for (int i = 0; i < n; i++) {
+			keys[0][i] = i;               // consecutive
+			keys[1][i] = i << 12;         // only high bits vary
+			keys[2][i] = rand.nextInt();  // random
+		}
+		String[] names = { "consecutive", "shifted", "random" };
+		for (HashStrategy h : hs) {
+			// the same seed has to give the same function
+			HashStrategy g = h instanceof Multiplicative ? new Multiplicative(1)
+					: h instanceof Tabulation ? new Tabulation(1) : new MultiplyShift(1);
+			for (int i = 0; i < 1000; i++)
+				if (g.hash(i) != h.hash(i) || g.hash((long)i << 40) != h.hash((long)i << 40))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			StringBuilder sb = new StringBuilder(h + ":");
+			for (int k = 0; k < keys.length; k++) {
+				int[] count = new int[1<<d];
+				int max = 0;
+				for (int x : keys[k])
+					max = Math.max(max, ++count[h.hash(x) >>> (32-d)]);
+				sb.append(" " + names[k] + " max load " + max + ",");
+			}
+			Integer[] a = new Integer[n];
+			for (int i = 0; i < n; i++)
+				a[i] = keys[1][i];
+			long start = System.nanoTime();
+			IncrementalLinearHashTable<Integer> t
+				= new IncrementalLinearHashTable<Integer>(h);
+			for (Integer x : a) t.add(x);
+			for (Integer x : a) t.find(x);
+			for (Integer x : a) t.remove(x);
+			long stop = System.nanoTime();
+			sb.append(" IncrementalLinearHashTable " + (stop-start)*1e-9 + "s");
+			System.out.println(sb);
+		}
+	}
+}
@@ -1,23 +1,36 @@
 package ods;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.NoSuchElementException;
 import java.util.AbstractCollection;
 
 /**
  * This class implements hashing with chaining using multiplicative hashing
+ * (or any other HashStrategy).
+ * The elements are stored contiguously in a[0],...,a[n-1] and each chain
+ * is linked through the int array next, so there are no per-bucket
+ * objects.  Unlike ChainedHashTable, this table can store several elements
+ * that are equal to each other.
  * @author morin
  *
  * @param <T>
  */
 public class HashTable<T> extends AbstractCollection<T> {
 	/**
-	 * The hash table
+	 * The hash table: t[i] is the index in a of the first element in the
+	 * i'th chain, or -1 if that chain is empty
 	 */
-	List<T>[] t;
+	int[] t;
+
+	/**
+	 * The elements, in a[0],...,a[n-1]; next[j] is the index in a of the
+	 * element after a[j] in its chain, or -1
+	 */
+	T[] a;
+	int[] next;
 
 	/**
 	 * The "dimension" of the table (table.length = 2^d)
@@ -30,9 +43,9 @@ public class HashTable<T> extends AbstractCollection<T> {
 	int n;
 		
 	/**
-	 * The multiplier
+	 * The hash function
 	 */
-	int z;
+	HashStrategy hs;
 
 	/**
 	 * The number of bits in an int
@@ -43,24 +56,31 @@ public class HashTable<T> extends AbstractCollection<T> {
 	 * Create a new empty hash table
 	 */
 	public HashTable() {
-		d = 0;
-		t = allocTable(1<<d);
-		Random r = new Random();
-		z = r.nextInt() | 1;     // is a random odd integer
+		this(new HashStrategy.Multiplicative());
+	}
+
+	/**
+	 * Create a new empty hash table that uses the hash function hs
+	 */
+	public HashTable(HashStrategy hs) {
+		this.hs = hs;
+		d = 1;   // not 0, since hash(x) shifts by w-d
+		allocTable(1<<d);
 	}
 	
 	/**
-	 * Allocate and initialize a new empty table
+	 * Allocate a new empty table with s chains and room for at least s
+	 * elements, keeping the elements a[0],...,a[n-1]
 	 * @param s
-	 * @return
 	 */
 	@SuppressWarnings({"unchecked"})
-	protected List<T>[] allocTable(int s) {
-		List<T>[] tab = new ArrayList[s];
-		for (int i = 0; i < s; i++) {
-			tab[i] = new ArrayList<T>();
-		}
-		return tab;
+	protected void allocTable(int s) {
+		t = new int[s];
+		Arrays.fill(t, -1);
+		T[] b = (T[])new Object[Math.max(s, n)];
+		if (a != null) System.arraycopy(a, 0, b, 0, n);
+		a = b;
+		next = new int[b.length];
 	}
 	
 	/**
@@ -68,12 +88,11 @@ public class HashTable<T> extends AbstractCollection<T> {
 	 */
 	protected void resize(int d) {
 		this.d = d;
-		List<T>[] oldTable = t;
-		t = allocTable(1<<d);
-		for (int i = 0; i < oldTable.length; i++) {
-			for (T x : oldTable[i]) {
-				add(x);
-			}
+		allocTable(1<<d);
+		for (int j = 0; j < n; j++) {
+			int i = hash(a[j]);
+			next[j] = t[i];
+			t[i] = j;
 		}
 	}
 	
@@ -101,10 +120,11 @@ public class HashTable<T> extends AbstractCollection<T> {
 	/**
 	 * Compute the table location for object x
 	 * @param x
-	 * @return ((x.hashCode() * z) mod 2^w) div 2^(w-d)
+	 * @return hs.hash(x.hashCode()) div 2^(w-d), which is
+	 * ((x.hashCode() * z) mod 2^w) div 2^(w-d) for multiplicative hashing
 	 */
 	protected final int hash(Object x) {
-		return (z * x.hashCode()) >>> (w-d);
+		return hs.hash(x.hashCode()) >>> (w-d);
 	}
 	
 	/**
@@ -114,8 +134,14 @@ public class HashTable<T> extends AbstractCollection<T> {
 	public boolean add(T x) {
 		if (n+1 > t.length)
 			grow();
-		t[hash(x)].add(x);
-		n++;
+		if (n == a.length) {  // only after a shrink()
+			a = Arrays.copyOf(a, 2*n);
+			next = Arrays.copyOf(next, 2*n);
+		}
+		int i = hash(x);
+		a[n] = x;
+		next[n] = t[i];
+		t[i] = n++;
 		return true;
 	}
 	
@@ -126,29 +152,19 @@ public class HashTable<T> extends AbstractCollection<T> {
 	 */
 	public int removeAll(Object x) {
 		int r = 0;
-		Iterator<T> it = t[hash(x)].iterator();
-		while (it.hasNext()) {
-			T y = it.next();
-			if (y.equals(x)) {
-				it.remove();
-				n--;
-				r++;
-			}
+		for (int j = indexOf(x); j >= 0; j = indexOf(x)) {
+			unlink(j);
+			r++;
 		}
 		return r;
 	}
 
 	public T removeOne(Object x) {
-		Iterator<T> it = t[hash(x)].iterator();
-		while (it.hasNext()) {
-			T y = it.next();
-			if (y.equals(x)) {
-				it.remove();
-				n--;
-				return y;
-			}
-		}
-		return null;
+		int j = indexOf(x);
+		if (j < 0) return null;
+		T y = a[j];
+		unlink(j);
+		return y;
 	}
 
 	public boolean remove(Object x) {
@@ -162,10 +178,8 @@ public class HashTable<T> extends AbstractCollection<T> {
 	 * is true, or null if no such element y exists
 	 */
 	public T find(Object x) {
-		for (T y : t[hash(x)])
-			if (y.equals(x))
-				return y;
-		return null;
+		int j = indexOf(x);
+		return j < 0 ? null : a[j];
 	}
 	
 	/**
@@ -176,44 +190,69 @@ public class HashTable<T> extends AbstractCollection<T> {
 	 */
 	public List<T> findAll(Object x) {
 		List<T> l = new LinkedList<T>();
-		int i = (x.hashCode() * z) >>> (w-d);
-		for (T y : t[i]) {
-			if (y.equals(x)) {
-				l.add(y);
+		for (int j = t[hash(x)]; j >= 0; j = next[j]) {
+			if (a[j].equals(x)) {
+				l.add(a[j]);
 			}
 		}
 		return l;
 	}
 
+	/**
+	 * @return the index j such that a[j].equals(x), or -1 if there isn't
+	 * one
+	 */
+	protected int indexOf(Object x) {
+		for (int j = t[hash(x)]; j >= 0; j = next[j])
+			if (a[j].equals(x))
+				return j;
+		return -1;
+	}
+
+	/**
+	 * Remove a[j] from its chain and fill the hole with a[n-1]
+	 */
+	protected void unlink(int j) {
+		relink(j, next[j]);
+		n--;
+		if (j != n) {
+			relink(n, j);
+			a[j] = a[n];
+			next[j] = next[n];
+		}
+		a[n] = null;
+	}
+
+	/**
+	 * Make whatever points to a[j] in its chain point to k instead
+	 */
+	protected void relink(int j, int k) {
+		int i = hash(a[j]);
+		if (t[i] == j) {
+			t[i] = k;
+		} else {
+			int p = t[i];
+			while (next[p] != j) p = next[p];
+			next[p] = k;
+		}
+	}
+
 	public Iterator<T> iterator() {
 		class IT implements Iterator<T> {
-			int i, j;
-			int ilast, jlast;
-			IT() {
-				i = 0;
-				j = 0;
-				while (i < t.length && t[i].isEmpty())
-					i++;
-			}
-			protected void jumpToNext() {
-				while (i < t.length && j + 1 > t[i].size()) {
-					j = 0;
-					i++;
-				}
-			}
+			int j, jlast = -1;
 			public boolean hasNext() {
-				return i < t.length;
+				return j < n;
 			}
 			public T next() {
-				ilast = i;
-				jlast = j; 
-				T x =  t[i].get(j);
-				j++;
-				jumpToNext();
-				return x;
+				if (j >= n) throw new NoSuchElementException();
+				jlast = j;
+				return a[j++];
 			}
 			public void remove() {
-				HashTable.this.remove(t[ilast].get(jlast));
+				if (jlast < 0) throw new IllegalStateException();
+				unlink(jlast);  // a[jlast] is now the old a[n-1]
+				j = jlast;
+				jlast = -1;
 			}		
 		}
 		return new IT();
@@ -236,6 +275,28 @@ public class HashTable<T> extends AbstractCollection<T> {
 				assert(x == null);
 			}
 		}
+		// duplicates, and adding after a shrink
+		for (int i = 0; i < n; i++)
+			t.add(i % 100);
+		t.shrink();
+		t.shrink();
+		for (int i = 0; i < n; i++)
+			t.add(i % 100);
+		if (t.findAll(7).size() != 2*n/100)
+			throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		if (t.removeAll(7) != 2*n/100 || t.find(7) != null)
+			throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		int count = 0;
+		Iterator<Integer> it = t.iterator();
+		while (it.hasNext()) {
+			if (it.next() < 100) {
+				it.remove();
+			} else {
+				count++;
+			}
+		}
+		if (count != n - 50 || t.size() != count || t.find(8) != null)
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
 	}
 
 }
@@ -0,0 +1,533 @@
+package ods;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A variant of LinearHashTable that never leaves del markers behind and
+ * never rehashes the whole table in a single operation.  The hash method
+ * used is tabulation hashing, with LinearHashTable's tables, unless
+ * another HashStrategy is given.
+ *
+ * Deletions use backward-shift deletion: remove(x) moves later elements
+ * of the same run back into the hole, so every non-null entry of t is an
+ * element and q = n whenever no resize is in progress.
+ *
+ * Resizing is incremental.  resize() allocates the new table and keeps
+ * the old one around; each subsequent add(x) or remove(x) then moves at
+ * most MIGRATE slots of the old table into the new one, and find(x) looks
+ * in both tables until the migration is finished.  No single operation
+ * ever has to rehash the whole table.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class IncrementalLinearHashTable<T> implements USet<T> {
+
+	protected static final int w = 32;
+
+	/**
+	 * The number of slots of the old table migrated by each operation
+	 * during an incremental resize
+	 */
+	protected static final int MIGRATE = 16;
+
+	/**
+	 * The table
+	 */
+	T[] t;   // the table
+	
+	int n;   // the size
+	int d;   // t.length = 2^d
+	int q;   // number of non-null entries in t
+
+	/**
+	 * The hash function
+	 */
+	HashStrategy hs;
+
+	/**
+	 * The table being migrated into t, or null if no resize is in
+	 * progress
+	 */
+	T[] old;
+
+	/**
+	 * old.length = 2^od
+	 */
+	int od;
+
+	/**
+	 * Slots old[os],...,old[os+done-1] (mod old.length) have been migrated
+	 * and are now null
+	 */
+	int os, done;
+	
+	public IncrementalLinearHashTable() {
+		this(new HashStrategy.Tabulation(LinearHashTable.tab));
+	}
+
+	/**
+	 * @param hs the hash function to use
+	 */
+	public IncrementalLinearHashTable(HashStrategy hs) {
+		this.hs = hs;
+		d = 1;
+		t = newArray(1<<d);
+	}
+
+	/**
+	 * Allocate an empty table of size s
+	 */
+	@SuppressWarnings("unchecked")
+	protected T[] newArray(int s) {
+		return (T[])new Object[s];
+	}
+	
+	/**
+	 * Start resizing the backing array to have size 2^d, where 2^d is
+	 * the smallest power of 2 that is at least 3n.  The elements are
+	 * moved into the new array a few at a time by migrate().
+	 */
+	protected void resize() {
+		while (old != null) migrate(); // finish the previous resize first
+		od = d;
+		d = 1;
+		while ((1<<d) < 3*n) d++;
+		old = t;
+		t = newArray(1<<d);
+		q = 0;
+		// start migrating just after an empty slot, so that no run of
+		// old is split between the migrated and unmigrated parts
+		os = 0;
+		while (old[os] != null) os++;
+		done = 0;
+		migrate();
+	}
+
+	/**
+	 * Move up to MIGRATE slots of old into t
+	 */
+	protected void migrate() {
+		if (old == null) return;
+		int m = old.length - 1;
+		for (int k = 0; k < MIGRATE && done < old.length; k++, done++) {
+			int j = (os + done) & m;
+			T y = old[j];
+			if (y != null) {
+				old[j] = null;
+				int i = hash(y);
+				while (t[i] != null)
+					i = (i == t.length-1) ? 0 : i + 1;
+				t[i] = y;
+				q++;
+			}
+		}
+		if (done == old.length) old = null;
+	}
+
+	protected int hash(T x) {
+		return hs.hash(x.hashCode()) >>> (w-d);
+	}
+
+	/**
+	 * @return the hash value of x in a table of size 2^dd
+	 */
+	protected int hash(T x, int dd) {
+		return hs.hash(x.hashCode()) >>> (w-dd);
+	}
+
+	public boolean add(T x) {
+		if (find(x) != null) return false;
+		migrate();
+		if (2*(q+1) > t.length) resize(); // max 50% occupancy
+		int i = hash(x);
+		while (t[i] != null)
+			i = (i == t.length-1) ? 0 : i + 1; // increment i
+		q++;
+		n++;
+		t[i] = x;
+		return true;
+	}
+
+	/**
+	 * A faster version of add(x)
+	 * @param x
+	 * @return
+	 */
+	public boolean add2(T x) {
+		migrate();
+		if (2*(q+1) > t.length) resize(); // max 50% occupancy
+		if (old != null && oldIndex(x) >= 0) return false;
+		int i = hash(x);
+		while (t[i] != null) {
+			if (t[i].equals(x)) return false;
+			i = (i == t.length-1) ? 0 : i + 1; // increment i
+		}
+		t[i] = x;
+		n++; q++;
+		return true;
+	}
+
+	/**
+	 * @return the index of x in old, or -1 if x isn't there
+	 */
+	protected int oldIndex(T x) {
+		int m = old.length - 1;
+		int i = hash(x, od);
+		if (((i - os) & m) < done)  // x's run starts in the migrated part
+			i = (os + done) & m;
+		while (old[i] != null) {
+			if (x.equals(old[i])) return i;
+			i = (i+1) & m;
+		}
+		return -1;
+	}
+
+	public T find(T x) {
+		int i = hash(x);
+		while (t[i] != null) {
+			if (x.equals(t[i])) return t[i];
+			i = (i == t.length-1) ? 0 : i + 1; // increment i
+		}
+		if (old != null) {
+			i = oldIndex(x);
+			if (i >= 0) return old[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Empty a[i] and fill the hole by moving back any later element of the
+	 * same run that is allowed to be there (because the hole lies between
+	 * its hash value and its current position).  Repeat for the new hole.
+	 * @param a the table (t or old)
+	 * @param dd a.length = 2^dd
+	 * @param i the index to empty
+	 */
+	protected void shiftDelete(T[] a, int dd, int i) {
+		int m = a.length - 1;
+		int j = i;
+		while (true) {
+			j = (j+1) & m;
+			T y = a[j];
+			if (y == null) break;
+			if (((j - hash(y, dd)) & m) >= ((j - i) & m)) {
+				a[i] = y;
+				i = j;
+			}
+		}
+		a[i] = null;
+	}
+
+	public T remove(T x) {
+		migrate();
+		int i = hash(x);
+		while (t[i] != null) {
+			T y = t[i];
+			if (x.equals(y)) { 
+				shiftDelete(t, d, i);
+				n--; q--;
+				if (8*n < t.length) resize(); // min 12.5% occupancy
+				return y;
+			}
+			i = (i == t.length-1) ? 0 : i + 1;  // increment i
+		}
+		if (old != null) {
+			i = oldIndex(x);
+			if (i >= 0) {
+				T y = old[i];
+				shiftDelete(old, od, i);
+				n--;
+				if (8*n < t.length) resize(); // min 12.5% occupancy
+				return y;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finish any resize in progress and make sure that m more elements can
+	 * be added without another one.  If the table has to grow, it is
+	 * rebuilt right away rather than incrementally.
+	 */
+	protected void reserve(int m) {
+		while (old != null) migrate();
+		if (2*(q+m) <= t.length) return;
+		T[] a = t;
+		d = 1;
+		while ((1<<d) < 3*(n+m)) d++;
+		t = newArray(1<<d);
+		for (T y : a) {
+			if (y != null) {
+				int i = hash(y);
+				while (t[i] != null)
+					i = (i == t.length-1) ? 0 : i + 1;
+				t[i] = y;
+			}
+		}
+	}
+
+	/**
+	 * Add all the elements of c, in order of their hash values, after
+	 * reserving room for all of them
+	 * @return true if any element was added
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean addAll(Collection<? extends T> c) {
+		reserve(c.size());
+		Object[] a = c.toArray();
+		boolean changed = false;
+		for (int i : Algorithms.parallelRadixOrder(a.length, k -> hash((T)a[k])))
+			changed |= add2((T)a[i]);
+		return changed;
+	}
+
+	/**
+	 * Remove all the elements of c, in order of their hash values, and
+	 * then resize at most once
+	 * @return true if any element was removed
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean removeAll(Collection<?> c) {
+		while (old != null) migrate();
+		Object[] a = c.toArray();
+		int r = 0;
+		for (int k : Algorithms.parallelRadixOrder(a.length,
+				i -> hash((T)a[i]))) {
+			Object x = a[k];
+			for (int i = hash((T)x, d); t[i] != null; i = (i+1) & (t.length-1)) {
+				if (x.equals(t[i])) {
+					shiftDelete(t, d, i);
+					n--; q--; r++;
+					break;
+				}
+			}
+		}
+		if (8*n < t.length) resize(); // min 12.5% occupancy
+		return r > 0;
+	}
+
+	public int size() {
+		return n;
+	}
+	
+	public void clear() {
+		n = 0;
+		q = 0;
+		d = 1;
+		t = newArray(1<<d);
+		old = null;
+	}
+	
+	/**
+	 * Iterates over t and then over the unmigrated part of old.  Each
+	 * array is scanned (cyclically) starting just after an empty slot, so
+	 * when remove() shifts elements back they always come from slots that
+	 * haven't been visited yet.
+	 */
+	public Iterator<T> iterator() {
+		class IT implements Iterator<T> {
+			T[] a;       // the array being scanned
+			int dd;      // a.length = 2^dd
+			int s;       // where the scan of a started
+			int k;       // the number of slots of a scanned so far
+			int kprev;   // the value of k for the last element returned
+			int iprev;   // the index of the last element returned
+			T[] aprev;   // the array containing the last element returned
+			public IT() {
+				start(t, d, 0);
+				while (a[s] != null) s++;
+				skip();
+			}
+			protected void start(T[] a, int dd, int s) {
+				this.a = a;
+				this.dd = dd;
+				this.s = s;
+				k = 0;
+			}
+			protected void skip() {
+				while (a != null) {
+					int m = a.length - 1;
+					while (k < a.length && a[(s + k) & m] == null) k++;
+					if (k < a.length) return;
+					if (a == old || old == null) 
+						a = null;
+					else
+						start(old, od, (os + done) & (old.length-1));
+				}
+			}
+			public boolean hasNext() {
+				return a != null;
+			}
+			public T next() {
+				if (a == null) throw new NoSuchElementException();
+				iprev = (s + k) & (a.length-1);
+				T x = a[iprev];
+				aprev = a;
+				kprev = k++;
+				skip();
+				return x;
+			}
+			public void remove() {
+				if (aprev == null) throw new IllegalStateException();
+				shiftDelete(aprev, aprev == t ? d : od, iprev);
+				n--;
+				if (aprev == t) q--;
+				if (aprev == a && a[iprev] != null)
+					k = kprev;  // an unvisited element moved into slot i
+				aprev = null;
+			}
+		};
+		return new IT();
+	}
+	
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Random rand = new Random(1);
+		USet<Integer> lht = new IncrementalLinearHashTable<Integer>();
+		Set<Integer> s = new HashSet<Integer>();
+		int n = 1000000;
+		System.out.println("Adding");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean rs = s.add(x);
+			boolean rlht = lht.add(x);
+			if (rs != rlht) 
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != lht.size()) {
+				System.out.println(s.size());
+				System.out.println(lht.size());
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			}
+		}
+		System.out.println("Searching");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean rs = s.contains(x);
+			boolean rlht = lht.find(x) != null;
+			if (rs != rlht) 
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != lht.size()) 
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+
+		System.out.println("Removing");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean rs = s.remove(x);
+			boolean rlht = lht.remove(x) != null;
+			if (rs != rlht) 
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != lht.size()) 
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		s.clear();
+		lht.clear();
+
+		System.out.println("Churning");
+		IncrementalLinearHashTable<Integer> t = new IncrementalLinearHashTable<Integer>();
+		long worst = 0;
+		for (int i = 0; i < 4*n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean adding = i < n || rand.nextBoolean();
+			long start = System.nanoTime();
+			boolean rlht = adding ? t.add(x) : t.remove(x) != null;
+			worst = Math.max(worst, System.nanoTime() - start);
+			boolean rs = adding ? s.add(x) : s.remove(x);
+			if (rs != rlht || s.size() != t.size())
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (i % 1000 == 0) {
+				Integer y = rand.nextInt(n);
+				if (s.contains(y) != (t.find(y) != null))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			}
+		}
+		System.out.println("Slowest operation took " + worst*1e-6 + "ms");
+		LinearHashTable<Integer> lt = new LinearHashTable<Integer>(-1);
+		Random rand2 = new Random(1);
+		worst = 0;
+		for (int i = 0; i < 4*n; i++) {
+			Integer x = rand2.nextInt(n);
+			boolean adding = i < n || rand2.nextBoolean();
+			long start = System.nanoTime();
+			if (adding) lt.add(x); else lt.remove(x);
+			worst = Math.max(worst, System.nanoTime() - start);
+		}
+		System.out.println("LinearHashTable's slowest operation took "
+				+ worst*1e-6 + "ms");
+
+		System.out.println("Iterating (and removing), during resizes");
+		for (int i = 0; i < 100; i++) {
+			int m = 0;
+			Iterator<Integer> it = t.iterator();
+			while (it.hasNext()) {
+				Integer x = it.next();
+				if (!s.contains(x))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+				m++;
+				if (rand.nextInt(4) == 0) {
+					it.remove();
+					s.remove(x);
+					m--;
+				}
+			}
+			if (m != s.size() || t.size() != s.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			for (int j = 0; j < 1000; j++) {
+				Integer x = rand.nextInt(n);
+				if (t.add(x) != s.add(x))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			}
+		}
+
+		System.out.println("Adding and removing in bulk");
+		for (int i = 0; i < 10; i++) {
+			List<Integer> l = new ArrayList<Integer>();
+			for (int j = rand.nextInt(n); j > 0; j--)
+				l.add(rand.nextInt(2*n));
+			boolean rs = false, rt;
+			if (rand.nextBoolean()) {
+				rs = s.addAll(l);
+				rt = t.addAll(l);
+			} else {
+				for (Integer x : l) rs |= s.remove(x);  // not s.removeAll(l)
+				rt = t.removeAll(l);
+			}
+			if (rs != rt)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (t.size() != s.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			for (int j = 0; j < 1000; j++) {
+				Integer x = rand.nextInt(2*n);
+				if (s.contains(x) != (t.find(x) != null))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			}
+		}
+		List<Integer> l = new ArrayList<Integer>();
+		for (int i = 0; i < 10*n; i++)
+			l.add(rand.nextInt());
+		for (int r = 0; r < 2; r++) {
+			long start = System.nanoTime();
+			t = new IncrementalLinearHashTable<Integer>();
+			for (Integer x : l) t.add(x);
+			long stop = System.nanoTime();
+			System.out.println("add(x) " + l.size() + " times: "
+					+ (stop-start)*1e-9 + "s");
+			start = System.nanoTime();
+			t = new IncrementalLinearHashTable<Integer>();
+			t.addAll(l);
+			stop = System.nanoTime();
+			System.out.println("addAll(" + l.size() + " elements): "
+					+ (stop-start)*1e-9 + "s");
+		}
+	}
+}
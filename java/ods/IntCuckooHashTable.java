@@ -0,0 +1,326 @@
+package ods;
+
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A cuckoo hash table of primitive ints.  This is the same data structure
+ * as CuckooHashTable, but the keys are stored directly in an int[] array,
+ * so a bucket of B = 4 keys is 16 consecutive bytes and contains(x) reads
+ * two of them (and the stash, if it isn't empty) without following any
+ * pointers.
+ *
+ * As in IntLinearHashTable, the key EMPTY marks an empty slot; it can
+ * still be stored, in the flag hasEmpty.
+ * @author morin
+ */
+public class IntCuckooHashTable {
+
+	protected static final int w = 32;
+
+	/**
+	 * The key that marks an empty slot
+	 */
+	protected static final int EMPTY = 0;
+
+	protected static final int B = CuckooHashTable.B;
+
+	protected static final int STASH = CuckooHashTable.STASH;
+
+	protected static final int MAX_KICKS = CuckooHashTable.MAX_KICKS;
+
+	/**
+	 * The buckets; bucket i is t[B*i],...,t[B*i+B-1]
+	 */
+	int[] t;
+
+	/**
+	 * The stash holds ns keys
+	 */
+	int[] stash;
+	int ns;
+
+	int n;   // the size
+	int d;   // there are 2^d buckets
+
+	/**
+	 * Whether the key EMPTY is in the set
+	 */
+	boolean hasEmpty;
+
+	/**
+	 * The two hash functions
+	 */
+	HashStrategy h1, h2;
+
+	/**
+	 * The source of hash functions and eviction choices
+	 */
+	Random rand;
+
+	public IntCuckooHashTable() {
+		this(new Random().nextLong());
+	}
+
+	/**
+	 * @param seed the seed for choosing hash functions
+	 */
+	public IntCuckooHashTable(long seed) {
+		rand = new Random(seed);
+		d = 1;
+		allocate();
+	}
+
+	/**
+	 * Allocate an empty table with 2^d buckets and choose new hash
+	 * functions
+	 */
+	protected void allocate() {
+		t = new int[B<<d];
+		stash = new int[STASH];
+		ns = 0;
+		h1 = new HashStrategy.Tabulation(rand.nextLong());
+		h2 = new HashStrategy.Tabulation(rand.nextLong());
+	}
+
+	/**
+	 * @return the index in t of the first slot of the bucket that h picks
+	 * for x
+	 */
+	protected int bucket(HashStrategy h, int x) {
+		return (h.hash(x) >>> (w-d)) * B;
+	}
+
+	/**
+	 * @param x
+	 * @return true if x is in the set
+	 */
+	public boolean contains(int x) {
+		if (x == EMPTY) return hasEmpty;
+		int i = bucket(h1, x), j = bucket(h2, x);
+		for (int k = 0; k < B; k++)
+			if (t[i+k] == x || t[j+k] == x)
+				return true;
+		for (int k = 0; k < ns; k++)
+			if (stash[k] == x)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Put x, which isn't in the table, in one of its buckets, moving other
+	 * keys around if necessary
+	 * @return EMPTY if x (and everything it displaced) found a home;
+	 * otherwise the key that didn't, which is no longer in the table
+	 */
+	protected int place(int x) {
+		int i = bucket(h1, x), j = bucket(h2, x);
+		for (int kicks = 0; kicks < MAX_KICKS; kicks++) {
+			for (int k = 0; k < B; k++)
+				if (t[i+k] == EMPTY) {
+					t[i+k] = x;
+					return EMPTY;
+				}
+			for (int k = 0; k < B; k++)
+				if (t[j+k] == EMPTY) {
+					t[j+k] = x;
+					return EMPTY;
+				}
+			// kick a random key out of one of x's buckets...
+			int s = (rand.nextBoolean() ? i : j) + rand.nextInt(B);
+			int y = t[s];
+			t[s] = x;
+			x = y;
+			// ...and send it to its other bucket
+			i = bucket(h1, x);
+			if (i == s - s%B) i = bucket(h2, x);
+			j = i;
+		}
+		if (ns < STASH) {
+			stash[ns++] = x;
+			return EMPTY;
+		}
+		return x;
+	}
+
+	/**
+	 * Rebuild the table with 2^dd buckets and new hash functions,
+	 * including the key extra (unless it is EMPTY)
+	 */
+	protected void rehash(int dd, int extra) {
+		int[] a = new int[n+1];
+		int m = 0;
+		for (int y : t)
+			if (y != EMPTY) a[m++] = y;
+		for (int k = 0; k < ns; k++)
+			a[m++] = stash[k];
+		if (extra != EMPTY) a[m++] = extra;
+		for (int tries = 1; ; tries++) {
+			d = dd;
+			allocate();
+			int k = 0;
+			while (k < m && place(a[k]) == EMPTY) k++;
+			if (k == m) return;
+			if (tries % 4 == 0) dd++;
+		}
+	}
+
+	/**
+	 * Add x to the set
+	 * @param x
+	 * @return true if x was added, false if it was already present
+	 */
+	public boolean add(int x) {
+		if (contains(x)) return false;
+		if (x == EMPTY) {
+			hasEmpty = true;
+		} else {
+			if (10*(n+1) > 9*t.length) rehash(d+1, EMPTY); // max 90% occupancy
+			int y = place(x);
+			if (y != EMPTY) rehash(d, y);
+		}
+		n++;
+		return true;
+	}
+
+	/**
+	 * Remove x from the set
+	 * @param x
+	 * @return true if x was removed, false if it wasn't present
+	 */
+	public boolean remove(int x) {
+		if (x == EMPTY) {
+			if (!hasEmpty) return false;
+			hasEmpty = false;
+			n--;
+			return true;
+		}
+		int i = bucket(h1, x), j = bucket(h2, x), s = -1;
+		for (int k = 0; k < B; k++) {
+			if (t[i+k] == x) s = i+k;
+			if (t[j+k] == x) s = j+k;
+		}
+		if (s >= 0) {
+			t[s] = EMPTY;
+		} else {
+			int k = 0;
+			while (k < ns && stash[k] != x) k++;
+			if (k == ns) return false;
+			stash[k] = stash[--ns];
+		}
+		n--;
+		if (8*n < t.length && d > 1) rehash(d-1, EMPTY); // min 12.5% occupancy
+		return true;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public void clear() {
+		n = 0;
+		d = 1;
+		hasEmpty = false;
+		allocate();
+	}
+
+	/**
+	 * @return an iterator over the keys, which doesn't box them if used
+	 * through nextInt()
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+			// slots t.length,... are the stash, and t.length+ns is EMPTY
+			int i = skip(0);
+			int skip(int i) {
+				while (i < t.length && t[i] == EMPTY) i++;
+				if (i == t.length + ns && !hasEmpty) i++;
+				return i;
+			}
+			public boolean hasNext() {
+				return i <= t.length + ns;
+			}
+			public int nextInt() {
+				if (!hasNext()) throw new NoSuchElementException();
+				int x = i < t.length ? t[i] : i < t.length + ns ? stash[i-t.length] : EMPTY;
+				i = skip(i+1);
+				return x;
+			}
+		};
+	}
+
+	public String toString() {
+		StringBuffer sb = new StringBuffer("{");
+		PrimitiveIterator.OfInt it = iterator();
+		while (it.hasNext()) {
+			sb.append(it.nextInt());
+			if (it.hasNext()) sb.append(",");
+		}
+		return sb.append("}").toString();
+	}
+
+	/**
+	 * Check against a HashSet, then compare the latency of contains(x)
+	 * with IntLinearHashTable
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Random rand = new Random(1);
+		IntCuckooHashTable t = new IntCuckooHashTable(1);
+		Set<Integer> s = new HashSet<Integer>();
+		int n = 1000000;
+		for (int i = 0; i < 4*n; i++) {
+			int x = rand.nextInt(n) - 10;
+			boolean rs, rt;
+			if (i < n || rand.nextBoolean()) {
+				rs = s.add(x);
+				rt = t.add(x);
+			} else {
+				rs = s.remove(x);
+				rt = t.remove(x);
+			}
+			if (rs != rt)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != t.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		for (int i = 0; i < n; i++) {
+			int x = rand.nextInt(n) - 10;
+			if (s.contains(x) != t.contains(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		int count = 0;
+		for (PrimitiveIterator.OfInt it = t.iterator(); it.hasNext(); count++)
+			if (!s.contains(it.nextInt()))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		if (count != s.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		System.out.println("IntCuckooHashTable passed");
+
+		int[] a = new int[n];
+		for (int i = 0; i < n; i++)
+			a[i] = rand.nextInt(4*n);
+		for (int r = 0; r < 2; r++) {
+			IntCuckooHashTable ct = new IntCuckooHashTable();
+			IntLinearHashTable lt = new IntLinearHashTable();
+			for (int i = 0; i < n; i += 2) {
+				ct.add(a[i]);
+				lt.add(a[i]);
+			}
+			long[] clat = new long[n], llat = new long[n];
+			for (int i = 0; i < n; i++) {
+				long start = System.nanoTime();
+				ct.contains(a[i]);
+				long mid = System.nanoTime();
+				lt.contains(a[i]);
+				llat[i] = System.nanoTime() - mid;
+				clat[i] = mid - start;
+			}
+			System.out.println("IntCuckooHashTable contains(x): " + Testum.percentiles(clat));
+			System.out.println("IntLinearHashTable contains(x): " + Testum.percentiles(llat));
+		}
+	}
+}
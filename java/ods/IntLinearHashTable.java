@@ -0,0 +1,595 @@
+package ods;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A linear probing hash table of primitive ints.  This is the same data
+ * structure as LinearHashTable, but the keys are stored directly in an
+ * int[] array, so adding a key never allocates and probing never follows
+ * a pointer.  The hash function is the same tabulation hash, using
+ * LinearHashTable's tables.
+ *
+ * Instead of null and a del object, two bit patterns mark empty and
+ * deleted slots.  Those two values can still be stored: they live in two
+ * extra slots at the end of the array, outside of the probe sequence.
+ *
+ * The nested classes IntMap, LongMap and ObjectMap associate an int,
+ * long, or Object value with each key, kept in an array parallel to t,
+ * and Counter is a LongMap that counts copies of each key.
+ * @author morin
+ */
+public class IntLinearHashTable {
+
+	protected static final int w = 32;
+
+	/**
+	 * The key that marks an empty slot
+	 */
+	protected static final int EMPTY = 0;
+
+	/**
+	 * The key that marks a deleted slot
+	 */
+	protected static final int DEL = Integer.MIN_VALUE;
+
+	/**
+	 * The table.  Slots 0,...,2^d-1 are probed; slots 2^d and 2^d+1 are
+	 * reserved for the keys EMPTY and DEL
+	 */
+	int[] t;
+
+	int n;   // the size
+	int d;   // t.length = 2^d + 2
+	int q;   // number of non-empty slots among t[0],...,t[2^d-1]
+
+	/**
+	 * Whether the keys EMPTY and DEL are in the set
+	 */
+	boolean hasEmpty, hasDel;
+
+	/**
+	 * The hash function
+	 */
+	HashStrategy hs;
+
+	public IntLinearHashTable() {
+		this(new HashStrategy.Tabulation(LinearHashTable.tab));
+	}
+
+	public IntLinearHashTable(HashStrategy hs) {
+		this.hs = hs;
+		d = 1;
+		t = new int[(1<<d)+2];
+		allocValues(t.length);
+	}
+
+	/**
+	 * Hooks for subclasses that store values.  allocValues(m) creates a
+	 * new value array of length m, values() returns the current one, and
+	 * moveValue(old, k, i) copies entry k of the old value array into
+	 * entry i of the current one.
+	 */
+	protected void allocValues(int m) { }
+
+	protected Object values() {
+		return null;
+	}
+
+	protected void moveValue(Object old, int k, int i) { }
+
+	/**
+	 * Forget the value in slot i (so that it can be garbage collected)
+	 */
+	protected void clearValue(int i) { }
+
+	/**
+	 * Resize the table so that 2^d is at least 3n
+	 */
+	protected void resize() {
+		resize(n);
+	}
+
+	/**
+	 * Resize the table so that 2^d is at least 3m
+	 */
+	protected void resize(int mm) {
+		int[] told = t;
+		Object vold = values();
+		int m = 1<<d;
+		d = 1;
+		while ((1<<d) < 3*mm) d++;
+		t = new int[(1<<d)+2];
+		allocValues(t.length);
+		q = 0;
+		int mask = (1<<d)-1;
+		for (int k = 0; k < m; k++) {
+			int x = told[k];
+			if (x != EMPTY && x != DEL) {
+				int i = hash(x);
+				while (t[i] != EMPTY)
+					i = (i+1) & mask;
+				t[i] = x;
+				moveValue(vold, k, i);
+				q++;
+			}
+		}
+		moveValue(vold, m, 1<<d);
+		moveValue(vold, m+1, (1<<d)+1);
+	}
+
+	protected int hash(int x) {
+		return hs.hash(x) >>> (w-d);
+	}
+
+	/**
+	 * @return the index of the slot that holds x, or -1 if x is not in the
+	 * table
+	 */
+	protected int slot(int x) {
+		if (x == EMPTY) return hasEmpty ? 1<<d : -1;
+		if (x == DEL) return hasDel ? (1<<d)+1 : -1;
+		int mask = (1<<d)-1;
+		int i = hash(x), y;
+		while ((y = t[i]) != EMPTY) {
+			if (y == x) return i;
+			i = (i+1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Make sure x is in the table
+	 * @return the index of the slot that holds x if x was added, or -i-1
+	 * if x was already in slot i
+	 */
+	protected int insert(int x) {
+		if (x == EMPTY || x == DEL) {
+			int i = x == EMPTY ? 1<<d : (1<<d)+1;
+			if (x == EMPTY ? hasEmpty : hasDel) return -i-1;
+			if (x == EMPTY) hasEmpty = true; else hasDel = true;
+			n++;
+			return i;
+		}
+		if (2*(q+1) > 1<<d) resize(); // max 50% occupancy
+		int mask = (1<<d)-1;
+		int i = hash(x), j = -1, y;
+		while ((y = t[i]) != EMPTY) {
+			if (y == x) return -i-1;
+			if (y == DEL && j < 0) j = i;
+			i = (i+1) & mask;
+		}
+		if (j < 0) {
+			j = i;
+			q++;
+		}
+		t[j] = x;
+		n++;
+		return j;
+	}
+
+	/**
+	 * Add x to the set
+	 * @param x
+	 * @return true if x was added, false if it was already present
+	 */
+	public boolean add(int x) {
+		return insert(x) >= 0;
+	}
+
+	/**
+	 * @param x
+	 * @return true if x is in the set
+	 */
+	public boolean contains(int x) {
+		return slot(x) >= 0;
+	}
+
+	/**
+	 * Remove x from the set
+	 * @param x
+	 * @return true if x was removed, false if it wasn't present
+	 */
+	public boolean remove(int x) {
+		if (!delete(x)) return false;
+		if (8*n < 1<<d) resize(); // min 12.5% occupancy
+		return true;
+	}
+
+	/**
+	 * Remove x without ever shrinking the table
+	 * @return true if x was removed, false if it wasn't present
+	 */
+	protected boolean delete(int x) {
+		int i = slot(x);
+		if (i < 0) return false;
+		if (x == EMPTY)
+			hasEmpty = false;
+		else if (x == DEL)
+			hasDel = false;
+		else
+			t[i] = DEL;
+		clearValue(i);
+		n--;
+		return true;
+	}
+
+	/**
+	 * Add all the keys in a, in order of their hash values, after growing
+	 * the table (at most once) to fit them
+	 * @return true if any key was added
+	 */
+	public boolean addAll(int[] a) {
+		if (2*(q+a.length) > 1<<d) resize(n+a.length);
+		boolean changed = false;
+		for (int i : Algorithms.parallelRadixOrder(a.length, k -> hash(a[k])))
+			changed |= insert(a[i]) >= 0;
+		return changed;
+	}
+
+	/**
+	 * Remove all the keys in a, in order of their hash values, and then
+	 * resize at most once
+	 * @return true if any key was removed
+	 */
+	public boolean removeAll(int[] a) {
+		boolean changed = false;
+		for (int i : Algorithms.parallelRadixOrder(a.length, k -> hash(a[k])))
+			changed |= delete(a[i]);
+		if (8*n < 1<<d) resize(); // min 12.5% occupancy
+		return changed;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public void clear() {
+		n = 0;
+		q = 0;
+		d = 1;
+		hasEmpty = hasDel = false;
+		t = new int[(1<<d)+2];
+		allocValues(t.length);
+	}
+
+	/**
+	 * @return the first slot at index i or later that holds a key, or
+	 * t.length if there isn't one
+	 */
+	protected int nextSlot(int i) {
+		int m = 1<<d;
+		while (i < m && (t[i] == EMPTY || t[i] == DEL)) i++;
+		if (i == m && !hasEmpty) i++;
+		if (i == m+1 && !hasDel) i++;
+		return i;
+	}
+
+	/**
+	 * @return an iterator over the keys, which doesn't box them if used
+	 * through nextInt()
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+			int i = nextSlot(0);
+			public boolean hasNext() {
+				return i < t.length;
+			}
+			public int nextInt() {
+				if (i >= t.length) throw new NoSuchElementException();
+				int x = t[i];
+				if (i == 1<<d) x = EMPTY;
+				if (i == (1<<d)+1) x = DEL;
+				i = nextSlot(i+1);
+				return x;
+			}
+		};
+	}
+
+	public String toString() {
+		StringBuffer sb = new StringBuffer("{");
+		PrimitiveIterator.OfInt it = iterator();
+		while (it.hasNext()) {
+			sb.append(it.nextInt());
+			if (it.hasNext()) sb.append(",");
+		}
+		return sb.append("}").toString();
+	}
+
+	/**
+	 * An IntLinearHashTable that maps each key to an int
+	 */
+	public static class IntMap extends IntLinearHashTable {
+		int[] v;
+
+		public IntMap() { }
+
+		public IntMap(HashStrategy hs) {
+			super(hs);
+		}
+
+		protected void allocValues(int m) {
+			v = new int[m];
+		}
+
+		protected Object values() {
+			return v;
+		}
+
+		protected void moveValue(Object old, int k, int i) {
+			v[i] = ((int[])old)[k];
+		}
+
+		/**
+		 * @return the value associated with x, or none if there isn't one
+		 */
+		public int get(int x, int none) {
+			int i = slot(x);
+			return i < 0 ? none : v[i];
+		}
+
+		/**
+		 * Associate the value y with x
+		 * @return the value previously associated with x, or none
+		 */
+		public int put(int x, int y, int none) {
+			int i = insert(x);
+			int old = i < 0 ? v[i = -(i+1)] : none;
+			v[i] = y;
+			return old;
+		}
+	}
+
+	/**
+	 * An IntLinearHashTable that maps each key to a long
+	 */
+	public static class LongMap extends IntLinearHashTable {
+		long[] v;
+
+		public LongMap() { }
+
+		public LongMap(HashStrategy hs) {
+			super(hs);
+		}
+
+		protected void allocValues(int m) {
+			v = new long[m];
+		}
+
+		protected Object values() {
+			return v;
+		}
+
+		protected void moveValue(Object old, int k, int i) {
+			v[i] = ((long[])old)[k];
+		}
+
+		/**
+		 * @return the value associated with x, or none if there isn't one
+		 */
+		public long get(int x, long none) {
+			int i = slot(x);
+			return i < 0 ? none : v[i];
+		}
+
+		/**
+		 * Associate the value y with x
+		 * @return the value previously associated with x, or none
+		 */
+		public long put(int x, long y, long none) {
+			int i = insert(x);
+			long old = i < 0 ? v[i = -(i+1)] : none;
+			v[i] = y;
+			return old;
+		}
+	}
+
+	/**
+	 * A multiset of ints that keeps one slot per distinct key, along
+	 * with the number of copies of that key.  Changing the count of a key
+	 * that is already present doesn't allocate anything.
+	 */
+	public static class Counter extends LongMap {
+		public Counter() { }
+
+		public Counter(HashStrategy hs) {
+			super(hs);
+		}
+
+		/**
+		 * @return the number of copies of x
+		 */
+		public long count(int x) {
+			int i = slot(x);
+			return i < 0 ? 0 : v[i];
+		}
+
+		/**
+		 * Add delta copies of x (or remove -delta copies if delta is
+		 * negative); x is removed once its count drops to 0 or less
+		 * @return the new count of x
+		 */
+		public long addCount(int x, long delta) {
+			int i;
+			if (delta <= 0) {
+				if ((i = slot(x)) < 0) return 0;
+			} else if ((i = insert(x)) >= 0) {
+				return v[i] = delta;
+			} else {
+				i = -(i+1);
+			}
+			long c = v[i] += delta;
+			if (c <= 0) {
+				remove(x);
+				return 0;
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * An IntLinearHashTable that maps each key to an object
+	 */
+	public static class ObjectMap<V> extends IntLinearHashTable {
+		Object[] v;
+
+		public ObjectMap() { }
+
+		public ObjectMap(HashStrategy hs) {
+			super(hs);
+		}
+
+		protected void allocValues(int m) {
+			v = new Object[m];
+		}
+
+		protected Object values() {
+			return v;
+		}
+
+		protected void moveValue(Object old, int k, int i) {
+			v[i] = ((Object[])old)[k];
+		}
+
+		protected void clearValue(int i) {
+			v[i] = null;
+		}
+
+		/**
+		 * @return the value associated with x, or null if there isn't one
+		 */
+		@SuppressWarnings("unchecked")
+		public V get(int x) {
+			int i = slot(x);
+			return i < 0 ? null : (V)v[i];
+		}
+
+		/**
+		 * Associate the value y with x
+		 * @return the value previously associated with x, or null
+		 */
+		@SuppressWarnings("unchecked")
+		public V put(int x, V y) {
+			int i = insert(x);
+			V old = i < 0 ? (V)v[i = -(i+1)] : null;
+			v[i] = y;
+			return old;
+		}
+	}
+
+	/**
+	 * Compare against HashSet and HashMap, then time against a
+	 * LinearHashTable<Integer>
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Random rand = new Random(1);
+		int n = 1000000;
+		IntLinearHashTable lht = new IntLinearHashTable();
+		IntMap im = new IntMap();
+		ObjectMap<String> om = new ObjectMap<String>();
+		Set<Integer> s = new HashSet<Integer>();
+		Map<Integer,Integer> m = new HashMap<Integer,Integer>();
+		for (int i = 0; i < 3*n; i++) {
+			// include the two reserved bit patterns now and then
+			int x = rand.nextInt(20) == 0 ? (rand.nextBoolean() ? EMPTY : DEL)
+					: rand.nextInt(n) - n/2;
+			boolean rs, rlht;
+			if (i < n || rand.nextBoolean()) {
+				rs = s.add(x);
+				rlht = lht.add(x);
+				Integer old = m.put(x, i);
+				if (im.put(x, i, -1) != (old == null ? -1 : old))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+				if (!Utils.equals(om.put(x, "" + i), old == null ? null : "" + old))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			} else {
+				rs = s.remove(x);
+				rlht = lht.remove(x);
+				m.remove(x);
+				im.remove(x);
+				om.remove(x);
+			}
+			if (rs != rlht)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != lht.size() || m.size() != im.size()
+					|| m.size() != om.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		for (int i = 0; i < n; i++) {
+			int x = rand.nextInt(n) - n/2;
+			if (s.contains(x) != lht.contains(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			Integer y = m.get(x);
+			if (im.get(x, -1) != (y == null ? -1 : y)
+					|| !Utils.equals(om.get(x), y == null ? null : "" + y))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		PrimitiveIterator.OfInt it = lht.iterator();
+		int k = 0;
+		while (it.hasNext()) {
+			if (!s.contains(it.nextInt()))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			k++;
+		}
+		if (k != s.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		for (int i = 0; i < 10; i++) {
+			int[] b = new int[rand.nextInt(n)];
+			for (int j = 0; j < b.length; j++)
+				b[j] = rand.nextInt(n) - n/2;
+			boolean rs = false, rlht;
+			if (rand.nextBoolean()) {
+				for (int x : b) rs |= s.add(x);
+				rlht = lht.addAll(b);
+			} else {
+				for (int x : b) rs |= s.remove(x);
+				rlht = lht.removeAll(b);
+			}
+			if (rs != rlht || s.size() != lht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			for (int x : b)
+				if (s.contains(x) != lht.contains(x))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		System.out.println("IntLinearHashTable passed");
+
+		long start, stop;
+		int[] a = new int[n];
+		for (int i = 0; i < n; i++)
+			a[i] = rand.nextInt(2*n);
+		lht.clear();
+		LinearHashTable<Integer> lht2 = new LinearHashTable<Integer>(-1);
+		start = System.nanoTime();
+		for (int x : a) lht.add(x);
+		for (int x : a) lht.contains(x);
+		for (int x : a) lht.remove(x);
+		stop = System.nanoTime();
+		System.out.println("IntLinearHashTable: " + n + " adds, finds, and removes in "
+				+ (stop-start)*1e-9 + "s");
+		start = System.nanoTime();
+		for (int x : a) lht2.add(x);
+		for (int x : a) lht2.find(x);
+		for (int x : a) lht2.remove(x);
+		stop = System.nanoTime();
+		System.out.println("LinearHashTable<Integer>: " + n + " adds, finds, and removes in "
+				+ (stop-start)*1e-9 + "s");
+		for (int r = 0; r < 2; r++) {
+			lht.clear();
+			start = System.nanoTime();
+			for (int x : a) lht.add(x);
+			stop = System.nanoTime();
+			System.out.println("add(x) " + n + " times: " + (stop-start)*1e-9 + "s");
+			lht.clear();
+			start = System.nanoTime();
+			lht.addAll(a);
+			stop = System.nanoTime();
+			System.out.println("addAll(" + n + " keys): " + (stop-start)*1e-9 + "s");
+		}
+	}
+}
@@ -1,12 +1,19 @@
 package ods;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 /**
  * An implementation of linear probing.  The hash method used is tabulation hashing.
+ *
+ * For a version that shifts elements back instead of leaving del markers,
+ * that resizes incrementally, and that can use any HashStrategy, see
+ * IncrementalLinearHashTable.
  * @author morin
  *
  * @param <T>
@@ -151,6 +158,68 @@ public class LinearHashTable<T> implements USet<T> {
 		return null;
 	}
 
+	/**
+	 * Make sure that m more elements can be added without a resize,
+	 * growing the table at most once
+	 */
+	protected void reserve(int m) {
+		if (2*(q+m) <= t.length) return;
+		T[] told = t;
+		d = 1;
+		while ((1<<d) < 3*(n+m)) d++;
+		t = f.newArray(1<<d);
+		q = n;
+		for (int k = 0; k < told.length; k++) {
+			if (told[k] != null && told[k] != del) {
+				int i = hash(told[k]);
+				while (t[i] != null)
+					i = (i == t.length-1) ? 0 : i + 1;
+				t[i] = told[k];
+			}
+		}
+	}
+
+	/**
+	 * Add all the elements of c, in order of their hash values, after
+	 * reserving room for all of them
+	 * @return true if any element was added
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean addAll(Collection<? extends T> c) {
+		reserve(c.size());
+		Object[] a = c.toArray();
+		boolean changed = false;
+		for (int i : Algorithms.parallelRadixOrder(a.length, k -> hash((T)a[k])))
+			changed |= add2((T)a[i]);
+		return changed;
+	}
+
+	/**
+	 * Remove all the elements of c, in order of their hash values, and
+	 * then resize at most once
+	 * @return true if any element was removed
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean removeAll(Collection<?> c) {
+		Object[] a = c.toArray();
+		boolean changed = false;
+		for (int k : Algorithms.parallelRadixOrder(a.length,
+				i -> hash((T)a[i]))) {
+			Object x = a[k];
+			for (int i = hash((T)x); t[i] != null; 
+					i = (i == t.length-1) ? 0 : i + 1) {
+				if (t[i] != del && x.equals(t[i])) {
+					t[i] = del;
+					n--;
+					changed = true;
+					break;
+				}
+			}
+		}
+		if (8*n < t.length) resize(); // min 12.5% occupancy
+		return changed;
+	}
+
 	public int size() {
 		return n;
 	}
@@ -231,6 +300,48 @@ public class LinearHashTable<T> implements USet<T> {
 		}
 		s.clear();
 		lht.clear();
+
+		LinearHashTable<Integer> t = new LinearHashTable<Integer>(-1);
+		System.out.println("Adding and removing in bulk");
+		for (int i = 0; i < 10; i++) {
+			List<Integer> l = new ArrayList<Integer>();
+			for (int j = rand.nextInt(n); j > 0; j--)
+				l.add(rand.nextInt(2*n));
+			boolean rs = false, rt;
+			if (rand.nextBoolean()) {
+				rs = s.addAll(l);
+				rt = t.addAll(l);
+			} else {
+				for (Integer x : l) rs |= s.remove(x);  // not s.removeAll(l)
+				rt = t.removeAll(l);
+			}
+			if (rs != rt)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (t.size() != s.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+			for (int j = 0; j < 1000; j++) {
+				Integer x = rand.nextInt(2*n);
+				if (s.contains(x) != (t.find(x) != null))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			}
+		}
+		List<Integer> l = new ArrayList<Integer>();
+		for (int i = 0; i < 10*n; i++)
+			l.add(rand.nextInt());
+		for (int r = 0; r < 2; r++) {
+			long start = System.nanoTime();
+			t = new LinearHashTable<Integer>(-1);
+			for (Integer x : l) t.add(x);
+			long stop = System.nanoTime();
+			System.out.println("add(x) " + l.size() + " times: "
+					+ (stop-start)*1e-9 + "s");
+			start = System.nanoTime();
+			t = new LinearHashTable<Integer>(-1);
+			t.addAll(l);
+			stop = System.nanoTime();
+			System.out.println("addAll(" + l.size() + " elements): "
+					+ (stop-start)*1e-9 + "s");
+		}
 	}
 	
 	/**
@@ -0,0 +1,665 @@
+package ods;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A B-tree that stores primitive longs.  This is the same data structure
+ * as BTree, except that each node keeps its keys in a packed long[] array
+ * along with a count of how many there are, so searching a node never
+ * follows a pointer and adding an element never allocates a Long.
+ *
+ * The primitive methods (add(long), remove(long), contains(long),
+ * findGE(long,long), findLT(long,long)) are the fast ones.  The SSet<Long>
+ * methods are there so that an LongBTree can be used wherever an SSet is.
+ * @author morin
+ */
+public class LongBTree implements SSet<Long> {
+
+	/**
+	 * The maximum number of children of a node (an odd number)
+	 */
+	int b;
+
+	/**
+	 * b div 2
+	 */
+	int B;
+
+	/**
+	 * Number of elements stored in the tree
+	 */
+	int n;
+
+	/**
+	 * The block storage mechanism
+	 */
+	BlockStore<Node> bs;
+
+	/**
+	 * The index of the root node
+	 */
+	int ri;
+
+	/**
+	 * Find the index, i, at which x should be inserted into the sorted
+	 * array a[0],...,a[k-1].  The search has no data-dependent branches:
+	 * the comparison only decides how far to move, which the JIT turns
+	 * into a conditional move.
+	 *
+	 * @param a the sorted array
+	 * @param k the number of values in a
+	 * @param x the value to search for
+	 * @return i or -i-1 if a[i] equals x
+	 */
+	protected static int findIt(long[] a, int k, long x) {
+		if (k == 0) return 0;
+		int lo = 0;
+		for (int len = k; len > 1; len -= len/2)
+			lo = a[lo + len/2 - 1] < x ? lo + len/2 : lo;
+		if (a[lo] < x) lo++;
+		return lo < k && a[lo] == x ? -lo-1 : lo;
+	}
+
+	/**
+	 * A node in a B-tree which has an array of up to b keys and up to b+1
+	 * children
+	 */
+	protected class Node {
+		/**
+		 * This block's index
+		 */
+		int id;
+
+		/**
+		 * The number of keys stored in this block
+		 */
+		int count;
+
+		/**
+		 * The keys stored in this block
+		 */
+		long[] keys;
+
+		/**
+		 * The indices of the children of this block (if any)
+		 */
+		int[] children;
+
+		public Node() {
+			keys = new long[b];
+			children = new int[b+1];
+			Arrays.fill(children, -1);
+			id = bs.placeBlock(this);
+		}
+
+		public boolean isLeaf() {
+			return children[0] < 0;
+		}
+
+		public boolean isFull() {
+			return count == b;
+		}
+
+		public int size() {
+			return count;
+		}
+
+		/**
+		 * Add the value x to this block
+		 *
+		 * @param x the value to add
+		 * @param ci the index of the child associated with x
+		 * @return true on success or false if x was not added
+		 */
+		public boolean add(long x, int ci) {
+			int i = findIt(keys, count, x);
+			if (i < 0) return false;
+			System.arraycopy(keys, i, keys, i+1, count-i);
+			keys[i] = x;
+			System.arraycopy(children, i+1, children, i+2, count-i);
+			children[i+1] = ci;
+			count++;
+			return true;
+		}
+
+		/**
+		 * Remove the i'th value from this block - don't affect this block's
+		 * children
+		 *
+		 * @param i the index of the element to remove
+		 * @return the value of the element removed
+		 */
+		public long remove(int i) {
+			long y = keys[i];
+			System.arraycopy(keys, i+1, keys, i, count-i-1);
+			count--;
+			return y;
+		}
+
+		/**
+		 * Split this node into two nodes
+		 *
+		 * @return the newly created block, which has the larger keys
+		 */
+		protected Node split() {
+			Node w = new Node();
+			int j = count/2;
+			System.arraycopy(keys, j, w.keys, 0, count-j);
+			System.arraycopy(children, j+1, w.children, 0, count-j);
+			Arrays.fill(children, j+1, count+1, -1);
+			w.count = count-j;
+			count = j;
+			bs.writeBlock(id, this);
+			return w;
+		}
+
+		public String toString() {
+			StringBuffer sb = new StringBuffer();
+			sb.append("[");
+			for (int i = 0; i < count; i++) {
+				sb.append("(" + (children[i] < 0 ? "." : children[i]) + ")");
+				sb.append(keys[i]);
+			}
+			sb.append("(" + (children[count] < 0 ? "." : children[count]) + ")]");
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Construct an empty LongBTree
+	 * @param b the block size
+	 */
+	public LongBTree(int b) {
+		b += 1 - (b % 2);
+		this.b = b;
+		B = b/2;
+		bs = new BlockStore<Node>();
+		ri = new Node().id;
+		n = 0;
+	}
+
+	/**
+	 * Add x to the tree
+	 * @param x
+	 * @return true if x was added, false if it was already present
+	 */
+	public boolean add(long x) {
+		Node w = addRecursive(x, ri);
+		if (duplicate) {
+			duplicate = false;
+			return false;
+		}
+		if (w != null) {   // root was split, make new root
+			Node newroot = new Node();
+			long y = w.remove(0);
+			bs.writeBlock(w.id, w);
+			newroot.children[0] = ri;
+			newroot.keys[0] = y;
+			newroot.children[1] = w.id;
+			newroot.count = 1;
+			ri = newroot.id;
+			bs.writeBlock(ri, newroot);
+		}
+		n++;
+		return true;
+	}
+
+	/**
+	 * Set by addRecursive when the value being added is already present.
+	 * (BTree throws a DuplicateValueException instead, but that's too
+	 * expensive here.)
+	 */
+	protected boolean duplicate;
+
+	/**
+	 * Add the value x in the subtree rooted at the node with index ui
+	 *
+	 * @param x the element to add
+	 * @param ui the index of the node, u, at which to add x
+	 * @return a new node that was created when u was split, or null if u
+	 *         was not split
+	 */
+	protected Node addRecursive(long x, int ui) {
+		Node u = bs.readBlock(ui);
+		int i = findIt(u.keys, u.count, x);
+		if (i < 0) {
+			duplicate = true;
+			return null;
+		}
+		if (u.children[i] < 0) { // leaf node, just add it
+			u.add(x, -1);
+			bs.writeBlock(u.id, u);
+		} else {
+			Node w = addRecursive(x, u.children[i]);
+			if (w != null) {  // child was split, w is new child
+				long y = w.remove(0);
+				bs.writeBlock(w.id, w);
+				u.add(y, w.id);
+				bs.writeBlock(u.id, u);
+			}
+		}
+		return u.isFull() ? u.split() : null;
+	}
+
+	/**
+	 * Remove x from the tree
+	 * @param x
+	 * @return true if x was removed, false if it wasn't present
+	 */
+	public boolean remove(long x) {
+		if (removeRecursive(x, ri)) {
+			n--;
+			Node r = bs.readBlock(ri);
+			if (r.size() == 0 && n > 0) { // root has only one child
+				ri = r.children[0];
+				bs.freeBlock(r.id);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove the value x from the subtree rooted at the node with index ui
+	 *
+	 * @param x the value to remove
+	 * @param ui the index of the subtree to remove x from
+	 * @return true if x was removed and false otherwise
+	 */
+	protected boolean removeRecursive(long x, int ui) {
+		if (ui < 0) return false;  // didn't find it
+		Node u = bs.readBlock(ui);
+		int i = findIt(u.keys, u.count, x);
+		if (i < 0) { // found it
+			i = -(i+1);
+			if (u.isLeaf()) {
+				u.remove(i);
+			} else {
+				u.keys[i] = removeSmallest(u.children[i+1]);
+				checkUnderflow(u, i+1);
+			}
+			bs.writeBlock(u.id, u);
+			return true;
+		} else if (removeRecursive(x, u.children[i])) {
+			checkUnderflow(u, i);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove the smallest value in the subtree rooted at the node with
+	 * index ui
+	 *
+	 * @param ui the index of a subtree
+	 * @return the value that was removed
+	 */
+	protected long removeSmallest(int ui) {
+		Node u = bs.readBlock(ui);
+		if (u.isLeaf()) {
+			long y = u.remove(0);
+			bs.writeBlock(u.id, u);
+			return y;
+		}
+		long y = removeSmallest(u.children[0]);
+		checkUnderflow(u, 0);
+		return y;
+	}
+
+	/**
+	 * Check if an underflow has occurred in the i'th child of u and, if so,
+	 * fix it by borrowing from or merging with a sibling
+	 */
+	protected void checkUnderflow(Node u, int i) {
+		if (u.children[i] < 0) return;
+		if (i == 0)
+			checkUnderflowZero(u, i); // use u's right sibling
+		else
+			checkUnderflowNonZero(u, i);
+	}
+
+	/**
+	 * Merge w, the (i+1)'th child of u, into v, the i'th child of u
+	 */
+	protected void merge(Node u, int i, Node v, Node w) {
+		Utils.myassert(v.id == u.children[i]);
+		Utils.myassert(w.id == u.children[i+1]);
+		int sv = v.size();
+		int sw = w.size();
+		// copy keys from w to v
+		System.arraycopy(w.keys, 0, v.keys, sv+1, sw);
+		System.arraycopy(w.children, 0, v.children, sv+1, sw+1);
+		// add key to v and remove it from u
+		v.keys[sv] = u.keys[i];
+		v.count = sv+1+sw;
+		System.arraycopy(u.keys, i+1, u.keys, i, u.count-i-1);
+		System.arraycopy(u.children, i+2, u.children, i+1, u.count-i-1);
+		u.children[u.count] = -1;
+		u.count--;
+	}
+
+	protected void checkUnderflowNonZero(Node u, int i) {
+		Node w = bs.readBlock(u.children[i]);  // w is child of u
+		if (w.size() < B-1) {  // underflow at w
+			Node v = bs.readBlock(u.children[i-1]); // v left of w
+			if (v.size() > B) {  // w can borrow from v
+				shiftLR(u, i-1, v, w);
+				bs.writeBlock(w.id, w);
+			} else { // v will absorb w
+				merge(u, i-1, v, w);
+				bs.freeBlock(w.id);
+			}
+			bs.writeBlock(v.id, v);
+			bs.writeBlock(u.id, u);
+		}
+	}
+
+	/**
+	 * Shift keys from v into w
+	 *
+	 * @param u the parent of v and w
+	 * @param i the index v in u.children
+	 * @param v the left sibling of w
+	 * @param w the right sibling of v
+	 */
+	protected void shiftLR(Node u, int i, Node v, Node w) {
+		int sw = w.size();
+		int sv = v.size();
+		int shift = ((sw+sv)/2) - sw;  // num. keys to shift from v to w
+		// make space for new keys in w
+		System.arraycopy(w.keys, 0, w.keys, shift, sw);
+		System.arraycopy(w.children, 0, w.children, shift, sw+1);
+		// move keys and children out of v and into w (and u)
+		w.keys[shift-1] = u.keys[i];
+		u.keys[i] = v.keys[sv-shift];
+		System.arraycopy(v.keys, sv-shift+1, w.keys, 0, shift-1);
+		System.arraycopy(v.children, sv-shift+1, w.children, 0, shift);
+		Arrays.fill(v.children, sv-shift+1, sv+1, -1);
+		v.count = sv-shift;
+		w.count = sw+shift;
+	}
+
+	protected void checkUnderflowZero(Node u, int i) {
+		Node w = bs.readBlock(u.children[i]); // w is child of u
+		if (w.size() < B-1) {  // underflow at w
+			Node v = bs.readBlock(u.children[i+1]); // v right of w
+			if (v.size() > B) { // w can borrow from v
+				shiftRL(u, i, v, w);
+				bs.writeBlock(v.id, v);
+			} else { // w will absorb v
+				merge(u, i, w, v);
+				bs.freeBlock(v.id);
+			}
+			bs.writeBlock(w.id, w);
+			bs.writeBlock(u.id, u);
+		}
+	}
+
+	/**
+	 * Shift keys from node v into node w
+	 * @param u the parent of v and w
+	 * @param i the index w in u.children
+	 * @param v the right sibling of w
+	 * @param w the left sibling of v
+	 */
+	protected void shiftRL(Node u, int i, Node v, Node w) {
+		int sw = w.size();
+		int sv = v.size();
+		int shift = ((sw+sv)/2) - sw;  // num. keys to shift from v to w
+		// shift keys and children from v to w
+		w.keys[sw] = u.keys[i];
+		System.arraycopy(v.keys, 0, w.keys, sw+1, shift-1);
+		System.arraycopy(v.children, 0, w.children, sw+1, shift);
+		u.keys[i] = v.keys[shift-1];
+		// delete keys and children from v
+		System.arraycopy(v.keys, shift, v.keys, 0, sv-shift);
+		System.arraycopy(v.children, shift, v.children, 0, sv-shift+1);
+		Arrays.fill(v.children, sv-shift+1, sv+1, -1);
+		v.count = sv-shift;
+		w.count = sw+shift;
+	}
+
+	public void clear() {
+		n = 0;
+		bs.clear();
+		ri = new Node().id;
+	}
+
+	/**
+	 * @param x
+	 * @return true if x is in the tree
+	 */
+	public boolean contains(long x) {
+		int ui = ri;
+		while (ui >= 0) {
+			Node u = bs.readBlock(ui);
+			int i = findIt(u.keys, u.count, x);
+			if (i < 0) return true;
+			ui = u.children[i];
+		}
+		return false;
+	}
+
+	/**
+	 * Find the smallest element that is greater than or equal to x
+	 * @param x
+	 * @param none the value to return if there is no such element
+	 * @return the smallest element greater than or equal to x, or none
+	 */
+	public long findGE(long x, long none) {
+		long z = none;
+		int ui = ri;
+		while (ui >= 0) {
+			Node u = bs.readBlock(ui);
+			int i = findIt(u.keys, u.count, x);
+			if (i < 0) return u.keys[-(i+1)]; // found it
+			if (i < u.count)
+				z = u.keys[i];
+			ui = u.children[i];
+		}
+		return z;
+	}
+
+	/**
+	 * Find the largest element that is less than x
+	 * @param x
+	 * @param none the value to return if there is no such element
+	 * @return the largest element less than x, or none
+	 */
+	public long findLT(long x, long none) {
+		long z = none;
+		int ui = ri;
+		while (ui >= 0) {
+			Node u = bs.readBlock(ui);
+			int i = findIt(u.keys, u.count, x);
+			if (i < 0) i = -(i+1);
+			if (i > 0)
+				z = u.keys[i-1];
+			ui = u.children[i];
+		}
+		return z;
+	}
+
+	/**
+	 * @return the smallest element in the tree (the tree must not be empty)
+	 */
+	protected long min() {
+		Node u = bs.readBlock(ri);
+		while (!u.isLeaf())
+			u = bs.readBlock(u.children[0]);
+		return u.keys[0];
+	}
+
+	/**
+	 * @return the largest element in the tree (the tree must not be empty)
+	 */
+	protected long max() {
+		Node u = bs.readBlock(ri);
+		while (!u.isLeaf())
+			u = bs.readBlock(u.children[u.count]);
+		return u.keys[u.count-1];
+	}
+
+	public boolean add(Long x) {
+		return add(x.longValue());
+	}
+
+	public boolean remove(Long x) {
+		return remove(x.longValue());
+	}
+
+	public Long find(Long x) {
+		return findGE(x);
+	}
+
+	public Long findGE(Long x) {
+		if (n == 0) return null;
+		if (x == null) return min();
+		long m = max();
+		return x > m ? null : findGE(x, m);
+	}
+
+	public Long findLT(Long x) {
+		if (n == 0) return null;
+		if (x == null) return max();
+		long m = min();
+		return x <= m ? null : findLT(x, m);
+	}
+
+	public Comparator<? super Long> comparator() {
+		return new DefaultComparator<Long>();
+	}
+
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * An iterator that keeps its stack of nodes and positions in
+	 * arrays (a B-tree is never deeper than 32 levels)
+	 */
+	protected class LBTIterator implements Iterator<Long> {
+		protected Node[] nstack;
+		protected int[] istack;
+		protected int top;
+
+		@SuppressWarnings("unchecked")
+		protected LBTIterator() {
+			nstack = (Node[])java.lang.reflect.Array.newInstance(Node.class, 32);
+			istack = new int[32];
+			top = -1;
+		}
+
+		public LBTIterator(boolean fromStart, long x) {
+			this();
+			if (n == 0) return;
+			int ui = ri;
+			Node u;
+			int i;
+			do {
+				u = bs.readBlock(ui);
+				i = fromStart ? 0 : findIt(u.keys, u.count, x);
+				nstack[++top] = u;
+				if (i < 0) {
+					istack[top] = -(i+1);
+					return;
+				}
+				istack[top] = i;
+				ui = u.children[i];
+			} while (ui >= 0);
+			if (i == u.count)
+				advance();
+		}
+
+		public boolean hasNext() {
+			return top >= 0;
+		}
+
+		/**
+		 * @return the next element, without boxing it
+		 */
+		public long nextLong() {
+			if (top < 0) throw new NoSuchElementException();
+			long y = nstack[top].keys[istack[top]++];
+			advance();
+			return y;
+		}
+
+		public Long next() {
+			return nextLong();
+		}
+
+		protected void advance() {
+			Node u = nstack[top];
+			int i = istack[top];
+			if (u.isLeaf()) { // this is a leaf, walk up
+				while (top >= 0 && istack[top] == nstack[top].count)
+					top--;
+			} else { // this is an internal node, walk down
+				int ui = u.children[i];
+				do {
+					u = bs.readBlock(ui);
+					nstack[++top] = u;
+					istack[top] = 0;
+					ui = u.children[0];
+				} while (ui >= 0);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public Iterator<Long> iterator(Long x) {
+		return x == null ? iterator() : new LBTIterator(false, x);
+	}
+
+	public Iterator<Long> iterator() {
+		return new LBTIterator(true, 0);
+	}
+
+	public String toString() {
+		return Utils.collectionToString(this);
+	}
+
+	/**
+	 * Compare against a TreeSet
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int b = 31, n = 100000;
+		java.util.Random rand = new java.util.Random(0);
+		for (int bb : new int[] {4, 5, 8, b}) {
+			LongBTree t = new LongBTree(bb);
+			java.util.SortedSet<Long> ss = new java.util.TreeSet<Long>();
+			for (int i = 0; i < 3*n; i++) {
+				long x = rand.nextInt(2*n);
+				if (i < n || rand.nextBoolean())
+					Utils.myassert(t.add(x) == ss.add(x));
+				else
+					Utils.myassert(t.remove(x) == ss.remove(x));
+			}
+			Utils.myassert(t.size() == ss.size());
+			for (int i = 0; i < n; i++) {
+				long x = rand.nextInt(2*n+2)-1;
+				Utils.myassert(t.contains(x) == ss.contains(x));
+				Utils.myassert(Utils.equals(t.findGE((Long)x), Utils.findGE(ss, x)));
+				Utils.myassert(Utils.equals(t.findLT((Long)x), Utils.findLT(ss, x)));
+			}
+			Iterator<Long> it = ss.iterator();
+			for (Long x : t)
+				Utils.myassert(x.equals(it.next()));
+			Utils.myassert(!it.hasNext());
+			it = ss.tailSet((long)n).iterator();
+			Iterator<Long> it2 = t.iterator((long)n);
+			while (it.hasNext())
+				Utils.myassert(it.next().equals(it2.next()));
+			Utils.myassert(!it2.hasNext());
+		}
+		System.out.println("LongBTree passed");
+	}
+}
@@ -1,51 +1,449 @@
 package ods;
 
 import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
 
-class Pair<V> {
-	public Object key;
-	public V value;
-	public Pair(Object ikey, V ivalue) {
-		key = ikey;
-		value = ivalue;
+/**
+ * A Map implemented with linear probing and multiplicative hashing (or
+ * any other HashStrategy given to the constructor).  Keys
+ * and values are kept in two parallel arrays, k and v, so get(key) and
+ * put(key, value) don't create any objects.  Deletion shifts later
+ * entries back (as in IncrementalLinearHashTable) rather than leaving
+ * markers.
+ *
+ * The nested class ObjectLongMap stores primitive long values.  For
+ * primitive keys, see IntLinearHashTable.IntMap (int to int) and
+ * LongLinearHashTable.ObjectMap (long to Object).
+ * @author morin
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class MultiplicativeHashMap<K,V> extends AbstractMap<K,V> {
+
+	protected static final int w = 32;
+
+	/**
+	 * Stored in k in place of the key null
+	 */
+	protected static final Object NULL = new Object();
+
+	/**
+	 * The keys; k[i] == null means slot i is empty
+	 */
+	Object[] k;
+
+	/**
+	 * The values; v[i] is the value associated with k[i]
+	 */
+	Object[] v;
+
+	int n;   // the size
+	int d;   // k.length = 2^d
+
+	/**
+	 * The hash function
+	 */
+	HashStrategy hs;
+
+	public MultiplicativeHashMap() {
+		this(new HashStrategy.Multiplicative());
+	}
+
+	public MultiplicativeHashMap(HashStrategy hs) {
+		this.hs = hs;
+		d = 1;
+		k = new Object[1<<d];
+		allocValues(1<<d);
+	}
+
+	/**
+	 * Hooks for subclasses that store their values differently.
+	 * allocValues(m) creates a new value array of length m, valueArray()
+	 * returns the current one, moveValue(old, j, i) copies entry j of the
+	 * value array old (which may be the current one) into entry i of the
+	 * current one, and value(i) and setValue(i, y) read and write entry i.
+	 */
+	protected void allocValues(int m) {
+		v = new Object[m];
 	}
+
+	protected Object valueArray() {
+		return v;
+	}
+
+	protected void moveValue(Object old, int j, int i) {
+		v[i] = ((Object[])old)[j];
+	}
+
+	/**
+	 * Forget the value in slot i (so that it can be garbage collected)
+	 */
+	protected void clearValue(int i) {
+		v[i] = null;
+	}
+
 	@SuppressWarnings("unchecked")
-	public boolean equals(Object o) {
-		return ((o instanceof Pair) && key.equals(((Pair<V>)o).key)); 
+	protected V value(int i) {
+		return (V)v[i];
 	}
-	public int hashCode() {
-		return key.hashCode();
+
+	protected void setValue(int i, V y) {
+		v[i] = y;
 	}
-}
 
-public class MultiplicativeHashMap<K,V> extends AbstractMap<K,V> {
 	/**
-	 * The underlying hash table
+	 * Compute the table location for key x
+	 * @return hs.hash(x.hashCode()) div 2^(w-d)
 	 */
-	HashTable<Pair<V>> tab;
+	protected final int hash(Object x) {
+		return hs.hash(x.hashCode()) >>> (w-d);
+	}
 
-	public V put(K key, V value) {
-		Pair<V> p = new Pair<V>(key, value);
-		Pair<V> r = tab.removeOne(p);
-		tab.add(p);
-		return (r == null) ? null : r.value;
+	/**
+	 * @return the index of the slot that holds key, or -1 if key is not in
+	 * the map
+	 */
+	protected int slot(Object key) {
+		Object x = key == null ? NULL : key;
+		int m = k.length - 1;
+		for (int i = hash(x); k[i] != null; i = (i+1) & m)
+			if (x.equals(k[i]))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Make sure key is in the table
+	 * @return the index of the slot that holds key if key was added, or
+	 * -i-1 if key was already in slot i
+	 */
+	protected int insert(Object key) {
+		Object x = key == null ? NULL : key;
+		if (2*(n+1) > k.length) resize(); // max 50% occupancy
+		int m = k.length - 1;
+		int i = hash(x);
+		for (; k[i] != null; i = (i+1) & m)
+			if (x.equals(k[i]))
+				return -i-1;
+		k[i] = x;
+		n++;
+		return i;
+	}
+
+	/**
+	 * Resize the table so that 2^d is at least 3n
+	 */
+	protected void resize() {
+		Object[] kold = k;
+		Object vold = valueArray();
+		d = 1;
+		while ((1<<d) < 3*n) d++;
+		k = new Object[1<<d];
+		allocValues(1<<d);
+		int m = k.length - 1;
+		for (int j = 0; j < kold.length; j++) {
+			if (kold[j] != null) {
+				int i = hash(kold[j]);
+				while (k[i] != null)
+					i = (i+1) & m;
+				k[i] = kold[j];
+				moveValue(vold, j, i);
+			}
+		}
+	}
+
+	/**
+	 * Empty slot i, moving later entries of its run back to fill the gap
+	 */
+	protected void delete(int i) {
+		int m = k.length - 1;
+		int j = i;
+		while (true) {
+			j = (j+1) & m;
+			if (k[j] == null) break;
+			if (((j - hash(k[j])) & m) >= ((j - i) & m)) {
+				k[i] = k[j];
+				moveValue(valueArray(), j, i);
+				i = j;
+			}
+		}
+		k[i] = null;
+		clearValue(i);
+		n--;
 	}
-	
+
 	public V get(Object key) {
-		Pair<V> p = new Pair<V>(key, null);
-		Pair<V> r = tab.find(p);
-		return (r == null) ? null : r.value;
+		int i = slot(key);
+		return i < 0 ? null : value(i);
+	}
+
+	public boolean containsKey(Object key) {
+		return slot(key) >= 0;
+	}
+
+	public V put(K key, V value) {
+		int i = insert(key);
+		V old = null;
+		if (i < 0) old = value(i = -(i+1));
+		setValue(i, value);
+		return old;
 	}
-	
+
 	public V remove(Object key) {
-		Pair<V> p = new Pair<V>(key, null);
-		Pair<V> r = tab.removeOne(p);
-		return (r == null) ? null : r.value;		
+		int i = slot(key);
+		if (i < 0) return null;
+		V y = value(i);
+		delete(i);
+		if (8*n < k.length && d > 1) resize(); // min 12.5% occupancy
+		return y;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public void clear() {
+		n = 0;
+		d = 1;
+		k = new Object[1<<d];
+		allocValues(1<<d);
+	}
+
+	/**
+	 * The entry in slot i, as seen by entrySet().  Since entries move when
+	 * the map changes, an Entry is only valid until the next put() or
+	 * remove() (including a remove() by the iterator that returned it).
+	 */
+	protected class Entry implements Map.Entry<K,V> {
+		int i;
+		Entry(int i) {
+			this.i = i;
+		}
+		@SuppressWarnings("unchecked")
+		public K getKey() {
+			return k[i] == NULL ? null : (K)k[i];
+		}
+		public V getValue() {
+			return value(i);
+		}
+		public V setValue(V y) {
+			V old = value(i);
+			MultiplicativeHashMap.this.setValue(i, y);
+			return old;
+		}
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) return false;
+			Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+			return Utils.equals(getKey(), e.getKey())
+				&& Utils.equals(getValue(), e.getValue());
+		}
+		public int hashCode() {
+			K x = getKey();
+			V y = getValue();
+			return (x == null ? 0 : x.hashCode()) ^ (y == null ? 0 : y.hashCode());
+		}
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	/**
+	 * A view of the entries.  The iterator starts at an empty slot, so
+	 * that when its remove() shifts an entry back, the entry can only come
+	 * from the part of the table that hasn't been scanned yet.
+	 */
+	public Set<Map.Entry<K,V>> entrySet() {
+		return new AbstractSet<Map.Entry<K,V>>() {
+			public int size() {
+				return n;
+			}
+			public void clear() {
+				MultiplicativeHashMap.this.clear();
+			}
+			public Iterator<Map.Entry<K,V>> iterator() {
+				return new Iterator<Map.Entry<K,V>>() {
+					int s, j, jprev = -1;  // the scan is at slot (s+j) mod 2^d
+					{
+						while (s < k.length && k[s] != null) s++;
+						skip();
+					}
+					void skip() {
+						while (j < k.length && k[(s+j) & (k.length-1)] == null) j++;
+					}
+					public boolean hasNext() {
+						return j < k.length;
+					}
+					public Map.Entry<K,V> next() {
+						if (j >= k.length) throw new NoSuchElementException();
+						jprev = j++;
+						Entry e = new Entry((s+jprev) & (k.length-1));
+						skip();
+						return e;
+					}
+					public void remove() {
+						if (jprev < 0) throw new IllegalStateException();
+						int i = (s+jprev) & (k.length-1);
+						delete(i);
+						if (k[i] != null) j = jprev; // an unvisited entry moved in
+						jprev = -1;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * A MultiplicativeHashMap whose values are primitive longs
+	 */
+	public static class ObjectLongMap<K> extends MultiplicativeHashMap<K,Long> {
+		long[] lv;
+
+		public ObjectLongMap() { }
+
+		public ObjectLongMap(HashStrategy hs) {
+			super(hs);
+		}
+
+		protected void allocValues(int m) {
+			lv = new long[m];
+		}
+
+		protected Object valueArray() {
+			return lv;
+		}
+
+		protected void moveValue(Object old, int j, int i) {
+			lv[i] = ((long[])old)[j];
+		}
+
+		protected void clearValue(int i) { }
+
+		protected Long value(int i) {
+			return lv[i];
+		}
+
+		protected void setValue(int i, Long y) {
+			lv[i] = y;
+		}
+
+		/**
+		 * @return the value associated with key, or none if there isn't one
+		 */
+		public long get(Object key, long none) {
+			int i = slot(key);
+			return i < 0 ? none : lv[i];
+		}
+
+		/**
+		 * Associate the value y with key
+		 * @return the value previously associated with key, or none
+		 */
+		public long put(K key, long y, long none) {
+			int i = insert(key);
+			long old = i < 0 ? lv[i = -(i+1)] : none;
+			lv[i] = y;
+			return old;
+		}
+
+		/**
+		 * Add delta to the value associated with key (which is 0 if there
+		 * isn't one)
+		 * @return the new value
+		 */
+		public long addTo(K key, long delta) {
+			int i = insert(key);
+			if (i < 0) return lv[-(i+1)] += delta;
+			return lv[i] = delta;
+		}
 	}
-	
-	public Set<java.util.Map.Entry<K, V>> entrySet() {
-		return null;
+
+	/**
+	 * Compare against HashMap, then time against HashMap and the old
+	 * approach of a USetMap over a ChainedHashTable
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Random rand = new Random(1);
+		int n = 1000000;
+		MultiplicativeHashMap<Integer,String> mhm
+			= new MultiplicativeHashMap<Integer,String>();
+		ObjectLongMap<String> olm = new ObjectLongMap<String>();
+		Map<Integer,String> m = new HashMap<Integer,String>();
+		Map<String,Long> ml = new HashMap<String,Long>();
+		for (int i = 0; i < 3*n; i++) {
+			Integer x = rand.nextInt(20) == 0 ? null : rand.nextInt(n);
+			if (i < n || rand.nextBoolean()) {
+				String y = rand.nextInt(20) == 0 ? null : "" + i;
+				if (!Utils.equals(m.put(x, y), mhm.put(x, y)))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+				Long old = ml.put("" + x, (long)i);
+				if (olm.put("" + x, i, -1) != (old == null ? -1 : old))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+				if (i % 7 == 0) {
+					ml.put("" + x, i + 5L);
+					if (olm.addTo("" + x, 5) != i + 5)
+						throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+				}
+			} else {
+				if (!Utils.equals(m.remove(x), mhm.remove(x)))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+				if (!Utils.equals(ml.remove("" + x), olm.remove("" + x)))
+					throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			}
+			if (m.size() != mhm.size() || m.size() != olm.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			if (!Utils.equals(m.get(x), mhm.get(x))
+					|| m.containsKey(x) != mhm.containsKey(x)
+					|| m.containsKey(x) != olm.containsKey("" + x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		if (!m.equals(mhm) || !mhm.equals(m) || m.hashCode() != mhm.hashCode())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		Iterator<Map.Entry<Integer,String>> it = mhm.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer,String> e = it.next();
+			Integer x = e.getKey();
+			if (x != null && x % 3 == 0) {
+				it.remove();
+				m.remove(x);
+			} else if (x != null && x % 3 == 1) {
+				e.setValue("x");
+				m.put(x, "x");
+			}
+		}
+		if (!m.equals(mhm))
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		System.out.println("MultiplicativeHashMap passed");
+
+		long start, stop;
+		Integer[] a = new Integer[n];
+		for (int i = 0; i < n; i++)
+			a[i] = rand.nextInt(2*n);
+		for (int r = 0; r < 2; r++) {
+			Map<Integer,Integer> m1 = new MultiplicativeHashMap<Integer,Integer>();
+			Map<Integer,Integer> m2 = new HashMap<Integer,Integer>();
+			Map<Integer,Integer> m3 = new USetMap<Integer,Integer>(
+					new ChainedHashTable<Map.Entry<Integer,Integer>>());
+			for (Map<Integer,Integer> mm : List.of(m1, m2, m3)) {
+				start = System.nanoTime();
+				for (Integer x : a) mm.put(x, x);
+				for (Integer x : a) mm.get(x);
+				for (Integer x : a) mm.remove(x);
+				stop = System.nanoTime();
+				System.out.println(mm.getClass().getSimpleName() + ": " + n
+						+ " puts, gets, and removes in " + (stop-start)*1e-9 + "s");
+			}
+		}
 	}
-	
 }
@@ -0,0 +1,523 @@
+package ods;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A linear probing hash table of longs that is stored outside of the Java
+ * heap.  The table is split into chunks of at most 2^CHUNK_BITS slots, and
+ * each chunk is a direct ByteBuffer or, if the table is backed by a file,
+ * a memory-mapped piece of that file.  The garbage collector never looks
+ * inside the table, so a table with hundreds of millions of keys doesn't
+ * make collections any slower, and a file-backed table can be closed and
+ * reopened without rebuilding it.
+ *
+ * Key 0 marks an empty slot (it can still be stored, in the flag
+ * hasEmpty).  remove(x) shifts later keys back into the hole instead of
+ * leaving a deleted marker, so the table never fills up with markers.
+ * The hash function is multiply-shift hashing with a seed that is stored
+ * in the file.
+ *
+ * The file starts with a header of HEADER_SIZE bytes that records the
+ * dimension d, the size, hasEmpty, and the seed; the 2^d slots follow.
+ * The header is only written by flush() and close().  When the table
+ * grows or shrinks, the new table is built in a temporary file that then
+ * replaces the old one, so the file always holds a complete table.
+ * Several processes can open the same file, but only one of them should
+ * modify it.
+ * @author morin
+ */
+public class OffHeapLongHashTable {
+
+	protected static final int w = 32;
+
+	protected static final int MAGIC = 0x0ff4ea9;
+	protected static final int HEADER_SIZE = 4096;
+
+	/**
+	 * A chunk holds at most 2^CHUNK_BITS slots (128MB)
+	 */
+	protected static final int CHUNK_BITS = 24;
+
+	/**
+	 * The key that marks an empty slot
+	 */
+	protected static final long EMPTY = 0;
+
+	/**
+	 * The chunks of the table; each one holds 2^cbits slots
+	 */
+	ByteBuffer[] chunks;
+	int cbits;
+
+	long n;   // the size
+	int d;    // the table has 2^d slots
+
+	/**
+	 * Whether the key EMPTY is in the set
+	 */
+	boolean hasEmpty;
+
+	/**
+	 * The hash function and the seed it was made from
+	 */
+	HashStrategy hs;
+	long seed;
+
+	/**
+	 * The file, its channel, and its mapped header (all null if the table
+	 * isn't file-backed)
+	 */
+	File f;
+	RandomAccessFile file;
+	FileChannel ch;
+	ByteBuffer header;
+
+	/**
+	 * Create an empty table in direct (off-heap) memory
+	 */
+	public OffHeapLongHashTable() {
+		this(new Random().nextLong());
+	}
+
+	/**
+	 * Create an empty table in direct memory, with the hash function
+	 * chosen by seed
+	 */
+	public OffHeapLongHashTable(long seed) {
+		setSeed(seed);
+		d = 1;
+		chunks = allocate(d, null);
+	}
+
+	/**
+	 * Open (or create) a table stored in the file f
+	 * @throws IOException if the file can't be opened, or if it doesn't
+	 * contain a table
+	 */
+	public OffHeapLongHashTable(File f) throws IOException {
+		this.f = f;
+		file = new RandomAccessFile(f, "rw");
+		ch = file.getChannel();
+		long size = ch.size();
+		if (size > 0 && size < HEADER_SIZE) {
+			file.close();
+			throw new IOException(f + " doesn't contain a table");
+		}
+		header = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE)
+				.order(ByteOrder.nativeOrder());
+		if (size == 0) {
+			setSeed(new Random().nextLong());
+			d = 1;
+			chunks = allocate(d, ch);
+			writeHeader();
+			return;
+		}
+		d = header.getInt(4);
+		if (header.getInt(0) != MAGIC || d < 1 || d > w
+				|| size < HEADER_SIZE + (8L<<d)) {
+			release();
+			throw new IOException(f + " doesn't contain a table");
+		}
+		hasEmpty = header.getInt(8) != 0;
+		n = header.getLong(16);
+		setSeed(header.getLong(24));
+		chunks = allocate(d, ch);
+	}
+
+	protected void setSeed(long seed) {
+		this.seed = seed;
+		hs = new HashStrategy.MultiplyShift(seed);
+	}
+
+	/**
+	 * Allocate (or map) the chunks of a table with 2^dd slots, and set
+	 * cbits to match
+	 * @param c the channel of the file that stores the table, or null to
+	 * use direct memory
+	 */
+	protected ByteBuffer[] allocate(int dd, FileChannel c) {
+		cbits = Math.min(dd, CHUNK_BITS);
+		ByteBuffer[] b = new ByteBuffer[1 << (dd-cbits)];
+		int bytes = 8 << cbits;
+		try {
+			for (int k = 0; k < b.length; k++) {
+				ByteBuffer buf = c == null ? ByteBuffer.allocateDirect(bytes)
+						: c.map(FileChannel.MapMode.READ_WRITE,
+								HEADER_SIZE + (long)k*bytes, bytes);
+				b[k] = buf.order(ByteOrder.nativeOrder());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return b;
+	}
+
+	/**
+	 * @return the key in slot i of the table stored in chunks b, which
+	 * hold 2^cb slots each
+	 */
+	protected static long get(ByteBuffer[] b, int cb, long i) {
+		return b[(int)(i >>> cb)].getLong((int)(i & ((1<<cb)-1)) << 3);
+	}
+
+	protected long get(long i) {
+		return get(chunks, cbits, i);
+	}
+
+	protected void set(long i, long x) {
+		chunks[(int)(i >>> cbits)].putLong((int)(i & ((1<<cbits)-1)) << 3, x);
+	}
+
+	protected long hash(long x) {
+		return (hs.hash(x) & 0xffffffffL) >>> (w-d);
+	}
+
+	/**
+	 * @return the slot that holds x, or -1 if x (which isn't EMPTY) is
+	 * not in the table
+	 */
+	protected long slot(long x) {
+		long mask = (1L<<d)-1, i = hash(x), y;
+		while ((y = get(i)) != EMPTY) {
+			if (y == x) return i;
+			i = (i+1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param x
+	 * @return true if x is in the set
+	 */
+	public boolean contains(long x) {
+		return x == EMPTY ? hasEmpty : slot(x) >= 0;
+	}
+
+	/**
+	 * Add x to the set
+	 * @param x
+	 * @return true if x was added, false if it was already present
+	 */
+	public boolean add(long x) {
+		if (x == EMPTY) {
+			if (hasEmpty) return false;
+			hasEmpty = true;
+			n++;
+			return true;
+		}
+		if (2*(n+1) > 1L<<d) resize(n+1); // max 50% occupancy
+		long mask = (1L<<d)-1, i = hash(x), y;
+		while ((y = get(i)) != EMPTY) {
+			if (y == x) return false;
+			i = (i+1) & mask;
+		}
+		set(i, x);
+		n++;
+		return true;
+	}
+
+	/**
+	 * Remove x from the set
+	 * @param x
+	 * @return true if x was removed, false if it wasn't present
+	 */
+	public boolean remove(long x) {
+		if (x == EMPTY) {
+			if (!hasEmpty) return false;
+			hasEmpty = false;
+		} else {
+			long i = slot(x);
+			if (i < 0) return false;
+			delete(i);
+		}
+		n--;
+		if (8*n < 1L<<d && d > 1) resize(n); // min 12.5% occupancy
+		return true;
+	}
+
+	/**
+	 * Empty slot i, moving back any later keys whose probe sequences pass
+	 * through it
+	 */
+	protected void delete(long i) {
+		long m = (1L<<d)-1, j = i, y;
+		while ((y = get(j = (j+1) & m)) != EMPTY) {
+			if (((j - hash(y)) & m) >= ((j - i) & m)) {
+				set(i, y);
+				i = j;
+			}
+		}
+		set(i, EMPTY);
+	}
+
+	/**
+	 * Make sure the table can hold m keys without growing
+	 */
+	public void reserve(long m) {
+		if (2*m > 1L<<d) resize(m);
+	}
+
+	/**
+	 * Rebuild the table so that 2^d is at least 3m
+	 */
+	protected void resize(long m) {
+		int dd = 1;
+		while ((1L<<dd) < 3*m) dd++;
+		if (dd > w)
+			throw new IllegalStateException("too many keys");
+		rebuild(dd, true);
+	}
+
+	/**
+	 * Replace the table with one of 2^dd slots, which holds the same keys
+	 * if copy is true and is empty otherwise.  A file-backed table is
+	 * built in a temporary file that is then moved over the old one.
+	 */
+	protected void rebuild(int dd, boolean copy) {
+		ByteBuffer[] old = chunks;
+		int oldcbits = cbits;
+		long oldm = 1L<<d;
+		try {
+			File tmp = null;
+			RandomAccessFile nf = null;
+			if (file != null) {
+				tmp = new File(f.getPath() + ".tmp");
+				Files.deleteIfExists(tmp.toPath());
+				nf = new RandomAccessFile(tmp, "rw");
+			}
+			chunks = allocate(dd, nf == null ? null : nf.getChannel());
+			d = dd;
+			if (copy) {
+				long mask = (1L<<d)-1;
+				for (long k = 0; k < oldm; k++) {
+					long x = get(old, oldcbits, k);
+					if (x != EMPTY) {
+						long i = hash(x);
+						while (get(i) != EMPTY)
+							i = (i+1) & mask;
+						set(i, x);
+					}
+				}
+			}
+			if (nf != null) {
+				file.close();
+				file = nf;
+				ch = nf.getChannel();
+				header = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE)
+						.order(ByteOrder.nativeOrder());
+				flush();
+				Files.move(tmp.toPath(), f.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the number of keys in the set
+	 */
+	public long size() {
+		return n;
+	}
+
+	public void clear() {
+		n = 0;
+		hasEmpty = false;
+		rebuild(1, false);
+	}
+
+	/**
+	 * @return the first slot at index i or later that holds a key, or
+	 * 2^d if there isn't one (and 2^d+1 if EMPTY isn't in the set either)
+	 */
+	protected long nextSlot(long i) {
+		long m = 1L<<d;
+		while (i < m && get(i) == EMPTY) i++;
+		if (i == m && !hasEmpty) i++;
+		return i;
+	}
+
+	/**
+	 * @return an iterator over the keys, which doesn't box them if used
+	 * through nextLong()
+	 */
+	public PrimitiveIterator.OfLong iterator() {
+		return new PrimitiveIterator.OfLong() {
+			long i = nextSlot(0);
+			public boolean hasNext() {
+				return i <= 1L<<d;
+			}
+			public long nextLong() {
+				if (!hasNext()) throw new NoSuchElementException();
+				long x = i < 1L<<d ? get(i) : EMPTY;
+				i = nextSlot(i+1);
+				return x;
+			}
+		};
+	}
+
+	/**
+	 * Write the header
+	 */
+	protected void writeHeader() {
+		header.putInt(0, MAGIC);
+		header.putInt(4, d);
+		header.putInt(8, hasEmpty ? 1 : 0);
+		header.putLong(16, n);
+		header.putLong(24, seed);
+	}
+
+	/**
+	 * Write the header and force the table out to the file (this does
+	 * nothing if the table isn't file-backed)
+	 */
+	public void flush() {
+		if (file == null) return;
+		writeHeader();
+		for (ByteBuffer c : chunks)
+			((MappedByteBuffer)c).force();
+		((MappedByteBuffer)header).force();
+	}
+
+	/**
+	 * Flush the table and close its file.  The table can't be used after
+	 * this.
+	 */
+	public void close() {
+		if (file == null || !ch.isOpen()) return;
+		flush();
+		release();
+	}
+
+	/**
+	 * Close the file without writing anything
+	 */
+	protected void release() {
+		chunks = null;
+		header = null;
+		try {
+			file.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public String toString() {
+		StringBuffer sb = new StringBuffer("{");
+		PrimitiveIterator.OfLong it = iterator();
+		while (it.hasNext()) {
+			sb.append(it.nextLong());
+			if (it.hasNext()) sb.append(",");
+		}
+		return sb.append("}").toString();
+	}
+
+	/**
+	 * @return the total time, in ms, that the garbage collectors have run
+	 */
+	protected static long gcTime() {
+		long t = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			t += gc.getCollectionTime();
+		return t;
+	}
+
+	/**
+	 * Check a direct and a file-backed table against a HashSet, reopen
+	 * the file, and then compare the time spent in garbage collection with
+	 * a LinearHashTable holding the same keys
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		Random rand = new Random(1);
+		int n = 1000000;
+		File f = File.createTempFile("hashtable", ".db");
+		f.delete();
+		f.deleteOnExit();
+		OffHeapLongHashTable t = new OffHeapLongHashTable(1);
+		OffHeapLongHashTable ft = new OffHeapLongHashTable(f);
+		Set<Long> s = new HashSet<Long>();
+		for (int i = 0; i < 4*n; i++) {
+			long x = (rand.nextInt(n) - 10) * 0x100000001L;
+			boolean rs, rt, rft;
+			if (i < n || rand.nextBoolean()) {
+				rs = s.add(x);
+				rt = t.add(x);
+				rft = ft.add(x);
+			} else {
+				rs = s.remove(x);
+				rt = t.remove(x);
+				rft = ft.remove(x);
+			}
+			if (rs != rt || rs != rft)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != t.size() || s.size() != ft.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		ft.close();
+		ft = new OffHeapLongHashTable(f);
+		if (ft.size() != s.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		for (int i = 0; i < n; i++) {
+			long x = (rand.nextInt(n) - 10) * 0x100000001L;
+			if (s.contains(x) != t.contains(x) || s.contains(x) != ft.contains(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		int count = 0;
+		for (PrimitiveIterator.OfLong it = ft.iterator(); it.hasNext(); count++)
+			if (!s.contains(it.nextLong()))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		if (count != s.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		ft.clear();
+		ft.add(5);
+		ft.close();
+		ft = new OffHeapLongHashTable(f);
+		if (ft.size() != 1 || !ft.contains(5))
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		ft.close();
+		System.out.println("OffHeapLongHashTable passed (" + f.length() + " bytes)");
+
+		n = 8000000;
+		for (int r = 0; r < 2; r++) {
+			OffHeapLongHashTable ot = new OffHeapLongHashTable();
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) ot.add(rand.nextLong());
+			long stop = System.nanoTime();
+			long gc = gcTime();
+			for (int i = 0; i < 5; i++) System.gc();
+			System.out.println("OffHeapLongHashTable: " + n + " adds in "
+					+ (stop-start)*1e-9 + "s, 5 full collections in "
+					+ (gcTime()-gc) + "ms");
+			ot = null;
+			LinearHashTable<Long> lt = new LinearHashTable<Long>(-1L);
+			start = System.nanoTime();
+			for (int i = 0; i < n; i++) lt.add(rand.nextLong());
+			stop = System.nanoTime();
+			gc = gcTime();
+			for (int i = 0; i < 5; i++) System.gc();
+			System.out.println("LinearHashTable: " + n + " adds in "
+					+ (stop-start)*1e-9 + "s, 5 full collections in "
+					+ (gcTime()-gc) + "ms");
+			lt = null;
+		}
+	}
+}
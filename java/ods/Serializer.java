@@ -0,0 +1,61 @@
+package ods;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Serializer converts objects of type T to and from a fixed number of
+ * bytes.  This is what lets a FileBlockStore keep its blocks in a file.
+ * @author morin
+ *
+ * @param <T>
+ */
+public interface Serializer<T> {
+	/**
+	 * @return the maximum number of bytes used to store one object
+	 */
+	public int size();
+
+	/**
+	 * Write x at the current position of buf
+	 * @param x the object to write
+	 * @param buf the buffer to write to
+	 */
+	public void write(T x, ByteBuffer buf);
+
+	/**
+	 * Read an object from the current position of buf
+	 * @param buf the buffer to read from
+	 * @return the object read
+	 */
+	public T read(ByteBuffer buf);
+
+	/**
+	 * A Serializer for (non-null) Integers
+	 */
+	public static final Serializer<Integer> INTEGER = new Serializer<Integer>() {
+		public int size() {
+			return 4;
+		}
+		public void write(Integer x, ByteBuffer buf) {
+			buf.putInt(x);
+		}
+		public Integer read(ByteBuffer buf) {
+			return buf.getInt();
+		}
+	};
+
+	/**
+	 * A Serializer for (non-null) Longs
+	 */
+	public static final Serializer<Long> LONG = new Serializer<Long>() {
+		public int size() {
+			return 8;
+		}
+		public void write(Long x, ByteBuffer buf) {
+			buf.putLong(x);
+		}
+		public Long read(ByteBuffer buf) {
+			return buf.getLong();
+		}
+	};
+}
@@ -5,6 +5,8 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 /**
  * An implementation of skiplists for searching
@@ -49,26 +51,54 @@ public class SkiplistSSet<T> implements SSet<T> {
 	 */
 	Random rand;
 
+	/**
+	 * The number of changes made to the skiplist
+	 */
+	int mods;
+
 	/**
 	 * Used by add(x) method
 	 */
 	protected Node<T>[] stack;
 	
+	/**
+	 * A finger remembers where the last search ended: s[r] is the last
+	 * node in list r whose value is less than the value last searched
+	 * for.  Searching with a finger for a value that is d positions away
+	 * takes O(log d) expected time, and add(f, x) and remove(f, x) keep
+	 * the finger up to date.  The finger starts over at the sentinel if
+	 * anything else (another finger, add(x), remove(x) or clear()) has
+	 * changed the skiplist since it was last used.
+	 */
 	@SuppressWarnings("unchecked")
 	public class Finger {
 		protected Node<T>[] s;
+		/**
+		 * The value of mods when this finger was last used
+		 */
+		protected int mods0;
 		public Finger() {
-			s = (Node<T>[])Array.newInstance(Node.class, h+1);
-			for (int r = 0; r <= h; r++) 
+			s = (Node<T>[])Array.newInstance(Node.class, sentinel.next.length);
+			reset();
+		}
+		public void reset() {
+			for (int r = 0; r < s.length; r++)
 				s[r] = sentinel;
+			mods0 = mods;
 		}
 	}
 
 	public Finger getFinger() {
 		return new Finger();
 	}
-	
-	public T find(Finger f, T x) {
+
+	/**
+	 * Find the node that precedes x, starting from the finger f, and
+	 * leave f.s[r] at the predecessor of x in list r for every r
+	 * @return the predecessor of x in list 0
+	 */
+	protected Node<T> findPredNode(Finger f, T x) {
+		if (f.mods0 != mods) f.reset();
 		int r = 0;
 		Node<T> u = f.s[r];
 		// find an edge that passes over x
@@ -77,15 +107,64 @@ public class SkiplistSSet<T> implements SSet<T> {
 					|| (u.next[r] != null && c.compare(x, u.next[r].x) > 0))) {
 			u = f.s[++r];
 		}
-		r--;
+		if (u != sentinel && c.compare(x, u.x) <= 0)
+			u = sentinel;      // x is left of everything we know about
 		while (r >= 0) {
 			while (u.next[r] != null && c.compare(u.next[r].x,x) < 0)
 				u = u.next[r];
 			f.s[r] = u;
-			r--;              
+			r--;
 		}
+		return u;
+	}
+
+	public T find(Finger f, T x) {
+		Node<T> u = findPredNode(f, x);
 		return (u.next[0] == null) ? null : u.next[0].x;
 	}
+
+	public T findGE(Finger f, T x) {
+		if (x == null) {   // return first node<T>
+			return sentinel.next[0] == null ? null : sentinel.next[0].x;
+		}
+		return find(f, x);
+	}
+
+	/**
+	 * Add x, starting the search from the finger f
+	 */
+	public boolean add(Finger f, T x) {
+		Node<T> u = findPredNode(f, x);
+		if (u.next[0] != null && c.compare(u.next[0].x, x) == 0)
+			return false;
+		Node<T> w = new Node<T>(x, pickHeight());
+		while (h < w.height())
+			f.s[++h] = sentinel;   // height increased
+		for (int i = 0; i < w.next.length; i++) {
+			w.next[i] = f.s[i].next[i];
+			f.s[i].next[i] = w;
+		}
+		n++;
+		f.mods0 = ++mods;
+		return true;
+	}
+
+	/**
+	 * Remove x, starting the search from the finger f
+	 */
+	public boolean remove(Finger f, T x) {
+		Node<T> u = findPredNode(f, x);
+		Node<T> w = u.next[0];
+		if (w == null || c.compare(w.x, x) != 0)
+			return false;
+		for (int r = 0; r <= w.height(); r++)
+			f.s[r].next[r] = w.next[r];
+		while (h > 0 && sentinel.next[h] == null)
+			h--;  // height has gone down
+		n--;
+		f.mods0 = ++mods;
+		return true;
+	}
 	
 	@SuppressWarnings("unchecked")
 	public SkiplistSSet(Comparator<T> c) {
@@ -165,7 +244,10 @@ public class SkiplistSSet<T> implements SSet<T> {
 			}
 			r--;
 		}
-		if (removed) n--;
+		if (removed) {
+			n--;
+			mods++;
+		}
 		return removed;
 	}
 	
@@ -190,6 +272,7 @@ public class SkiplistSSet<T> implements SSet<T> {
 		n = 0;
 		h = 0;
 		Arrays.fill(sentinel.next, null);
+		mods++;
 	}
 	
 	public int size() {
@@ -256,6 +339,7 @@ public class SkiplistSSet<T> implements SSet<T> {
 			stack[i].next[i] = w;
 		}
 		n++;
+		mods++;
 		return true;
 	}
 
@@ -300,6 +384,68 @@ public class SkiplistSSet<T> implements SSet<T> {
 		}
 		System.out.println("Done - size() = " + sl.size());
 
+		System.out.println("Checking finger operations");
+		SortedSet<Integer> ss = new TreeSet<Integer>();
+		for (Integer x : sl) ss.add(x);
+		SkiplistSSet<Integer>.Finger g = sl.getFinger();
+		int y = 0;
+		for (int i = 0; i < 4*n; i++) {
+			y = Math.max(0, y + r.nextInt(41) - 20);  // a random walk
+			SkiplistSSet<Integer>.Finger ff = r.nextInt(10) == 0 ? g : f;
+			switch (r.nextInt(i % 1000 == 0 ? 6 : 4)) {
+			case 0:
+			case 1:
+				Utils.myassert(sl.add(ff, y) == ss.add(y));
+				break;
+			case 2:
+				Utils.myassert(sl.remove(ff, y) == ss.remove(y));
+				break;
+			case 3:
+				Utils.myassert(Utils.equals(sl.findGE(ff, y), Utils.findGE(ss, y)));
+				break;
+			case 4:
+				Utils.myassert(sl.add(y) == ss.add(y));
+				break;
+			default:
+				Utils.myassert(sl.remove(y) == ss.remove(y));
+			}
+			Utils.myassert(sl.size() == ss.size());
+		}
+		Iterator<Integer> it = ss.iterator();
+		for (Integer x : sl)
+			Utils.myassert(x.equals(it.next()));
+		Utils.myassert(!it.hasNext());
+		// a remove(x) and an add(x) that leave the size alone
+		SkiplistSSet<Integer> s0 = new SkiplistSSet<Integer>();
+		for (int i = 0; i < 100; i += 2) s0.add(i);
+		f = s0.getFinger();
+		s0.find(f, 51);
+		s0.remove(50);
+		s0.add(1001);
+		Utils.myassert(s0.add(f, 51) && s0.find(51) == 51);
+		int count = 0;
+		for (Integer x : s0) count++;
+		Utils.myassert(count == 51 && s0.size() == 51);
+
+		System.out.println("Timing nearly sorted insertions");
+		int[] a = new int[10*n];
+		for (int i = 0; i < a.length; i++)
+			a[i] = 100*i + r.nextInt(1000);   // arrives a little out of order
+		for (int k = 0; k < 2; k++) {
+			SkiplistSSet<Integer> s1 = new SkiplistSSet<Integer>();
+			long start = System.nanoTime();
+			for (int x : a) s1.add(x);
+			long stop = System.nanoTime();
+			System.out.print("add(x): " + (stop-start)*1e-9 + "s, ");
+			SkiplistSSet<Integer> s2 = new SkiplistSSet<Integer>();
+			f = s2.getFinger();
+			start = System.nanoTime();
+			for (int x : a) s2.add(f, x);
+			stop = System.nanoTime();
+			System.out.println("add(f, x): " + (stop-start)*1e-9 + "s");
+			Utils.myassert(s1.size() == s2.size());
+		}
+
 //		for (Integer x : sl) {
 //			System.out.print(x + ",");
 //		}		
@@ -0,0 +1,827 @@
+package ods;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A B+-tree of Strings whose nodes are prefix compressed.  Each node
+ * stores the longest prefix shared by all of its keys once, and packs the
+ * remaining suffixes into a single char[] array.  Searching a node first
+ * compares x with the prefix and then binary searches the suffixes
+ * directly in the packed array, so nothing is decompressed.
+ *
+ * Unlike BTree, the elements are only stored in the leaves (which are
+ * linked together), so the keys in the internal nodes are only used to
+ * route searches.  This makes it possible to truncate them: when a leaf
+ * is split, the separator placed in the parent is the shortest prefix of
+ * the first key in the right leaf that is still larger than the last key
+ * in the left leaf.  Short separators share longer prefixes, so internal
+ * nodes compress especially well.
+ *
+ * A block holds as many keys as fit in a budget of chars, rather than a
+ * fixed number of keys, so the better a block compresses the more keys it
+ * holds.  This is what makes the tree wider and shallower than a BTree
+ * with the same block size.
+ * @author morin
+ */
+public class StringBTree implements SSet<String> {
+
+	/**
+	 * The number of chars a block can use.  The prefix is stored once, and
+	 * each key costs its suffix, plus 2 chars (an int) for its entry in
+	 * end, plus 2 more for its child in an internal node.
+	 */
+	int budget;
+
+	/**
+	 * Number of elements stored in the tree
+	 */
+	int n;
+
+	/**
+	 * The block storage mechanism
+	 */
+	BlockStore<Node> bs;
+
+	/**
+	 * The index of the root node
+	 */
+	int ri;
+
+	/**
+	 * Set by addRecursive when the value being added is already present
+	 */
+	protected boolean duplicate;
+
+	/**
+	 * Set by addRecursive to the key that separates a node that was split
+	 * from its new right sibling
+	 */
+	protected String promoted;
+
+	/**
+	 * A node in a B+-tree.  A leaf holds elements and an internal node
+	 * holds separators and one more child than separators; every element
+	 * in children[i] is less than key(i), and every element in
+	 * children[i+1] is at least key(i).
+	 */
+	protected class Node {
+		/**
+		 * This block's index
+		 */
+		int id;
+
+		/**
+		 * The number of keys stored in this block
+		 */
+		int count;
+
+		/**
+		 * The prefix common to every key in this block
+		 */
+		String prefix;
+
+		/**
+		 * The suffixes of the keys, packed one after another
+		 */
+		char[] chars;
+
+		/**
+		 * The suffix of key i is chars[end[i-1]],...,chars[end[i]-1]
+		 * (where end[-1] is 0)
+		 */
+		int[] end;
+
+		/**
+		 * The indices of the children of this block (null for a leaf)
+		 */
+		int[] children;
+
+		/**
+		 * The index of the next leaf (only used in leaves)
+		 */
+		int next;
+
+		public Node(boolean leaf) {
+			prefix = "";
+			chars = new char[16];
+			end = new int[4];
+			if (!leaf) {
+				children = new int[5];
+				Arrays.fill(children, -1);
+			}
+			next = -1;
+			id = bs.placeBlock(this);
+		}
+
+		public boolean isLeaf() {
+			return children == null;
+		}
+
+		/**
+		 * @return true if this block is over its budget and has enough
+		 * keys to be split
+		 */
+		public boolean isFull() {
+			return used() > budget && count >= (isLeaf() ? 2 : 3);
+		}
+
+		/**
+		 * @return the number of chars this block uses
+		 */
+		public int used() {
+			return cost(prefix.length(), start(count), count, isLeaf());
+		}
+
+		public int size() {
+			return count;
+		}
+
+		/**
+		 * @return the index in chars where the suffix of key i starts
+		 */
+		protected int start(int i) {
+			return i == 0 ? 0 : end[i-1];
+		}
+
+		/**
+		 * @return the i'th key in this block
+		 */
+		public String key(int i) {
+			int s = start(i);
+			return prefix.concat(new String(chars, s, end[i]-s));
+		}
+
+		/**
+		 * Compare x.substring(off) with the suffix of the i'th key
+		 */
+		protected int compare(String x, int off, int i) {
+			int s = start(i), len = end[i] - s, xlen = x.length() - off;
+			int m = Math.min(len, xlen);
+			for (int k = 0; k < m; k++) {
+				char a = x.charAt(off+k), c = chars[s+k];
+				if (a != c) return a - c;
+			}
+			return xlen - len;
+		}
+
+		/**
+		 * Find the index, i, at which x should be inserted
+		 * @param x the value to search for
+		 * @return i or -i-1 if key(i) equals x
+		 */
+		public int findIt(String x) {
+			if (!x.startsWith(prefix)) // x is smaller or larger than every key
+				return x.compareTo(prefix) < 0 ? 0 : count;
+			int p = prefix.length();
+			int lo = 0, hi = count;
+			while (lo < hi) {
+				int m = (lo+hi) >>> 1;
+				int cmp = compare(x, p, m);
+				if (cmp < 0)
+					hi = m;
+				else if (cmp > 0)
+					lo = m+1;
+				else
+					return -m-1;
+			}
+			return lo;
+		}
+
+		/**
+		 * @return the index of the child whose subtree might contain x
+		 */
+		public int childIndex(String x) {
+			int i = findIt(x);
+			return i < 0 ? -i : i;
+		}
+
+		/**
+		 * Make sure chars can hold m characters
+		 */
+		protected void ensureChars(int m) {
+			if (chars.length < m)
+				chars = Arrays.copyOf(chars, Math.max(m, 2*chars.length));
+		}
+
+		/**
+		 * Make sure this block has room for k keys (and k+1 children)
+		 */
+		protected void ensureKeys(int k) {
+			if (end.length >= k) return;
+			int m = Math.max(k, 2*end.length);
+			end = Arrays.copyOf(end, m);
+			if (children != null) {
+				int l = children.length;
+				children = Arrays.copyOf(children, m+1);
+				Arrays.fill(children, l, m+1, -1);
+			}
+		}
+
+		/**
+		 * @return every key in this block, decompressed, with room for one
+		 * more
+		 */
+		public String[] keys() {
+			String[] a = new String[count+1];
+			for (int i = 0; i < count; i++)
+				a[i] = key(i);
+			return a;
+		}
+
+		/**
+		 * Replace the keys of this block with the k sorted keys a[from],
+		 * ..., a[from+k-1], compressing them as tightly as possible
+		 */
+		public void setKeys(String[] a, int from, int k) {
+			ensureKeys(k);
+			count = k;
+			prefix = k == 0 ? "" : a[from].substring(0,
+					commonPrefix(a[from], a[from+k-1]));
+			int p = prefix.length(), m = 0;
+			for (int i = 0; i < k; i++)
+				m += a[from+i].length() - p;
+			ensureChars(m);
+			m = 0;
+			for (int i = 0; i < k; i++) {
+				String s = a[from+i];
+				s.getChars(p, s.length(), chars, m);
+				m += s.length() - p;
+				end[i] = m;
+			}
+		}
+
+		/**
+		 * Insert x as the i'th key of this block.  If x doesn't begin
+		 * with the block's prefix then the block is recompressed.
+		 */
+		public void insert(int i, String x) {
+			if (!x.startsWith(prefix)) {
+				String[] a = keys();
+				System.arraycopy(a, i, a, i+1, count-i);
+				a[i] = x;
+				setKeys(a, 0, count+1);
+				return;
+			}
+			int p = prefix.length(), len = x.length() - p;
+			int s = start(i), m = start(count);
+			ensureChars(m + len);
+			ensureKeys(count+1);
+			System.arraycopy(chars, s, chars, s+len, m-s);
+			x.getChars(p, x.length(), chars, s);
+			System.arraycopy(end, i, end, i+1, count-i);
+			end[i] = s;
+			for (int j = i; j <= count; j++)
+				end[j] += len;
+			count++;
+		}
+
+		/**
+		 * Remove the i'th key of this block (the prefix stays valid)
+		 */
+		public void remove(int i) {
+			int s = start(i), len = end[i] - s, m = start(count);
+			System.arraycopy(chars, end[i], chars, s, m-end[i]);
+			System.arraycopy(end, i+1, end, i, count-i-1);
+			count--;
+			for (int j = i; j < count; j++)
+				end[j] -= len;
+		}
+
+		/**
+		 * @return the number of chars used to store the keys of this block
+		 */
+		public int footprint() {
+			return prefix.length() + start(count);
+		}
+
+		public String toString() {
+			StringBuffer sb = new StringBuffer();
+			sb.append("[" + prefix + "|");
+			for (int i = 0; i < count; i++) {
+				if (!isLeaf()) sb.append("(" + children[i] + ")");
+				int s = start(i);
+				sb.append(new String(chars, s, end[i]-s) + ",");
+			}
+			if (!isLeaf()) sb.append("(" + children[count] + ")");
+			sb.append("]");
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * @return the length of the longest common prefix of x and y
+	 */
+	protected static int commonPrefix(String x, String y) {
+		int m = Math.min(x.length(), y.length());
+		int k = 0;
+		while (k < m && x.charAt(k) == y.charAt(k))
+			k++;
+		return k;
+	}
+
+	/**
+	 * @return the number of chars used by a block with k keys, a prefix
+	 * of length p, and m chars of suffixes
+	 */
+	protected static int cost(int p, int m, int k, boolean leaf) {
+		return p + m + 2*k + (leaf ? 0 : 2*(k+1));
+	}
+
+	/**
+	 * @return the number of chars used by a block holding the k sorted
+	 * keys a[0],...,a[k-1]
+	 */
+	protected static int cost(String[] a, int k, boolean leaf) {
+		if (k == 0) return cost(0, 0, 0, leaf);
+		int p = commonPrefix(a[0], a[k-1]), m = 0;
+		for (int i = 0; i < k; i++)
+			m += a[i].length() - p;
+		return cost(p, m, k, leaf);
+	}
+
+	/**
+	 * Return the shortest string s such that x < s <= y
+	 * @param x
+	 * @param y a string that is greater than x
+	 */
+	protected static String separator(String x, String y) {
+		return y.substring(0, commonPrefix(x, y) + 1);
+	}
+
+	/**
+	 * Construct an empty StringBTree
+	 * @param budget the number of chars a block can use
+	 */
+	public StringBTree(int budget) {
+		this.budget = budget;
+		bs = new BlockStore<Node>();
+		ri = new Node(true).id;
+		n = 0;
+	}
+
+	public boolean add(String x) {
+		Node w = addRecursive(x, ri);
+		if (duplicate) {
+			duplicate = false;
+			return false;
+		}
+		if (w != null) {   // root was split, make new root
+			Node newroot = new Node(false);
+			newroot.children[0] = ri;
+			newroot.insert(0, promoted);
+			newroot.children[1] = w.id;
+			ri = newroot.id;
+			bs.writeBlock(ri, newroot);
+		}
+		promoted = null;
+		n++;
+		return true;
+	}
+
+	/**
+	 * Add the value x in the subtree rooted at the node with index ui
+	 *
+	 * @param x the element to add
+	 * @param ui the index of the node, u, at which to add x
+	 * @return a new node that was created when u was split (in which case
+	 *         promoted separates u from it), or null if u was not split
+	 */
+	protected Node addRecursive(String x, int ui) {
+		Node u = bs.readBlock(ui);
+		if (u.isLeaf()) {
+			int i = u.findIt(x);
+			if (i < 0) {
+				duplicate = true;
+				return null;
+			}
+			u.insert(i, x);
+		} else {
+			int i = u.childIndex(x);
+			Node w = addRecursive(x, u.children[i]);
+			if (w == null) return null;
+			// child was split, w is new child
+			u.insert(i, promoted);
+			System.arraycopy(u.children, i+1, u.children, i+2, u.count-i-1);
+			u.children[i+1] = w.id;
+		}
+		Node w = u.isFull() ? split(u) : null;
+		bs.writeBlock(u.id, u);
+		return w;
+	}
+
+	/**
+	 * Split u into two nodes and set promoted to the key that separates
+	 * them
+	 * @return the newly created block, which has the larger keys
+	 */
+	protected Node split(Node u) {
+		String[] a = u.keys();
+		int j = u.count/2;
+		Node w = new Node(u.isLeaf());
+		w.ensureKeys(u.count-j);
+		if (u.isLeaf()) {
+			promoted = separator(a[j-1], a[j]);
+			w.setKeys(a, j, u.count-j);
+			u.setKeys(a, 0, j);
+			w.next = u.next;
+			u.next = w.id;
+		} else {
+			promoted = a[j];
+			System.arraycopy(u.children, j+1, w.children, 0, u.count-j);
+			Arrays.fill(u.children, j+1, u.count+1, -1);
+			w.setKeys(a, j+1, u.count-j-1);
+			u.setKeys(a, 0, j);
+		}
+		bs.writeBlock(w.id, w);
+		return w;
+	}
+
+	public boolean remove(String x) {
+		if (removeRecursive(x, ri)) {
+			n--;
+			Node r = bs.readBlock(ri);
+			if (!r.isLeaf() && r.size() == 0) { // root has only one child
+				ri = r.children[0];
+				bs.freeBlock(r.id);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove the value x from the subtree rooted at the node with index ui
+	 *
+	 * @param x the value to remove
+	 * @param ui the index of the subtree to remove x from
+	 * @return true if x was removed and false otherwise
+	 */
+	protected boolean removeRecursive(String x, int ui) {
+		Node u = bs.readBlock(ui);
+		if (u.isLeaf()) {
+			int i = u.findIt(x);
+			if (i >= 0) return false;
+			u.remove(-(i+1));
+			bs.writeBlock(u.id, u);
+			return true;
+		}
+		int i = u.childIndex(x);
+		if (removeRecursive(x, u.children[i])) {
+			checkUnderflow(u, i);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if an underflow has occurred in the i'th child of u and, if so,
+	 * fix it by borrowing from or merging with a sibling
+	 */
+	protected void checkUnderflow(Node u, int i) {
+		Node w = bs.readBlock(u.children[i]);
+		if (w.size() > 0 && 4*w.used() >= budget) return;
+		if (i == 0)  // use w's right sibling
+			i++;
+		else
+			w = bs.readBlock(u.children[i-1]);
+		Node v = bs.readBlock(u.children[i]);
+		// now w and v are the (i-1)'th and i'th children of u
+		String[] a = keys(u, i-1, w, v);
+		if (a.length < (w.isLeaf() ? 2 : 3)
+				|| cost(a, a.length, w.isLeaf()) <= budget) {
+			merge(u, i-1, w, v, a);
+			bs.freeBlock(v.id);
+		} else {
+			redistribute(u, i-1, w, v, a);
+			bs.writeBlock(v.id, v);
+		}
+		bs.writeBlock(w.id, w);
+		bs.writeBlock(u.id, u);
+	}
+
+	/**
+	 * @return the keys of v and w, the i'th and (i+1)'th children of u,
+	 * in order, with the separator between them if they are internal
+	 */
+	protected String[] keys(Node u, int i, Node v, Node w) {
+		int sv = v.size(), sw = w.size();
+		String[] a = new String[sv + sw + (v.isLeaf() ? 0 : 1)];
+		int k = 0;
+		for (int j = 0; j < sv; j++)
+			a[k++] = v.key(j);
+		if (!v.isLeaf())
+			a[k++] = u.key(i);
+		for (int j = 0; j < sw; j++)
+			a[k++] = w.key(j);
+		return a;
+	}
+
+	/**
+	 * Merge w, the (i+1)'th child of u, into v, the i'th child of u
+	 * @param a the keys returned by keys(u, i, v, w)
+	 */
+	protected void merge(Node u, int i, Node v, Node w, String[] a) {
+		if (v.isLeaf()) {
+			v.next = w.next;
+		} else {
+			v.ensureKeys(a.length);
+			System.arraycopy(w.children, 0, v.children, v.size()+1, w.size()+1);
+		}
+		v.setKeys(a, 0, a.length);
+		// remove the separator and w from u
+		u.remove(i);
+		System.arraycopy(u.children, i+2, u.children, i+1, u.count-i);
+		u.children[u.count+1] = -1;
+	}
+
+	/**
+	 * Move keys between v and w, the i'th and (i+1)'th children of u, so
+	 * that they have (almost) the same number, and update the separator
+	 * between them.  This does the work of both shiftLR and shiftRL in
+	 * BTree.
+	 * @param a the keys returned by keys(u, i, v, w)
+	 */
+	protected void redistribute(Node u, int i, Node v, Node w, String[] a) {
+		int k = a.length, h = k/2;
+		String sep;
+		if (v.isLeaf()) {
+			sep = separator(a[h-1], a[h]);
+			v.setKeys(a, 0, h);
+			w.setKeys(a, h, k-h);
+		} else {
+			int sv = v.size(), sw = w.size();
+			int[] c = new int[sv+sw+2];
+			System.arraycopy(v.children, 0, c, 0, sv+1);
+			System.arraycopy(w.children, 0, c, sv+1, sw+1);
+			v.ensureKeys(h);
+			w.ensureKeys(k-h-1);
+			Arrays.fill(v.children, -1);
+			Arrays.fill(w.children, -1);
+			System.arraycopy(c, 0, v.children, 0, h+1);
+			System.arraycopy(c, h+1, w.children, 0, k-h);
+			sep = a[h];
+			v.setKeys(a, 0, h);
+			w.setKeys(a, h+1, k-h-1);
+		}
+		// replace the separator in u
+		u.remove(i);
+		u.insert(i, sep);
+	}
+
+	public void clear() {
+		n = 0;
+		bs.clear();
+		ri = new Node(true).id;
+	}
+
+	/**
+	 * @return the leaf whose range contains x
+	 */
+	protected Node leaf(String x) {
+		Node u = bs.readBlock(ri);
+		while (!u.isLeaf())
+			u = bs.readBlock(u.children[u.childIndex(x)]);
+		return u;
+	}
+
+	/**
+	 * @param x
+	 * @return true if x is in the tree
+	 */
+	public boolean contains(String x) {
+		return leaf(x).findIt(x) < 0;
+	}
+
+	public String find(String x) {
+		return findGE(x);
+	}
+
+	public String findGE(String x) {
+		Iterator<String> it = iterator(x);
+		return it.hasNext() ? it.next() : null;
+	}
+
+	public String findLT(String x) {
+		if (n == 0) return null;
+		int lt = -1;  // the subtree just left of the search path
+		Node u = bs.readBlock(ri);
+		while (!u.isLeaf()) {
+			int i = x == null ? u.count : u.childIndex(x);
+			if (i > 0) lt = u.children[i-1];
+			u = bs.readBlock(u.children[i]);
+		}
+		int i = x == null ? u.count : u.findIt(x);
+		if (i < 0) i = -(i+1);
+		if (i > 0) return u.key(i-1);
+		if (lt < 0) return null;
+		u = bs.readBlock(lt);
+		while (!u.isLeaf())
+			u = bs.readBlock(u.children[u.count]);
+		return u.key(u.count-1);
+	}
+
+	public Comparator<? super String> comparator() {
+		return new DefaultComparator<String>();
+	}
+
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * An iterator that walks along the linked list of leaves
+	 */
+	protected class SBTIterator implements Iterator<String> {
+		protected Node u;
+		protected int i;
+
+		public SBTIterator(String x) {
+			if (x == null) {
+				u = bs.readBlock(ri);
+				while (!u.isLeaf())
+					u = bs.readBlock(u.children[0]);
+				i = 0;
+			} else {
+				u = leaf(x);
+				i = u.findIt(x);
+				if (i < 0) i = -(i+1);
+			}
+			skip();
+		}
+
+		/**
+		 * Move to the next leaf when we've run off the end of this one
+		 */
+		protected void skip() {
+			while (u != null && i == u.count) {
+				u = u.next < 0 ? null : bs.readBlock(u.next);
+				i = 0;
+			}
+		}
+
+		public boolean hasNext() {
+			return u != null;
+		}
+
+		public String next() {
+			if (u == null) throw new NoSuchElementException();
+			String y = u.key(i++);
+			skip();
+			return y;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public Iterator<String> iterator(String x) {
+		return new SBTIterator(x);
+	}
+
+	public Iterator<String> iterator() {
+		return new SBTIterator(null);
+	}
+
+	/**
+	 * @return the number of chars used to store all the keys in the tree,
+	 * including the separators in internal nodes
+	 */
+	public long footprint() {
+		return footprint(ri);
+	}
+
+	protected long footprint(int ui) {
+		Node u = bs.readBlock(ui);
+		long m = u.footprint();
+		if (!u.isLeaf())
+			for (int i = 0; i <= u.count; i++)
+				m += footprint(u.children[i]);
+		return m;
+	}
+
+	/**
+	 * @return the number of blocks in use
+	 */
+	public int blocks() {
+		return bs.blocks.size() - bs.free.size();
+	}
+
+	/**
+	 * @return the number of internal nodes on a root-to-leaf path
+	 */
+	public int height() {
+		int h = 0;
+		for (Node u = bs.readBlock(ri); !u.isLeaf(); h++)
+			u = bs.readBlock(u.children[0]);
+		return h;
+	}
+
+	public String toString() {
+		return Utils.collectionToString(this);
+	}
+
+	/**
+	 * Generate n random strings that look like URLs, so they share long
+	 * prefixes
+	 */
+	protected static String[] urls(int n, java.util.Random rand) {
+		String[] hosts = {"http://www.example.com/", "http://www.example.org/",
+				"https://cs.example.ca/~user/", "https://opendatastructures.org/"};
+		String[] dirs = {"java/", "cpp/", "python/", "pseudocode/", "images/"};
+		String[] a = new String[n];
+		for (int i = 0; i < n; i++)
+			a[i] = hosts[rand.nextInt(hosts.length)]
+				+ dirs[rand.nextInt(dirs.length)]
+				+ "file" + rand.nextInt(10*n) + ".html";
+		return a;
+	}
+
+	/**
+	 * Compare against a TreeSet and against a BTree<String>
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int n = 100000;
+		java.util.Random rand = new java.util.Random(0);
+		for (int bb : new int[] {4, 16, 64, 512}) {
+			StringBTree t = new StringBTree(bb);
+			java.util.SortedSet<String> ss = new java.util.TreeSet<String>();
+			// short strings over a small alphabet, including "" and
+			// strings that are prefixes of other strings
+			for (int i = 0; i < 3*n; i++) {
+				String x = Integer.toString(rand.nextInt(2*n), 3);
+				x = x.substring(rand.nextInt(x.length()+1));
+				if (i < n || rand.nextBoolean())
+					Utils.myassert(t.add(x) == ss.add(x));
+				else
+					Utils.myassert(t.remove(x) == ss.remove(x));
+			}
+			Utils.myassert(t.size() == ss.size());
+			for (int i = 0; i < n; i++) {
+				String x = Integer.toString(rand.nextInt(2*n), 3);
+				x = x.substring(rand.nextInt(x.length()+1));
+				Utils.myassert(t.contains(x) == ss.contains(x));
+				Utils.myassert(Utils.equals(t.findGE(x), Utils.findGE(ss, x)));
+				Utils.myassert(Utils.equals(t.findLT(x), Utils.findLT(ss, x)));
+			}
+			Utils.myassert(Utils.equals(t.findLT(null), ss.last()));
+			Iterator<String> it = ss.iterator();
+			for (String x : t)
+				Utils.myassert(x.equals(it.next()));
+			Utils.myassert(!it.hasNext());
+			it = ss.tailSet("1").iterator();
+			Iterator<String> it2 = t.iterator("1");
+			while (it.hasNext())
+				Utils.myassert(it.next().equals(it2.next()));
+			Utils.myassert(!it2.hasNext());
+			for (String x : ss.toArray(new String[0]))
+				Utils.myassert(t.remove(x) && ss.remove(x));
+			Utils.myassert(t.size() == 0 && !t.iterator().hasNext());
+		}
+		System.out.println("StringBTree passed");
+
+		int budget = 2048;  // a 4KB block
+		n = 1000000;
+		String[] a = urls(n, rand);
+		long chars = 0;
+		for (String x : a) chars += x.length();
+		// the number of whole keys (and their children) that fit in a block
+		int b = (int)(budget / (chars/n + 4));
+		StringBTree t = new StringBTree(budget);
+		BTree<String> t2 = new BTree<String>(b, String.class);
+		long start = System.nanoTime();
+		for (String x : a) t.add(x);
+		long stop = System.nanoTime();
+		System.out.println("StringBTree: " + n + " adds in "
+				+ (stop-start)*1e-9 + "s");
+		start = System.nanoTime();
+		for (String x : a) t2.add(x);
+		stop = System.nanoTime();
+		System.out.println("BTree<String>: " + n + " adds in "
+				+ (stop-start)*1e-9 + "s");
+		start = System.nanoTime();
+		for (String x : a) Utils.myassert(t.contains(x));
+		stop = System.nanoTime();
+		System.out.println("StringBTree: " + n + " finds in "
+				+ (stop-start)*1e-9 + "s");
+		start = System.nanoTime();
+		for (String x : a) Utils.myassert(t2.find(x) != null);
+		stop = System.nanoTime();
+		System.out.println("BTree<String>: " + n + " finds in "
+				+ (stop-start)*1e-9 + "s");
+		System.out.println("Key chars: " + chars + " uncompressed, "
+				+ t.footprint() + " compressed (including separators)");
+		int h2 = 0;
+		for (BTree<String>.Node u = t2.bs.readBlock(t2.ri); !u.isLeaf(); h2++)
+			u = t2.bs.readBlock(u.children[0]);
+		System.out.println("StringBTree (" + budget + " chars/block): "
+				+ t.blocks() + " blocks, height " + t.height());
+		System.out.println("BTree<String> (b = " + b + "): "
+				+ (t2.bs.blocks.size() - t2.bs.free.size()) + " blocks, height "
+				+ h2);
+	}
+}
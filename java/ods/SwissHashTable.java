@@ -0,0 +1,408 @@
+package ods;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * An open addressing hash table with a "Swiss table" layout.  The slots
+ * are split into groups of 16 and, next to the array of elements, there
+ * is an array of control bytes, one per slot.  A control byte is either
+ * EMPTY, DELETED, or, for a slot that holds an element, 7 bits of that
+ * element's hash value (its fingerprint).
+ *
+ * The rest of the hash value chooses the group where x's search starts;
+ * the search then moves on to the following groups, just like linear
+ * probing does with slots.  Within a group, the control bytes are
+ * compared against x's fingerprint 8 at a time, using word-level
+ * arithmetic on longs (SIMD within a register), so equals() is only
+ * called on the (roughly 1 in 128) slots whose fingerprints match.  A
+ * search stops at the first group that has an EMPTY slot.  Because whole
+ * groups are checked at once, probe sequences stay short even when 7/8 of
+ * the slots are used, so this table only grows at 87.5% occupancy.
+ * @author morin
+ *
+ * @param <T>
+ */
+public class SwissHashTable<T> implements USet<T> {
+
+	protected static final int w = 32;
+
+	/**
+	 * Control bytes for empty and deleted slots.  Full slots have their
+	 * high bit clear.
+	 */
+	protected static final int EMPTY = 0x80;
+	protected static final int DELETED = 0xfe;
+
+	/**
+	 * Every byte of a long set to 0x01 and 0x80
+	 */
+	protected static final long LSB = 0x0101010101010101L;
+	protected static final long MSB = 0x8080808080808080L;
+
+	/**
+	 * The elements
+	 */
+	Object[] t;
+
+	/**
+	 * The control bytes, 8 per long; the control byte of slot i is byte
+	 * i%8 (counting from the low order byte) of ctrl[i/8]
+	 */
+	long[] ctrl;
+
+	int n;   // the size
+	int d;   // t.length = 2^d
+	int q;   // number of slots that aren't EMPTY
+
+	/**
+	 * The hash function
+	 */
+	HashStrategy hs;
+
+	public SwissHashTable() {
+		this(new HashStrategy.Tabulation(LinearHashTable.tab));
+	}
+
+	public SwissHashTable(HashStrategy hs) {
+		this.hs = hs;
+		allocate(4);
+	}
+
+	/**
+	 * Allocate an empty table with 2^d slots
+	 */
+	protected void allocate(int d) {
+		this.d = d;
+		t = new Object[1<<d];
+		ctrl = new long[(1<<d)/8];
+		java.util.Arrays.fill(ctrl, EMPTY * LSB);
+		q = 0;
+	}
+
+	/**
+	 * @return the 32-bit hash value of x
+	 */
+	protected int hash(Object x) {
+		return hs.hash(x.hashCode());
+	}
+
+	/**
+	 * @return the group where the search for an element with hash value h
+	 * starts (the high bits of h)
+	 */
+	protected int group(int h) {
+		return d == 4 ? 0 : h >>> (w-(d-4));
+	}
+
+	/**
+	 * @return the fingerprint of an element with hash value h (the low 7
+	 * bits of h)
+	 */
+	protected static int fingerprint(int h) {
+		return h & 0x7f;
+	}
+
+	/**
+	 * @return a mask with the high bit of byte k set for every byte k of
+	 * word that equals b.  (There can be false positives, but only in
+	 * bytes that follow a true match, and callers check the slots anyway.)
+	 */
+	protected static long matches(long word, int b) {
+		long x = word ^ (b * LSB);
+		return (x - LSB) & ~x & MSB;
+	}
+
+	/**
+	 * @return a mask with the high bit of byte k set for every EMPTY byte
+	 * of word
+	 */
+	protected static long empties(long word) {
+		return word & (~word << 6) & MSB;
+	}
+
+	protected int control(int i) {
+		return (int)(ctrl[i>>>3] >>> ((i&7)<<3)) & 0xff;
+	}
+
+	protected void setControl(int i, int b) {
+		int s = (i&7)<<3;
+		ctrl[i>>>3] = (ctrl[i>>>3] & ~(0xffL << s)) | ((long)b << s);
+	}
+
+	/**
+	 * @return the index of the slot holding x, or -1 if x isn't in the
+	 * table
+	 */
+	protected int slot(Object x, int h) {
+		int m = ctrl.length - 1;
+		int b = fingerprint(h);
+		int k = 2*group(h);   // index of the group's first word in ctrl
+		while (true) {
+			for (int j = k; j < k+2; j++) {
+				long word = ctrl[j];
+				for (long mm = matches(word, b); mm != 0; mm &= mm - 1) {
+					int i = (j << 3) + (Long.numberOfTrailingZeros(mm) >>> 3);
+					if (x.equals(t[i])) return i;
+				}
+			}
+			if (empties(ctrl[k]) != 0 || empties(ctrl[k+1]) != 0)
+				return -1;
+			k = (k + 2) & m;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public T find(T x) {
+		int i = slot(x, hash(x));
+		return i < 0 ? null : (T)t[i];
+	}
+
+	public boolean add(T x) {
+		int h = hash(x);
+		if (slot(x, h) >= 0) return false;
+		if (8*(q+1) > 7*t.length) { // max 87.5% occupancy
+			resize();
+		}
+		// find the first EMPTY or DELETED slot in x's probe sequence
+		int m = ctrl.length - 1;
+		int k = 2*group(h), i;
+		while (true) {
+			long mm = ctrl[k] & MSB;
+			if (mm != 0) {
+				i = (k << 3) + (Long.numberOfTrailingZeros(mm) >>> 3);
+				break;
+			}
+			mm = ctrl[k+1] & MSB;
+			if (mm != 0) {
+				i = ((k+1) << 3) + (Long.numberOfTrailingZeros(mm) >>> 3);
+				break;
+			}
+			k = (k + 2) & m;
+		}
+		if (control(i) == EMPTY) q++;
+		setControl(i, fingerprint(h));
+		t[i] = x;
+		n++;
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T remove(T x) {
+		int i = slot(x, hash(x));
+		if (i < 0) return null;
+		T y = (T)t[i];
+		t[i] = null;
+		// if i's group has an EMPTY slot, no search ever went past this
+		// group, so i can be EMPTY too; otherwise it has to be DELETED
+		int k = (i >>> 4) << 1;
+		if (empties(ctrl[k]) != 0 || empties(ctrl[k+1]) != 0) {
+			setControl(i, EMPTY);
+			q--;
+		} else {
+			setControl(i, DELETED);
+		}
+		n--;
+		if (8*n < t.length && d > 4) resize(); // min 12.5% occupancy
+		return y;
+	}
+
+	/**
+	 * Rebuild the table with 2^d slots, where 2^d is the smallest power of
+	 * 2 that is at least 16n/7 (so the new table is less than half full),
+	 * dropping all the DELETED slots
+	 */
+	@SuppressWarnings("unchecked")
+	protected void resize() {
+		Object[] told = t;
+		long[] cold = ctrl;
+		int dd = 4;
+		while ((1<<dd) < 16*(n+1)/7) dd++;
+		allocate(dd);
+		for (int i = 0; i < told.length; i++) {
+			int c = (int)(cold[i>>>3] >>> ((i&7)<<3)) & 0xff;
+			if ((c & 0x80) == 0)
+				insertFresh((T)told[i]);
+		}
+	}
+
+	/**
+	 * Add x, which isn't in the table, to a table with no DELETED slots
+	 */
+	protected void insertFresh(T x) {
+		int h = hash(x);
+		int m = ctrl.length - 1;
+		int k = 2*group(h);
+		while (true) {
+			for (int j = k; j < k+2; j++) {
+				long mm = empties(ctrl[j]);
+				if (mm != 0) {
+					int i = (j << 3) + (Long.numberOfTrailingZeros(mm) >>> 3);
+					setControl(i, fingerprint(h));
+					t[i] = x;
+					q++;
+					return;
+				}
+			}
+			k = (k + 2) & m;
+		}
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public void clear() {
+		n = 0;
+		allocate(4);
+	}
+
+	public Iterator<T> iterator() {
+		class IT implements Iterator<T> {
+			int i, iprev;
+			public IT() {
+				iprev = -1;
+				i = next(0);
+			}
+			protected int next(int i) {
+				while (i < t.length && (control(i) & 0x80) != 0) i++;
+				return i;
+			}
+			public boolean hasNext() {
+				return i < t.length;
+			}
+			@SuppressWarnings("unchecked")
+			public T next() {
+				if (i >= t.length) throw new NoSuchElementException();
+				T x = (T)t[i];
+				iprev = i;
+				i = next(i+1);
+				return x;
+			}
+			public void remove() {
+				if (iprev < 0) throw new IllegalStateException();
+				// mark the slot DELETED (never EMPTY), and don't resize
+				t[iprev] = null;
+				setControl(iprev, DELETED);
+				n--;
+				iprev = -1;
+			}
+		}
+		return new IT();
+	}
+
+	/**
+	 * @return the average number of groups examined by a successful
+	 * search
+	 */
+	@SuppressWarnings("unchecked")
+	protected double averageProbe() {
+		long total = 0;
+		for (int i = 0; i < t.length; i++) {
+			if ((control(i) & 0x80) == 0) {
+				int g = group(hash(t[i])), gi = i >>> 4;
+				total += ((gi - g) & ((t.length >>> 4) - 1)) + 1;
+			}
+		}
+		return n == 0 ? 0 : (double)total / n;
+	}
+
+	/**
+	 * Check against a HashSet, then look at probe lengths at high load
+	 * and time against LinearHashTable
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Random rand = new Random(1);
+		USet<Integer> sht = new SwissHashTable<Integer>();
+		Set<Integer> s = new HashSet<Integer>();
+		int n = 1000000;
+		System.out.println("Adding");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			if (s.add(x) != sht.add(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != sht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		System.out.println("Searching");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			if (s.contains(x) != (sht.find(x) != null))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+		}
+		System.out.println("Churning");
+		for (int i = 0; i < 4*n; i++) {
+			Integer x = rand.nextInt(n);
+			boolean rs, rsht;
+			if (rand.nextBoolean()) {
+				rs = s.add(x);
+				rsht = sht.add(x);
+			} else {
+				rs = s.remove(x);
+				rsht = sht.remove(x) != null;
+			}
+			if (rs != rsht)
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != sht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+		int count = 0;
+		Iterator<Integer> it = sht.iterator();
+		while (it.hasNext()) {
+			Integer x = it.next();
+			if (!s.contains(x))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			count++;
+			if (x % 3 == 0) {
+				it.remove();
+				s.remove(x);
+				count--;
+			}
+		}
+		if (count != s.size() || sht.size() != s.size())
+			throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		System.out.println("Removing");
+		for (int i = 0; i < n; i++) {
+			Integer x = rand.nextInt(n);
+			if (s.remove(x) != (sht.remove(x) != null))
+				throw new RuntimeException("Aaaaaaaaaaaaaaaah!");
+			if (s.size() != sht.size())
+				throw new RuntimeException("Bwaaaaaaaaaaaaaaah!");
+		}
+
+		// fill a table to just under 87.5%
+		SwissHashTable<Integer> full = new SwissHashTable<Integer>();
+		int m = 7*(1<<20)/8 - 1;
+		for (int i = 0; i < m; i++)
+			full.add(rand.nextInt());
+		System.out.printf("At %.1f%% load, a successful search examines %.3f groups%n",
+				100.0*full.q/full.t.length, full.averageProbe());
+
+		long start, stop;
+		Integer[] a = new Integer[n];
+		for (int i = 0; i < n; i++)
+			a[i] = rand.nextInt(2*n);
+		SwissHashTable<Integer> t1 = new SwissHashTable<Integer>();
+		LinearHashTable<Integer> t2 = new LinearHashTable<Integer>(-1);
+		for (int r = 0; r < 2; r++) {
+			start = System.nanoTime();
+			for (Integer x : a) t1.add(x);
+			for (Integer x : a) t1.find(x);
+			for (Integer x : a) t1.remove(x);
+			stop = System.nanoTime();
+			System.out.println("SwissHashTable: " + n + " adds, finds, and removes in "
+					+ (stop-start)*1e-9 + "s");
+			start = System.nanoTime();
+			for (Integer x : a) t2.add(x);
+			for (Integer x : a) t2.find(x);
+			for (Integer x : a) t2.remove(x);
+			stop = System.nanoTime();
+			System.out.println("LinearHashTable: " + n + " adds, finds, and removes in "
+					+ (stop-start)*1e-9 + "s");
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package ods;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -177,6 +178,19 @@ public class Testum {
 			System.out.println(" " + (1e-9 * (stop - start)) + " seconds");
 		}
 		System.out.println();
+
+		for (Set<Integer> s : cs) {
+			System.out.print("contains latency (" + s(s) + ")...");
+			long[] lat = new long[n];
+			for (int i = 0; i < n; i++) {
+				Integer x = r.nextInt(n*5);
+				start = System.nanoTime();
+				s.contains(x);
+				lat[i] = System.nanoTime() - start;
+			}
+			System.out.println(" " + percentiles(lat));
+		}
+		System.out.println();
 		
 		for (Set<Integer> s : cs) {
 			System.out.print("sequential removals (" + s(s) + ")...");
@@ -190,6 +204,24 @@ public class Testum {
 
 	}
 	
+	/**
+	 * Summarize some operation latencies, in nanoseconds.  Sorts lat.
+	 * @return the median, 99th, 99.9th and 99.99th percentiles and the
+	 * maximum of lat
+	 */
+	public static String percentiles(long[] lat) {
+		Arrays.sort(lat);
+		String[] names = { "p50", "p99", "p99.9", "p99.99" };
+		double[] ps = { 0.5, 0.99, 0.999, 0.9999 };
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < ps.length; i++) {
+			int k = Math.max(0, (int)Math.ceil(ps[i]*lat.length) - 1);
+			sb.append(names[i] + " " + lat[k] + "ns, ");
+		}
+		sb.append("max " + lat[lat.length-1] + "ns");
+		return sb.toString();
+	}
+
 	public static void sortedSetSpeedTests(Collection<SortedSet<Integer>> css, int n) {
 		long start, stop;
 
@@ -1,13 +1,16 @@
 package ods;
 
 import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
 public class USetMap<K,V> extends AbstractMap<K,V> {
 	/**
-	 * FIXME: Doesn't have the same equals() and hashCode()
-	 *  that the API demands
+	 * The elements of s.  Two Entries are equal if their keys are, which
+	 * is what lets s find the Entry for a key; entrySet() hands out views
+	 * that follow the equals() and hashCode() of Map.Entry instead.
 	 * @author morin
 	 */
 	protected class Entry implements Map.Entry<K, V> {
@@ -17,8 +20,9 @@ public class USetMap<K,V> extends AbstractMap<K,V> {
 			this.k = k;
 			this.v = v;
 		}
-		public boolean equals(Entry x) {
-			return x.k.equals(k);
+		@SuppressWarnings("unchecked")
+		public boolean equals(Object x) {
+			return x instanceof USetMap.Entry && ((Entry)x).k.equals(k);
 		}
 		public int hashCode() {
 			return k.hashCode();
@@ -33,7 +37,9 @@ public class USetMap<K,V> extends AbstractMap<K,V> {
 		}
 		@Override
 		public V setValue(V value) {
-			return v = value;
+			V old = v;
+			v = value;
+			return old;
 		}
 	}
 
@@ -44,12 +50,18 @@ public class USetMap<K,V> extends AbstractMap<K,V> {
 	}
 	
 	public V put(K k, V v) {
-		Entry p = new Entry(k, v);
-		Map.Entry<K, V> q = s.remove(p);
-		s.add(p);
-		return q == null ? null : q.getValue();
+		Map.Entry<K, V> q = s.find(new Entry(k, null));
+		if (q != null) return q.setValue(v);
+		s.add(new Entry(k, v));
+		return null;
 	}
 	
+	@SuppressWarnings("unchecked")
+	public V get(Object k) {
+		Map.Entry<K, V> p = s.find(new Entry((K)k, null));
+		return p == null ? null : p.getValue();
+	}
+
 	@SuppressWarnings("unchecked")
 	public V remove(Object k) {
 		Map.Entry<K,V> p = s.remove(new Entry((K)k, null));
@@ -66,6 +78,31 @@ public class USetMap<K,V> extends AbstractMap<K,V> {
 	}
 	
 	public Set<Map.Entry<K, V>> entrySet() {
-		return new USetSet<Map.Entry<K, V>>(s);
+		return new AbstractSet<Map.Entry<K, V>>() {
+			public int size() {
+				return s.size();
+			}
+			public Iterator<Map.Entry<K, V>> iterator() {
+				final Iterator<Map.Entry<K, V>> it = s.iterator();
+				return new Iterator<Map.Entry<K, V>>() {
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					@SuppressWarnings("serial")
+					public Map.Entry<K, V> next() {
+						final Map.Entry<K, V> e = it.next();
+						return new AbstractMap.SimpleEntry<K, V>(e) {
+							public V setValue(V value) {
+								e.setValue(value);
+								return super.setValue(value);
+							}
+						};
+					}
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+		};
 	}
 }
@@ -46,6 +46,7 @@ public class USetSet<T> extends AbstractSet<T> {
 		cs.add(new HashSet<Integer>());
 		cs.add(new USetSet<Integer>(new LinearHashTable<Integer>(-1)));
 		cs.add(new USetSet<Integer>(new ChainedHashTable<Integer>()));
+		cs.add(new USetSet<Integer>(new CuckooHashTable<Integer>()));
 		Testum.setSpeedTests(cs, n);
 	}
 